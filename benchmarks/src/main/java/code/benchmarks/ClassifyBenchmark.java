@@ -0,0 +1,130 @@
+/* ClassifyBenchmark - Per article cost of scoring a test vector: Mahout's
+ * classifyFull over every label, the precomputed CNB weight kernel
+ * TrainTestNBayes scores with, and the top 3 selection over a full vector
+ * of label scores on its own, and the pruned top 3 of PrunedTopKScorer,
+ * which picks the same labels from the kernel's weights. Vectors are
+ * vectorized synthetic articles, and the model has 2000 Zipf-drawn weight
+ * sums per label (SyntheticData).
+ */
+
+package code.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.classifier.naivebayes.ComplementaryNaiveBayesClassifier;
+import org.apache.mahout.classifier.naivebayes.NaiveBayesModel;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import code.runmahout.ComplementaryScoringKernel;
+import code.runmahout.ModelWeights;
+import code.runmahout.PrunedTopKScorer;
+import code.runmahout.ScoringBuffer;
+import code.vectorcreate.LemmaIndexVectorizer;
+import code.vectorcreate.Vocabulary;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+//the kernel's and the pruned scorer's weight matrices are labels x features doubles each
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class ClassifyBenchmark {
+	@Param({ "10000", "100000" })
+	public int vocabularySize;
+
+	@Param({ "50", "500" })
+	public int labelCount;
+
+	@Param({ "50", "500" })
+	public int articleLength;
+
+	private Vector[] vectors;
+	private int next;
+	private ComplementaryNaiveBayesClassifier classifier;
+	private ComplementaryScoringKernel kernel;
+	private ScoringBuffer buffer;
+	private PrunedTopKScorer pruned;
+	private ScoringBuffer prunedBuffer;
+	//label scores for the selection-only benchmark
+	private double[][] labelScores;
+
+	@Setup
+	public void setup() throws IOException {
+		Vocabulary vocabulary = SyntheticData.vocabulary(vocabularySize);
+		LemmaIndexVectorizer vectorizer = new LemmaIndexVectorizer(vocabulary, true);
+		byte[][] articles = SyntheticData.articles(vocabularySize, articleLength, 42);
+		vectors = new Vector[articles.length];
+		for (int i = 0; i < articles.length; i++) {
+			vectors[i] = vectorizer.vectorize(articles[i], SyntheticData.lemmaIndexStart(articles[i]),
+					articles[i].length, LemmaIndexVectorizer.SILENT);
+		}
+
+		NaiveBayesModel model = SyntheticData.model(vocabularySize, labelCount, 7);
+		classifier = new ComplementaryNaiveBayesClassifier(model);
+		ModelWeights weights = SyntheticData.modelWeights(model);
+		kernel = new ComplementaryScoringKernel(weights);
+		buffer = kernel.newBuffer(3);
+		pruned = new PrunedTopKScorer(weights);
+		prunedBuffer = pruned.newBuffer(3);
+
+		Random random = new Random(11);
+		labelScores = new double[articles.length][labelCount];
+		for (double[] scores : labelScores) {
+			for (int label = 0; label < labelCount; label++) {
+				scores[label] = -1000 * random.nextDouble();
+			}
+		}
+	}
+
+	private int nextIndex() {
+		int index = next;
+		next = (next + 1) % vectors.length;
+		return index;
+	}
+
+	//Mahout's classifier, one score per label
+	@Benchmark
+	public Vector classifyFull() {
+		return classifier.classifyFull(vectors[nextIndex()]);
+	}
+
+	//precomputed weight kernel and top 3, as TrainTestNBayes scores every test vector
+	@Benchmark
+	public int kernelTop3() {
+		kernel.score(vectors[nextIndex()], buffer);
+		return buffer.label(0);
+	}
+
+	//same top 3 as kernelTop3, scoring only the labels that can make it
+	@Benchmark
+	public int prunedTop3() {
+		pruned.score(vectors[nextIndex()], prunedBuffer);
+		return prunedBuffer.label(0);
+	}
+
+	//top 3 selection of TrainTestNBayes over already computed label scores
+	@Benchmark
+	public int top3Selection() {
+		double[] scores = labelScores[nextIndex()];
+		buffer.clear();
+		for (int label = 0; label < scores.length; label++) {
+			buffer.offer(label, scores[label]);
+		}
+		buffer.finish();
+		return buffer.label(0);
+	}
+}
@@ -0,0 +1,183 @@
+/* FeatureSelectionReport - Measures what SelectFeaturesMapred buys, in
+ * Hadoop local mode on synthetic Wikipedia data (SyntheticWikipedia). It
+ * runs ExportLemmasMapred and SelectFeaturesMapred once, then builds
+ * vectors, trains and evaluates once with the full vocabulary and once
+ * with the selected vocabulary of every N in featuresPerLabel. For each it
+ * reports the vocabulary size, the bytes of the vectors and of the model,
+ * the evaluation wall time and throughput (test articles per second,
+ * reading, scoring and writing predictions included) and the accuracy.
+ * Training articles skip lemmas outside the vocabulary in every run
+ * (skipUnknownTrainLemmas), so the full vocabulary row is the baseline the
+ * selected ones are compared to. Results are printed as a table and
+ * written to <work dir>/feature-selection.tsv.
+ */
+
+package code.benchmarks;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import code.runmahout.EvaluationCounts;
+import code.runmahout.TrainTestNBayes;
+import code.vectorcreate.CreateVectorMapred;
+import code.vectorcreate.ExportLemmasMapred;
+import code.vectorcreate.SelectFeaturesMapred;
+import code.vectorcreate.Vocabulary;
+
+public class FeatureSelectionReport {
+	public static final String REPORT_FILE = "feature-selection.tsv";
+
+	//measurements of one vocabulary
+	private static class VocabularyResult {
+		final String vocabulary;
+		final int lemmas;
+		final long vectorBytes;
+		final long modelBytes;
+		final long evaluateMillis;
+		final double articlesPerSecond;
+		final double accuracy;
+
+		VocabularyResult(String vocabulary, int lemmas, long vectorBytes, long modelBytes, long evaluateMillis,
+				double articlesPerSecond, double accuracy) {
+			this.vocabulary = vocabulary;
+			this.lemmas = lemmas;
+			this.vectorBytes = vectorBytes;
+			this.modelBytes = modelBytes;
+			this.evaluateMillis = evaluateMillis;
+			this.articlesPerSecond = articlesPerSecond;
+			this.accuracy = accuracy;
+		}
+	}
+
+	private static long bytes(FileSystem fs, Path path) throws Exception {
+		return fs.exists(path) ? fs.getContentSummary(path).getLength() : 0;
+	}
+
+	//builds vectors against vocabularyPath, trains and evaluates under dir--returns null if a stage failed
+	private static VocabularyResult runVocabulary(Configuration conf, FileSystem fs, Path input, Path dir,
+			String name, Path vocabularyPath) throws Exception {
+		fs.delete(dir, true);
+		Path vectors = new Path(dir, "vectors");
+		Path model = new Path(dir, "model");
+		Path labelIndex = new Path(dir, "labelIndex");
+		File predictions = new File(new File(dir.toUri().getPath()), "prediction-results.txt");
+
+		Configuration vectorConf = new Configuration(conf);
+		vectorConf.set("type", "split");
+		vectorConf.set("vocabularyPath", vocabularyPath.toString());
+		vectorConf.set("professionsPath", new Path(input, SyntheticWikipedia.PROFESSIONS_INDEX_FILE).toString());
+		vectorConf.setBoolean("skipUnknownTrainLemmas", true);
+		if (!CreateVectorMapred.run(vectorConf, new Path(input, SyntheticWikipedia.ARTICLES_DIR).toString(),
+				vectors.toString())) {
+			System.err.println("CreateVectorMapred failed with vocabulary " + name + ".");
+			return null;
+		}
+
+		Configuration modelConf = new Configuration(conf);
+		modelConf.set("trainVectorsPath", new Path(vectors, CreateVectorMapred.TRAIN_OUTPUT).toString());
+		modelConf.set("testVectorsPath", new Path(vectors, CreateVectorMapred.TEST_OUTPUT).toString());
+		modelConf.set("modelPath", model.toString());
+		modelConf.set("labelIndexPath", labelIndex.toString());
+		modelConf.set("predictionsPath", predictions.getPath());
+		if (!TrainTestNBayes.train(modelConf)) {
+			System.err.println("Training failed with vocabulary " + name + ".");
+			return null;
+		}
+		long start = System.currentTimeMillis();
+		EvaluationCounts counts = TrainTestNBayes.evaluate(modelConf);
+		long millis = System.currentTimeMillis() - start;
+		int lemmas = Vocabulary.read(fs, vocabularyPath).size();
+		return new VocabularyResult(name, lemmas, bytes(fs, vectors), bytes(fs, model) + bytes(fs, labelIndex),
+				millis, counts.getTotalPredictions() * 1000.0 / Math.max(millis, 1), counts.getAccuracy());
+	}
+
+	private static void print(PrintStream out, List<VocabularyResult> results, boolean tsv) {
+		String header = tsv ? "%s\t%s\t%s\t%s\t%s\t%s\t%s\n" : "%-12s %10s %14s %14s %12s %12s %10s\n";
+		String format = tsv ? "%s\t%d\t%d\t%d\t%d\t%.1f\t%.2f\n" : "%-12s %10d %14d %14d %12d %12.1f %9.2f%%\n";
+		out.printf(header, "vocabulary", "lemmas", "vector bytes", "model bytes", "evaluate ms", "articles/s",
+				"accuracy");
+		for (VocabularyResult result : results) {
+			out.printf(format, result.vocabulary, result.lemmas, result.vectorBytes, result.modelBytes,
+					result.evaluateMillis, result.articlesPerSecond, result.accuracy);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		//every job runs in this JVM, on the local file system
+		conf.set("mapreduce.framework.name", "local");
+		conf.set("fs.defaultFS", "file:///");
+		/* optional parameters (-D name=value):
+		 * documents = NUMBER OF SYNTHETIC ARTICLES (DEFAULT 100000)--an existing <work dir>/input is reused
+		 * featuresPerLabel = COMMA-SEPARATED N TO SELECT THE TOP N LEMMAS PER PROFESSION AT (DEFAULT 100,1000,10000)
+		 * featureScore = 'chi2' (DEFAULT) OR 'mi', SEE SelectFeaturesMapred
+		 * testRatio = FRACTION OF ARTICLES IN THE TEST SET (DEFAULT 0.1)
+		 * trainer = TRAINER OF TrainTestNBayes ('mahout' (DEFAULT), 'multiLabel' OR 'inMemory')
+		 * vocabularySize, numProfessions, articleLength, seed = SHAPE OF THE DATA, SEE SyntheticWikipedia
+		 * any other TrainTestNBayes, ExportLemmasMapred or CreateVectorMapred option is passed on to its stage
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 1) {
+			System.err.println("Usage: feature-selection-report <work dir>");
+			System.exit(2);
+		}
+		if (conf.get("testRatio") == null) {
+			conf.set("testRatio", "0.1");
+		}
+		FileSystem fs = FileSystem.get(conf);
+		Path workDir = fs.makeQualified(new Path(otherArgs[0]));
+		Path input = new Path(workDir, "input");
+		Path lemmas = new Path(workDir, "lemmas");
+		Path selected = new Path(workDir, "selected");
+		Path articles = new Path(input, SyntheticWikipedia.ARTICLES_DIR);
+		if (!fs.exists(articles)) {
+			SyntheticWikipedia.fromConf(conf).generate(fs, input, conf.getInt("documents", 100000),
+					conf.getLong("seed", 42));
+		}
+
+		fs.delete(lemmas, true);
+		if (!ExportLemmasMapred.run(new Configuration(conf), articles.toString(), lemmas.toString())) {
+			System.err.println("ExportLemmasMapred failed.");
+			System.exit(1);
+		}
+		Path vocabularyPath = new Path(lemmas, ExportLemmasMapred.VOCABULARY_FILE);
+		Configuration selectConf = new Configuration(conf);
+		selectConf.set("vocabularyPath", vocabularyPath.toString());
+		selectConf.set("professionsPath", new Path(input, SyntheticWikipedia.PROFESSIONS_INDEX_FILE).toString());
+		fs.delete(selected, true);
+		long start = System.currentTimeMillis();
+		if (!SelectFeaturesMapred.run(selectConf, articles.toString(), selected.toString())) {
+			System.err.println("SelectFeaturesMapred failed.");
+			System.exit(1);
+		}
+		System.out.println("Selected features in " + (System.currentTimeMillis() - start) + " ms.");
+
+		List<VocabularyResult> results = new ArrayList<VocabularyResult>();
+		VocabularyResult full = runVocabulary(conf, fs, input, new Path(workDir, "all"), "all", vocabularyPath);
+		if (full == null) {
+			System.exit(1);
+		}
+		results.add(full);
+		for (String n : selectConf.getTrimmedStrings("featuresPerLabel", "100", "1000", "10000")) {
+			VocabularyResult result = runVocabulary(conf, fs, input, new Path(workDir, "top-" + n), "top " + n,
+					new Path(selected, "vocabulary-" + n + ".bin"));
+			if (result == null) {
+				System.exit(1);
+			}
+			results.add(result);
+		}
+
+		print(System.out, results, false);
+		PrintStream report = new PrintStream(fs.create(new Path(workDir, REPORT_FILE), true), false, "UTF-8");
+		print(report, results, true);
+		report.close();
+		System.out.println("Wrote " + new Path(workDir, REPORT_FILE));
+	}
+}
@@ -0,0 +1,179 @@
+/* HashingReport - Compares CreateVectorMapred's hashing vectorizer with
+ * the exact vocabulary path, in Hadoop local mode on synthetic Wikipedia
+ * data (SyntheticWikipedia). The exact path runs ExportLemmasMapred and a
+ * 'split' CreateVectorMapred against the vocabulary it wrote; the hashing
+ * path is a single 'split' CreateVectorMapred with -D vectorizer=hashing,
+ * once for every number of features in hashFeatures. Each set of vectors is
+ * then trained on and evaluated. For each the report gives the number of
+ * features, the wall time of vectorization (both jobs on the exact path)
+ * and its throughput in input megabytes per second, the bytes of the
+ * vectors and of the model, and the accuracy. Results are printed as a
+ * table and written to <work dir>/hashing.tsv.
+ */
+
+package code.benchmarks;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import code.runmahout.EvaluationCounts;
+import code.runmahout.TrainTestNBayes;
+import code.vectorcreate.CreateVectorMapred;
+import code.vectorcreate.ExportLemmasMapred;
+import code.vectorcreate.Vocabulary;
+
+public class HashingReport {
+	public static final String REPORT_FILE = "hashing.tsv";
+
+	//measurements of one vectorizer
+	private static class VectorizerResult {
+		final String vectorizer;
+		final int features;
+		final long vectorizeMillis;
+		final double megabytesPerSecond;
+		final long vectorBytes;
+		final long modelBytes;
+		final double accuracy;
+
+		VectorizerResult(String vectorizer, int features, long vectorizeMillis, double megabytesPerSecond,
+				long vectorBytes, long modelBytes, double accuracy) {
+			this.vectorizer = vectorizer;
+			this.features = features;
+			this.vectorizeMillis = vectorizeMillis;
+			this.megabytesPerSecond = megabytesPerSecond;
+			this.vectorBytes = vectorBytes;
+			this.modelBytes = modelBytes;
+			this.accuracy = accuracy;
+		}
+	}
+
+	private static long bytes(FileSystem fs, Path path) throws Exception {
+		return fs.exists(path) ? fs.getContentSummary(path).getLength() : 0;
+	}
+
+	/* builds vectors under dir with vectorConf (the exact path runs ExportLemmasMapred first), trains and
+	 * evaluates--returns null if a stage failed*/
+	private static VectorizerResult runVectorizer(Configuration conf, FileSystem fs, Path input, Path dir,
+			String name, Configuration vectorConf) throws Exception {
+		fs.delete(dir, true);
+		Path articles = new Path(input, SyntheticWikipedia.ARTICLES_DIR);
+		Path lemmas = new Path(dir, "lemmas");
+		Path vectors = new Path(dir, "vectors");
+		Path model = new Path(dir, "model");
+		Path labelIndex = new Path(dir, "labelIndex");
+		File predictions = new File(new File(dir.toUri().getPath()), "prediction-results.txt");
+
+		boolean hashing = vectorConf.get("vectorizer", "").equals(CreateVectorMapred.HASHING_VECTORIZER);
+		vectorConf.set("type", "split");
+		vectorConf.set("professionsPath", new Path(input, SyntheticWikipedia.PROFESSIONS_INDEX_FILE).toString());
+		long start = System.currentTimeMillis();
+		int features;
+		if (hashing) {
+			features = vectorConf.getInt("hashFeatures", 0);
+		} else {
+			if (!ExportLemmasMapred.run(new Configuration(conf), articles.toString(), lemmas.toString())) {
+				System.err.println("ExportLemmasMapred failed.");
+				return null;
+			}
+			Path vocabularyPath = new Path(lemmas, ExportLemmasMapred.VOCABULARY_FILE);
+			vectorConf.set("vocabularyPath", vocabularyPath.toString());
+			features = Vocabulary.read(fs, vocabularyPath).size();
+		}
+		if (!CreateVectorMapred.run(vectorConf, articles.toString(), vectors.toString())) {
+			System.err.println("CreateVectorMapred failed with vectorizer " + name + ".");
+			return null;
+		}
+		long vectorizeMillis = System.currentTimeMillis() - start;
+
+		Configuration modelConf = new Configuration(conf);
+		modelConf.set("trainVectorsPath", new Path(vectors, CreateVectorMapred.TRAIN_OUTPUT).toString());
+		modelConf.set("testVectorsPath", new Path(vectors, CreateVectorMapred.TEST_OUTPUT).toString());
+		modelConf.set("modelPath", model.toString());
+		modelConf.set("labelIndexPath", labelIndex.toString());
+		modelConf.set("predictionsPath", predictions.getPath());
+		if (!TrainTestNBayes.train(modelConf)) {
+			System.err.println("Training failed with vectorizer " + name + ".");
+			return null;
+		}
+		EvaluationCounts counts = TrainTestNBayes.evaluate(modelConf);
+		return new VectorizerResult(name, features, vectorizeMillis,
+				bytes(fs, articles) / 1e3 / Math.max(vectorizeMillis, 1), bytes(fs, vectors),
+				bytes(fs, model) + bytes(fs, labelIndex), counts.getAccuracy());
+	}
+
+	private static void print(PrintStream out, List<VectorizerResult> results, boolean tsv) {
+		String header = tsv ? "%s\t%s\t%s\t%s\t%s\t%s\t%s\n" : "%-16s %10s %12s %10s %14s %14s %10s\n";
+		String format = tsv ? "%s\t%d\t%d\t%.2f\t%d\t%d\t%.2f\n" : "%-16s %10d %12d %10.2f %14d %14d %9.2f%%\n";
+		out.printf(header, "vectorizer", "features", "vectorize ms", "input MB/s", "vector bytes", "model bytes",
+				"accuracy");
+		for (VectorizerResult result : results) {
+			out.printf(format, result.vectorizer, result.features, result.vectorizeMillis, result.megabytesPerSecond,
+					result.vectorBytes, result.modelBytes, result.accuracy);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		//every job runs in this JVM, on the local file system
+		conf.set("mapreduce.framework.name", "local");
+		conf.set("fs.defaultFS", "file:///");
+		/* optional parameters (-D name=value):
+		 * documents = NUMBER OF SYNTHETIC ARTICLES (DEFAULT 100000)--an existing <work dir>/input is reused
+		 * hashFeatures = COMMA-SEPARATED NUMBERS OF HASHED FEATURES TO RUN THE HASHING VECTORIZER WITH
+		 *   (DEFAULT 16384,65536,262144)
+		 * hashSigned = 'false' FOR UNSIGNED HASHING, SEE FeatureHasher
+		 * testRatio = FRACTION OF ARTICLES IN THE TEST SET (DEFAULT 0.1)
+		 * trainer = TRAINER OF TrainTestNBayes ('mahout' (DEFAULT), 'multiLabel' OR 'inMemory')
+		 * vocabularySize, numProfessions, articleLength, seed = SHAPE OF THE DATA, SEE SyntheticWikipedia
+		 * any other TrainTestNBayes, ExportLemmasMapred or CreateVectorMapred option is passed on to its stage
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 1) {
+			System.err.println("Usage: hashing-report <work dir>");
+			System.exit(2);
+		}
+		if (conf.get("testRatio") == null) {
+			conf.set("testRatio", "0.1");
+		}
+		FileSystem fs = FileSystem.get(conf);
+		Path workDir = fs.makeQualified(new Path(otherArgs[0]));
+		Path input = new Path(workDir, "input");
+		if (!fs.exists(new Path(input, SyntheticWikipedia.ARTICLES_DIR))) {
+			SyntheticWikipedia.fromConf(conf).generate(fs, input, conf.getInt("documents", 100000),
+					conf.getLong("seed", 42));
+		}
+		String[] hashFeatures = conf.getTrimmedStrings("hashFeatures", "16384", "65536", "262144");
+
+		List<VectorizerResult> results = new ArrayList<VectorizerResult>();
+		VectorizerResult exact = runVectorizer(conf, fs, input, new Path(workDir, "vocabulary"), "vocabulary",
+				new Configuration(conf));
+		if (exact == null) {
+			System.exit(1);
+		}
+		results.add(exact);
+		for (String n : hashFeatures) {
+			Configuration hashingConf = new Configuration(conf);
+			hashingConf.set("vectorizer", CreateVectorMapred.HASHING_VECTORIZER);
+			hashingConf.set("hashFeatures", n);
+			VectorizerResult result = runVectorizer(conf, fs, input, new Path(workDir, "hashing-" + n),
+					"hashing " + n, hashingConf);
+			if (result == null) {
+				System.exit(1);
+			}
+			results.add(result);
+		}
+
+		print(System.out, results, false);
+		PrintStream report = new PrintStream(fs.create(new Path(workDir, REPORT_FILE), true), false, "UTF-8");
+		print(report, results, true);
+		report.close();
+		System.out.println("Wrote " + new Path(workDir, REPORT_FILE));
+	}
+}
@@ -0,0 +1,225 @@
+/* InputFormatReport - Measures what combined splits, bzip2 compressed
+ * input and block-compressed vectors do to the vectorization jobs, in
+ * Hadoop local mode on synthetic Wikipedia data (SyntheticWikipedia). The
+ * articles are first redistributed over many files of very uneven size,
+ * the way part 1 leaves them (Zipf-distributed file sizes), once as plain
+ * text and once bzip2 compressed. Then ExportLemmasMapred and a 'split'
+ * CreateVectorMapred run over
+ *   per-file: the plain files, one split per file (the old input handling)
+ *   combined: the plain files in combined splits (combineSplitSize)
+ *   bzip2 combined: the compressed files in combined splits
+ *   combined, codec: the plain files in combined splits, with the vectors
+ *     block-compressed by vectorCodec
+ * For each the report gives the map tasks (input splits) of a job, the
+ * bytes of input read, the wall time of the two jobs, the bytes of the
+ * vectors and the number of training articles ExportLemmasMapred counted,
+ * which must be the same in every row. Results are printed as a table and
+ * written to <work dir>/input-format.tsv.
+ */
+
+package code.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import code.vectorcreate.CreateVectorMapred;
+import code.vectorcreate.ExportLemmasMapred;
+import code.vectorcreate.LemmaIndexInput;
+import code.vectorcreate.Vocabulary;
+
+public class InputFormatReport {
+	public static final String REPORT_FILE = "input-format.tsv";
+
+	//measurements of one input handling
+	private static class InputResult {
+		final String input;
+		final int splits;
+		final long inputBytes;
+		final long exportMillis;
+		final long vectorizeMillis;
+		final long vectorBytes;
+		final int documents;
+
+		InputResult(String input, int splits, long inputBytes, long exportMillis, long vectorizeMillis,
+				long vectorBytes, int documents) {
+			this.input = input;
+			this.splits = splits;
+			this.inputBytes = inputBytes;
+			this.exportMillis = exportMillis;
+			this.vectorizeMillis = vectorizeMillis;
+			this.vectorBytes = vectorBytes;
+			this.documents = documents;
+		}
+	}
+
+	private static long bytes(FileSystem fs, Path path) throws Exception {
+		return fs.exists(path) ? fs.getContentSummary(path).getLength() : 0;
+	}
+
+	/* copies the article lines of the part files in articles to numFiles files in out, the file of every
+	 * line drawn Zipf-distributed, and compresses every file to bzip2Out*/
+	private static void redistribute(Configuration conf, FileSystem fs, Path articles, Path out, Path bzip2Out,
+			int numFiles, long seed) throws Exception {
+		double[] fileCumulative = SyntheticData.zipfCumulative(numFiles, SyntheticData.ZIPF_EXPONENT);
+		OutputStream[] files = new OutputStream[numFiles];
+		for (int i = 0; i < numFiles; i++) {
+			files[i] = fs.create(new Path(out, String.format("part-%05d", i)), true);
+		}
+		Random random = new Random(seed);
+		for (FileStatus status : fs.listStatus(articles)) {
+			if (!status.getPath().getName().startsWith("part-")) {
+				continue;
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(status.getPath()),
+					StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+				files[SyntheticData.sample(fileCumulative, random)].write(bytes);
+			}
+			reader.close();
+		}
+		//one file at a time--every bzip2 stream holds several megabytes of buffers
+		CompressionCodec bzip2 = new CompressionCodecFactory(conf).getCodecByName("bzip2");
+		for (int i = 0; i < numFiles; i++) {
+			files[i].close();
+			Path file = new Path(out, String.format("part-%05d", i));
+			OutputStream bzip2File = bzip2.createOutputStream(fs.create(new Path(bzip2Out,
+					file.getName() + bzip2.getDefaultExtension()), true));
+			IOUtils.copyBytes(fs.open(file), bzip2File, conf, true);
+		}
+	}
+
+	//number of input splits, and so map tasks, of a job over in with conf
+	private static int splits(Configuration conf, Path in) throws Exception {
+		Job job = Job.getInstance(conf);
+		LemmaIndexInput.setInput(job, in.toString());
+		InputFormat<?, ?> inputFormat = ReflectionUtils.newInstance(job.getInputFormatClass(), job.getConfiguration());
+		return inputFormat.getSplits(job).size();
+	}
+
+	//runs ExportLemmasMapred and CreateVectorMapred over in under dir with runConf--returns null if a job failed
+	private static InputResult runInput(Configuration runConf, FileSystem fs, Path input, Path in, Path dir,
+			String name) throws Exception {
+		fs.delete(dir, true);
+		Path lemmas = new Path(dir, "lemmas");
+		Path vectors = new Path(dir, "vectors");
+		int splits = splits(runConf, in);
+
+		long start = System.currentTimeMillis();
+		if (!ExportLemmasMapred.run(new Configuration(runConf), in.toString(), lemmas.toString())) {
+			System.err.println("ExportLemmasMapred failed with input " + name + ".");
+			return null;
+		}
+		long exportMillis = System.currentTimeMillis() - start;
+		Path vocabularyPath = new Path(lemmas, ExportLemmasMapred.VOCABULARY_FILE);
+
+		Configuration vectorConf = new Configuration(runConf);
+		vectorConf.set("type", "split");
+		vectorConf.set("vocabularyPath", vocabularyPath.toString());
+		vectorConf.set("professionsPath", new Path(input, SyntheticWikipedia.PROFESSIONS_INDEX_FILE).toString());
+		start = System.currentTimeMillis();
+		if (!CreateVectorMapred.run(vectorConf, in.toString(), vectors.toString())) {
+			System.err.println("CreateVectorMapred failed with input " + name + ".");
+			return null;
+		}
+		long vectorizeMillis = System.currentTimeMillis() - start;
+		return new InputResult(name, splits, bytes(fs, in), exportMillis, vectorizeMillis, bytes(fs, vectors),
+				Vocabulary.read(fs, vocabularyPath).numDocuments());
+	}
+
+	private static void print(PrintStream out, List<InputResult> results, boolean tsv) {
+		String header = tsv ? "%s\t%s\t%s\t%s\t%s\t%s\t%s\n" : "%-18s %10s %14s %10s %12s %14s %10s\n";
+		String format = tsv ? "%s\t%d\t%d\t%d\t%d\t%d\t%d\n" : "%-18s %10d %14d %10d %12d %14d %10d\n";
+		out.printf(header, "input", "map tasks", "input bytes", "export ms", "vectorize ms", "vector bytes",
+				"documents");
+		for (InputResult result : results) {
+			out.printf(format, result.input, result.splits, result.inputBytes, result.exportMillis,
+					result.vectorizeMillis, result.vectorBytes, result.documents);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		//every job runs in this JVM, on the local file system
+		conf.set("mapreduce.framework.name", "local");
+		conf.set("fs.defaultFS", "file:///");
+		/* optional parameters (-D name=value):
+		 * documents = NUMBER OF SYNTHETIC ARTICLES (DEFAULT 100000)--an existing <work dir>/input is reused
+		 * files = NUMBER OF UNEVEN INPUT FILES THE ARTICLES ARE REDISTRIBUTED OVER (DEFAULT 400)
+		 * combineSplitSize = TARGET SIZE OF COMBINED SPLITS (DEFAULT 32m)
+		 * vectorCodec = CODEC OF THE COMPRESSED VECTORS (DEFAULT 'deflate'--'snappy' OR 'lz4' NEED THE NATIVE
+		 *   HADOOP LIBRARY)
+		 * testRatio = FRACTION OF ARTICLES IN THE TEST SET (DEFAULT 0.1)
+		 * vocabularySize, numProfessions, articleLength, seed = SHAPE OF THE DATA, SEE SyntheticWikipedia
+		 * any other ExportLemmasMapred or CreateVectorMapred option is passed on to its job
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 1) {
+			System.err.println("Usage: input-format-report <work dir>");
+			System.exit(2);
+		}
+		if (conf.get("testRatio") == null) {
+			conf.set("testRatio", "0.1");
+		}
+		String splitSize = conf.get(LemmaIndexInput.COMBINE_SPLIT_SIZE, "32m");
+		String codec = conf.get("vectorCodec", "deflate");
+		//each row sets these itself
+		conf.unset(LemmaIndexInput.COMBINE_SPLIT_SIZE);
+		conf.unset("vectorCodec");
+		FileSystem fs = FileSystem.get(conf);
+		Path workDir = fs.makeQualified(new Path(otherArgs[0]));
+		Path input = new Path(workDir, "input");
+		if (!fs.exists(new Path(input, SyntheticWikipedia.ARTICLES_DIR))) {
+			SyntheticWikipedia.fromConf(conf).generate(fs, input, conf.getInt("documents", 100000),
+					conf.getLong("seed", 42));
+		}
+		Path plain = new Path(workDir, "uneven");
+		Path bzip2 = new Path(workDir, "uneven-bzip2");
+		fs.delete(plain, true);
+		fs.delete(bzip2, true);
+		redistribute(conf, fs, new Path(input, SyntheticWikipedia.ARTICLES_DIR), plain, bzip2,
+				conf.getInt("files", 400), conf.getLong("seed", 42));
+
+		Configuration combined = new Configuration(conf);
+		combined.set(LemmaIndexInput.COMBINE_SPLIT_SIZE, splitSize);
+		Configuration compressed = new Configuration(combined);
+		compressed.set("vectorCodec", codec);
+
+		String[] names = { "per-file", "combined", "bzip2 combined", "combined, " + codec };
+		Configuration[] confs = { conf, combined, combined, compressed };
+		Path[] ins = { plain, plain, bzip2, plain };
+		List<InputResult> results = new ArrayList<InputResult>();
+		for (int i = 0; i < names.length; i++) {
+			InputResult result = runInput(confs[i], fs, input, ins[i], new Path(workDir, "run-" + i), names[i]);
+			if (result == null) {
+				System.exit(1);
+			}
+			results.add(result);
+		}
+
+		print(System.out, results, false);
+		PrintStream report = new PrintStream(fs.create(new Path(workDir, REPORT_FILE), true), false, "UTF-8");
+		print(report, results, true);
+		report.close();
+		System.out.println("Wrote " + new Path(workDir, REPORT_FILE));
+	}
+}
@@ -0,0 +1,99 @@
+/* LemmaIndexBenchmark - Per article cost of walking a lemma index the way
+ * the vectorization jobs do: ExportLemmasMapper copies every lemma into a
+ * Text to emit it, CreateVectorMapper looks every lemma up in the
+ * vocabulary and computes its TF-IDF, and vectorizing also sorts the
+ * pairs into a SequentialAccessSparseVector. Each invocation handles one
+ * article.
+ */
+
+package code.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import code.vectorcreate.LemmaIndexCursor;
+import code.vectorcreate.LemmaIndexVectorizer;
+import code.vectorcreate.Vocabulary;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class LemmaIndexBenchmark {
+	@Param({ "10000", "100000", "1000000" })
+	public int vocabularySize;
+
+	@Param({ "50", "500" })
+	public int articleLength;
+
+	private Vocabulary vocabulary;
+	private byte[][] articles;
+	private int next;
+	//reused across articles, as in the mappers
+	private final LemmaIndexCursor cursor = new LemmaIndexCursor();
+	private final Text lemma = new Text();
+	private LemmaIndexVectorizer vectorizer;
+
+	@Setup
+	public void setup() throws IOException {
+		vocabulary = SyntheticData.vocabulary(vocabularySize);
+		articles = SyntheticData.articles(vocabularySize, articleLength, 42);
+		vectorizer = new LemmaIndexVectorizer(vocabulary, true);
+	}
+
+	private byte[] nextArticle() {
+		byte[] article = articles[next];
+		next = (next + 1) % articles.length;
+		return article;
+	}
+
+	//ExportLemmasMapper: every lemma of the article copied into the output Text
+	@Benchmark
+	public void exportLemmasParse(Blackhole blackhole) {
+		byte[] article = nextArticle();
+		cursor.reset(article, SyntheticData.lemmaIndexStart(article), article.length);
+		while (cursor.next()) {
+			cursor.lemmaTo(lemma);
+			blackhole.consume(lemma);
+		}
+	}
+
+	//CreateVectorMapper without the vector: vocabulary lookup and TF-IDF of every lemma
+	@Benchmark
+	public double vocabularyLookup() {
+		byte[] article = nextArticle();
+		cursor.reset(article, SyntheticData.lemmaIndexStart(article), article.length);
+		double sum = 0;
+		while (cursor.next()) {
+			int featureIndex = vocabulary.indexOf(cursor.lemmaBytes(), cursor.lemmaStart(), cursor.lemmaLength());
+			if (featureIndex != -1) {
+				sum += cursor.count() * (double) vocabulary.idf(featureIndex);
+			}
+		}
+		return sum;
+	}
+
+	//CreateVectorMapper: the article's TF-IDF SequentialAccessSparseVector
+	@Benchmark
+	public Object vectorize() throws IOException {
+		byte[] article = nextArticle();
+		return vectorizer.vectorize(article, SyntheticData.lemmaIndexStart(article), article.length,
+				LemmaIndexVectorizer.SILENT);
+	}
+}
@@ -0,0 +1,191 @@
+/* PipelineScaling - Runs the whole pipeline in Hadoop local mode on
+ * synthetic Wikipedia data (SyntheticWikipedia) at several document counts:
+ * generating the input, ExportLemmasMapred, CreateVectorMapred (split run),
+ * training and TrainTestNBayes evaluation. Every stage reports its wall
+ * time, the bytes it wrote and the peak heap of this JVM while it ran--in
+ * local mode the map and reduce tasks run in this JVM too. The peak heap
+ * sums the peaks of the heap memory pools, so it is an upper bound.
+ * Results are printed as a table and written to <work dir>/scaling.tsv.
+ */
+
+package code.benchmarks;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import code.runmahout.EvaluationCounts;
+import code.runmahout.TrainTestNBayes;
+import code.vectorcreate.CreateVectorMapred;
+import code.vectorcreate.ExportLemmasMapred;
+
+public class PipelineScaling {
+	public static final String REPORT_FILE = "scaling.tsv";
+
+	//measurements of one stage at one size
+	private static class StageResult {
+		final int documents;
+		final String stage;
+		final long millis;
+		final long bytesWritten;
+		final long peakHeap;
+
+		StageResult(int documents, String stage, long millis, long bytesWritten, long peakHeap) {
+			this.documents = documents;
+			this.stage = stage;
+			this.millis = millis;
+			this.bytesWritten = bytesWritten;
+			this.peakHeap = peakHeap;
+		}
+	}
+
+	//collects GC'd heap first, so the peak is the stage's own
+	private static void resetPeakHeap() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static long bytes(FileSystem fs, Path path) throws Exception {
+		return fs.exists(path) ? fs.getContentSummary(path).getLength() : 0;
+	}
+
+	//runs every stage on numDocuments synthetic articles under dir--returns null if a stage failed
+	private static List<StageResult> runPipeline(Configuration conf, FileSystem fs, Path dir, int numDocuments)
+			throws Exception {
+		List<StageResult> results = new ArrayList<StageResult>();
+		fs.delete(dir, true);
+		Path input = new Path(dir, "input");
+		Path lemmas = new Path(dir, "lemmas");
+		Path vectors = new Path(dir, "vectors");
+		Path model = new Path(dir, "model");
+		Path labelIndex = new Path(dir, "labelIndex");
+		File predictions = new File(new File(dir.toUri().getPath()), "prediction-results.txt");
+
+		resetPeakHeap();
+		long start = System.currentTimeMillis();
+		SyntheticWikipedia.fromConf(conf).generate(fs, input, numDocuments, conf.getLong("seed", 42));
+		results.add(new StageResult(numDocuments, "generate", System.currentTimeMillis() - start,
+				bytes(fs, input), peakHeap()));
+
+		resetPeakHeap();
+		start = System.currentTimeMillis();
+		if (!ExportLemmasMapred.run(new Configuration(conf), new Path(input, SyntheticWikipedia.ARTICLES_DIR).toString(),
+				lemmas.toString())) {
+			System.err.println("ExportLemmasMapred failed at " + numDocuments + " documents.");
+			return null;
+		}
+		results.add(new StageResult(numDocuments, "exportLemmas", System.currentTimeMillis() - start,
+				bytes(fs, lemmas), peakHeap()));
+
+		Configuration vectorConf = new Configuration(conf);
+		vectorConf.set("type", "split");
+		vectorConf.set("vocabularyPath", new Path(lemmas, ExportLemmasMapred.VOCABULARY_FILE).toString());
+		vectorConf.set("professionsPath", new Path(input, SyntheticWikipedia.PROFESSIONS_INDEX_FILE).toString());
+		resetPeakHeap();
+		start = System.currentTimeMillis();
+		if (!CreateVectorMapred.run(vectorConf, new Path(input, SyntheticWikipedia.ARTICLES_DIR).toString(),
+				vectors.toString())) {
+			System.err.println("CreateVectorMapred failed at " + numDocuments + " documents.");
+			return null;
+		}
+		results.add(new StageResult(numDocuments, "createVectors", System.currentTimeMillis() - start,
+				bytes(fs, vectors), peakHeap()));
+
+		Configuration modelConf = new Configuration(conf);
+		modelConf.set("trainVectorsPath", new Path(vectors, CreateVectorMapred.TRAIN_OUTPUT).toString());
+		modelConf.set("testVectorsPath", new Path(vectors, CreateVectorMapred.TEST_OUTPUT).toString());
+		modelConf.set("modelPath", model.toString());
+		modelConf.set("labelIndexPath", labelIndex.toString());
+		modelConf.set("predictionsPath", predictions.getPath());
+		resetPeakHeap();
+		start = System.currentTimeMillis();
+		if (!TrainTestNBayes.train(modelConf)) {
+			System.err.println("Training failed at " + numDocuments + " documents.");
+			return null;
+		}
+		results.add(new StageResult(numDocuments, "train", System.currentTimeMillis() - start,
+				bytes(fs, model) + bytes(fs, labelIndex), peakHeap()));
+
+		resetPeakHeap();
+		start = System.currentTimeMillis();
+		EvaluationCounts counts = TrainTestNBayes.evaluate(modelConf);
+		results.add(new StageResult(numDocuments, "evaluate", System.currentTimeMillis() - start,
+				predictions.length(), peakHeap()));
+		System.out.printf("Accuracy at %d documents: %.2f%%\n", numDocuments, counts.getAccuracy());
+		return results;
+	}
+
+	private static void print(PrintStream out, List<StageResult> results, boolean tsv) {
+		String format = tsv ? "%s\t%s\t%s\t%s\t%s\n" : "%10s  %-14s %10s %14s %14s\n";
+		out.printf(format, "documents", "stage", "wall ms", "bytes written", "peak heap");
+		for (StageResult result : results) {
+			out.printf(format, result.documents, result.stage, result.millis, result.bytesWritten, result.peakHeap);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		//every job runs in this JVM, on the local file system
+		conf.set("mapreduce.framework.name", "local");
+		conf.set("fs.defaultFS", "file:///");
+		/* optional parameters (-D name=value):
+		 * sizes = COMMA-SEPARATED DOCUMENT COUNTS TO RUN THE PIPELINE AT (DEFAULT 10000,100000,1000000)
+		 * testRatio = FRACTION OF ARTICLES IN THE TEST SET (DEFAULT 0.1)
+		 * trainer = TRAINER OF TrainTestNBayes ('mahout' (DEFAULT), 'multiLabel' OR 'inMemory')
+		 * vocabularySize, numProfessions, articleLength, seed = SHAPE OF THE DATA, SEE SyntheticWikipedia
+		 * any other TrainTestNBayes, ExportLemmasMapred or CreateVectorMapred option is passed on to its stage
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 1) {
+			System.err.println("Usage: pipeline-scaling <work dir>");
+			System.exit(2);
+		}
+		if (conf.get("testRatio") == null) {
+			conf.set("testRatio", "0.1");
+		}
+		if (conf.getBoolean("multiLabel", false)) {
+			//multi-label training records are only read by the multiLabel trainer
+			conf.set("trainer", "multiLabel");
+		}
+		FileSystem fs = FileSystem.get(conf);
+		Path workDir = fs.makeQualified(new Path(otherArgs[0]));
+		List<StageResult> results = new ArrayList<StageResult>();
+		for (String size : conf.getTrimmedStrings("sizes", "10000", "100000", "1000000")) {
+			int numDocuments = Integer.parseInt(size);
+			List<StageResult> sizeResults = runPipeline(conf, fs, new Path(workDir, "docs-" + numDocuments), numDocuments);
+			if (sizeResults == null) {
+				System.exit(1);
+			}
+			results.addAll(sizeResults);
+		}
+
+		print(System.out, results, false);
+		PrintStream report = new PrintStream(fs.create(new Path(workDir, REPORT_FILE), true), false, "UTF-8");
+		print(report, results, true);
+		report.close();
+		System.out.println("Wrote " + new Path(workDir, REPORT_FILE));
+	}
+}
@@ -0,0 +1,23 @@
+/* RunBenchmarks - Main class of benchmarks.jar. Takes the usual JMH
+ * command line (benchmark regex, -p name=value to narrow the parameters,
+ * -f, -wi, -i...) and always adds the GC profiler, so every result comes
+ * with its allocation rate (gc.alloc.rate.norm = bytes per article).
+ */
+
+package code.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class RunBenchmarks {
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
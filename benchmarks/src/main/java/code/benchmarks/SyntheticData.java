@@ -0,0 +1,162 @@
+/* SyntheticData - Wikipedia-shaped inputs for the microbenchmarks, built
+ * from a fixed seed so every run measures the same data. Lemmas are drawn
+ * from a Zipf distribution over the vocabulary (a few lemmas in almost
+ * every article, a long tail in few), so vocabulary lookups, vector sizes
+ * and model rows are skewed the way real articles make them. Articles are
+ * lines of 'title<TAB><lemma,count>,<lemma,count>...', the format the
+ * lemma index jobs read.
+ */
+
+package code.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.classifier.naivebayes.NaiveBayesModel;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SparseMatrix;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+
+import code.runmahout.ModelWeights;
+import code.vectorcreate.Vocabulary;
+
+final class SyntheticData {
+	//articles cycled through by the per-document benchmarks
+	static final int NUM_ARTICLES = 1024;
+	//exponent of the lemma distribution, close to what word frequencies follow
+	static final double ZIPF_EXPONENT = 1.07;
+	//documents the synthetic DFs are counted over
+	private static final int NUM_DOCUMENTS = 1000000;
+	//lemmas per article the synthetic DFs assume--a lemma's DF is about its probability times this many documents
+	private static final int DF_ARTICLE_LENGTH = 200;
+	//features with a weight sum in every label's model row
+	private static final int FEATURES_PER_LABEL = 2000;
+
+	private SyntheticData() {
+	}
+
+	//cumulative Zipf probabilities of ranks 0 to n - 1
+	static double[] zipfCumulative(int n, double exponent) {
+		double[] cumulative = new double[n];
+		double sum = 0;
+		for (int rank = 0; rank < n; rank++) {
+			sum += 1 / Math.pow(rank + 1, exponent);
+			cumulative[rank] = sum;
+		}
+		for (int rank = 0; rank < n; rank++) {
+			cumulative[rank] /= sum;
+		}
+		return cumulative;
+	}
+
+	//rank drawn from the distribution of cumulative
+	static int sample(double[] cumulative, Random random) {
+		double u = random.nextDouble();
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulative[mid] < u) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	static String lemma(int rank) {
+		return "lemma" + rank;
+	}
+
+	//vocabulary of size lemmas, DFs falling off with rank like the lemma distribution (never below 2, as in ExportLemmasMapred)
+	static Vocabulary vocabulary(int size) throws IOException {
+		Vocabulary.Builder builder = new Vocabulary.Builder();
+		double[] cumulative = zipfCumulative(size, ZIPF_EXPONENT);
+		for (int rank = 0; rank < size; rank++) {
+			double probability = cumulative[rank] - (rank == 0 ? 0 : cumulative[rank - 1]);
+			double docFreq = Math.min(1, probability * DF_ARTICLE_LENGTH) * NUM_DOCUMENTS;
+			builder.add(lemma(rank), (int) Math.max(2, docFreq));
+		}
+		return builder.build(NUM_DOCUMENTS);
+	}
+
+	//NUM_ARTICLES article lines of articleLength distinct lemmas each, all in a vocabulary of vocabularySize
+	static byte[][] articles(int vocabularySize, int articleLength, long seed) {
+		Random random = new Random(seed);
+		double[] cumulative = zipfCumulative(vocabularySize, ZIPF_EXPONENT);
+		int length = Math.min(articleLength, vocabularySize);
+		byte[][] articles = new byte[NUM_ARTICLES][];
+		for (int article = 0; article < NUM_ARTICLES; article++) {
+			Set<Integer> lemmas = new HashSet<Integer>();
+			StringBuilder line = new StringBuilder("Person " + article + "\t");
+			while (lemmas.size() < length) {
+				int rank = sample(cumulative, random);
+				if (lemmas.add(rank)) {
+					line.append(lemmas.size() == 1 ? "<" : ",<").append(lemma(rank)).append(',')
+							.append(1 + random.nextInt(rank < 100 ? 20 : 3)).append('>');
+				}
+			}
+			articles[article] = line.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		return articles;
+	}
+
+	//start of the lemma index in an article line
+	static int lemmaIndexStart(byte[] article) {
+		for (int i = article.length - 1; i >= 0; i--) {
+			if (article[i] == '\t') {
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+
+	/* model of labelCount labels over vocabularySize features, each label with weight sums for
+	 * FEATURES_PER_LABEL Zipf-drawn features, built the way TrainNaiveBayesJob builds one*/
+	static NaiveBayesModel model(int vocabularySize, int labelCount, long seed) {
+		Random random = new Random(seed);
+		double[] cumulative = zipfCumulative(vocabularySize, ZIPF_EXPONENT);
+		Matrix weightsPerLabelAndFeature = new SparseMatrix(labelCount, vocabularySize);
+		Vector weightsPerFeature = new RandomAccessSparseVector(vocabularySize);
+		Vector weightsPerLabel = new DenseVector(labelCount);
+		for (int label = 0; label < labelCount; label++) {
+			Vector row = new RandomAccessSparseVector(vocabularySize, FEATURES_PER_LABEL);
+			for (int i = 0; i < FEATURES_PER_LABEL; i++) {
+				int feature = sample(cumulative, random);
+				row.setQuick(feature, row.getQuick(feature) + 1 + 10 * random.nextDouble());
+			}
+			weightsPerLabelAndFeature.assignRow(label, row);
+			weightsPerFeature.assign(row, Functions.PLUS);
+			weightsPerLabel.set(label, row.zSum());
+		}
+		return new NaiveBayesModel(weightsPerLabelAndFeature, weightsPerFeature, weightsPerLabel,
+				weightsPerLabel.like(), 1.0f);
+	}
+
+	//the sums of model as the scoring kernels read them, through a temporary model directory
+	static ModelWeights modelWeights(NaiveBayesModel model) throws IOException {
+		File directory = Files.createTempDirectory("pa3-benchmark-model").toFile();
+		try {
+			Configuration conf = new Configuration();
+			Path modelPath = new Path(directory.getAbsolutePath());
+			model.serialize(modelPath, conf);
+			return ModelWeights.read(modelPath, conf);
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+}
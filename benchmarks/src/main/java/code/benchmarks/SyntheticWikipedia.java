@@ -0,0 +1,166 @@
+/* SyntheticWikipedia - Generates a Wikipedia-shaped input set for the whole
+ * pipeline: lemma index lines ('Person N<TAB><lemma,count>,...', as part 1
+ * writes them) in part files, and the matching professions.txt and binary
+ * professions index. Professions are Zipf-distributed (a few very common,
+ * a long tail), one or two per person. Each article mixes lemmas from the
+ * global Zipf distribution of SyntheticData with lemmas from the topic of
+ * its first profession, so the classifier has something to learn and
+ * vocabulary, vector and model sizes grow the way real data makes them.
+ */
+
+package code.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import code.vectorcreate.ProfessionsIndex;
+
+public class SyntheticWikipedia {
+	//directory and file names under the output directory
+	public static final String ARTICLES_DIR = "articles";
+	public static final String PROFESSIONS_INDEX_FILE = "professions.bin";
+	//articles per part file, so local mode gets several splits
+	private static final int ARTICLES_PER_PART = 50000;
+	//lemmas of a profession's topic, drawn Zipf-distributed like the global lemmas
+	private static final int TOPIC_SIZE = 500;
+	//fraction of an article's lemmas drawn from its profession's topic
+	private static final double TOPIC_FRACTION = 0.05;
+	//chance a person has a second profession
+	private static final double SECOND_PROFESSION = 0.3;
+
+	private final int vocabularySize;
+	private final int numProfessions;
+	private final int articleLength;
+	private final double[] lemmaCumulative;
+	private final double[] topicCumulative;
+	private final double[] professionCumulative;
+
+	public SyntheticWikipedia(int vocabularySize, int numProfessions, int articleLength) {
+		this.vocabularySize = vocabularySize;
+		this.numProfessions = numProfessions;
+		this.articleLength = Math.min(articleLength, vocabularySize);
+		lemmaCumulative = SyntheticData.zipfCumulative(vocabularySize, SyntheticData.ZIPF_EXPONENT);
+		topicCumulative = SyntheticData.zipfCumulative(Math.min(TOPIC_SIZE, vocabularySize), SyntheticData.ZIPF_EXPONENT);
+		professionCumulative = SyntheticData.zipfCumulative(numProfessions, SyntheticData.ZIPF_EXPONENT);
+	}
+
+	static String profession(int rank) {
+		return "profession" + rank;
+	}
+
+	//lemma rank of the topic rank of a profession--topics are scattered over the whole vocabulary
+	private int topicLemma(int profession, int topicRank) {
+		long mixed = (profession + 1) * 0x9E3779B97F4A7C15L + topicRank * 0xC2B2AE3D27D4EB4FL;
+		mixed ^= mixed >>> 31;
+		return (int) ((mixed & Long.MAX_VALUE) % vocabularySize);
+	}
+
+	//the person's professions, the first one decides the topic of the article
+	private List<Integer> professions(Random random) {
+		List<Integer> professions = new ArrayList<Integer>(2);
+		professions.add(SyntheticData.sample(professionCumulative, random));
+		if (numProfessions > 1 && random.nextDouble() < SECOND_PROFESSION) {
+			int second;
+			do {
+				second = SyntheticData.sample(professionCumulative, random);
+			} while (second == professions.get(0));
+			professions.add(second);
+		}
+		return professions;
+	}
+
+	//lemma index line of one article
+	private String article(String title, int profession, Random random) {
+		Set<Integer> lemmas = new HashSet<Integer>();
+		StringBuilder line = new StringBuilder(title).append('\t');
+		while (lemmas.size() < articleLength) {
+			int rank = random.nextDouble() < TOPIC_FRACTION
+					? topicLemma(profession, SyntheticData.sample(topicCumulative, random))
+					: SyntheticData.sample(lemmaCumulative, random);
+			if (lemmas.add(rank)) {
+				line.append(lemmas.size() == 1 ? "<" : ",<").append(SyntheticData.lemma(rank)).append(',')
+						.append(1 + random.nextInt(rank < 100 ? 20 : 3)).append('>');
+			}
+		}
+		return line.toString();
+	}
+
+	/* writes numDocuments articles to out/articles and their people to out/professions.txt and
+	 * out/professions.bin--same seed, same data. Returns the number of bytes written*/
+	public long generate(FileSystem fs, Path out, int numDocuments, long seed) throws IOException {
+		Random random = new Random(seed);
+		ProfessionsIndex.Builder professionsIndex = new ProfessionsIndex.Builder();
+		Path professionsPath = new Path(out, ProfessionsIndex.PROFESSIONS_FILE);
+		Writer professionsFile = new BufferedWriter(new OutputStreamWriter(fs.create(professionsPath, true),
+				StandardCharsets.UTF_8));
+		Writer articles = null;
+		for (int document = 0; document < numDocuments; document++) {
+			if (document % ARTICLES_PER_PART == 0) {
+				if (articles != null) {
+					articles.close();
+				}
+				Path part = new Path(new Path(out, ARTICLES_DIR), String.format("part-%05d", document / ARTICLES_PER_PART));
+				articles = new BufferedWriter(new OutputStreamWriter(fs.create(part, true), StandardCharsets.UTF_8));
+			}
+			String name = "Person " + document;
+			List<Integer> professions = professions(random);
+			List<String> professionNames = new ArrayList<String>(professions.size());
+			for (int profession : professions) {
+				professionNames.add(profession(profession));
+			}
+			articles.write(article(name, professions.get(0), random));
+			articles.write('\n');
+			professionsFile.write(name + " : " + String.join(", ", professionNames) + "\n");
+			professionsIndex.add(name, professionNames);
+		}
+		if (articles != null) {
+			articles.close();
+		}
+		professionsFile.close();
+
+		OutputStream indexStream = fs.create(new Path(out, PROFESSIONS_INDEX_FILE), true);
+		professionsIndex.writeTo(indexStream);
+		indexStream.close();
+		return fs.getContentSummary(out).getLength();
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		/* optional parameters (-D name=value):
+		 * vocabularySize = NUMBER OF DISTINCT LEMMAS (DEFAULT 100000)
+		 * numProfessions = NUMBER OF DISTINCT PROFESSIONS (DEFAULT 500)
+		 * articleLength = DISTINCT LEMMAS PER ARTICLE (DEFAULT 200)
+		 * seed = RANDOM SEED (DEFAULT 42)
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 2) {
+			System.err.println("Usage: synthetic-wikipedia <number of documents> <out dir>");
+			System.exit(2);
+		}
+		SyntheticWikipedia generator = fromConf(conf);
+		Path out = new Path(otherArgs[1]);
+		long bytes = generator.generate(out.getFileSystem(conf), out, Integer.parseInt(otherArgs[0]),
+				conf.getLong("seed", 42));
+		System.out.println("Wrote " + otherArgs[0] + " articles, " + bytes + " bytes, to " + out);
+	}
+
+	//generator with the sizes set in conf
+	public static SyntheticWikipedia fromConf(Configuration conf) {
+		return new SyntheticWikipedia(conf.getInt("vocabularySize", 100000), conf.getInt("numProfessions", 500),
+				conf.getInt("articleLength", 200));
+	}
+}
@@ -0,0 +1,279 @@
+/* ClassificationServer - Long-running local server that tags articles with
+ * professions as they arrive, with no Hadoop cluster involved. The model
+ * and the training vocabulary are loaded once at startup. Clients connect
+ * over TCP and send one article per line, in the same
+ * "articleName<TAB><lemma,count>,<lemma,count>..." format CreateVectorMapper
+ * consumes; for every line the server answers with one line:
+ *
+ *   articleName<TAB>profession1<TAB>score1<TAB>...<TAB>professionK<TAB>scoreK
+ *
+ * or "ERROR<TAB>message". Sending "#stats" returns the latency report
+ * instead. Articles are vectorized with the same TF-IDF code as the
+ * vectorization job (LemmaIndexVectorizer) and scored with the same kernel
+ * as the evaluator (ComplementaryScoringKernel).
+ *
+ * Requests from all connections go into one queue. Each scoring worker
+ * takes a micro-batch from it--whatever arrived, up to batchSize requests,
+ * waiting at most batchDelayMs for the batch to fill--and scores the batch
+ * back to back with its own vectorizer and scoring buffer. Latency is
+ * measured from the moment a request is queued to the moment its answer
+ * is ready, and reported as p50/p99 on "#stats" and at shutdown.
+ */
+
+package code.runmahout;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.mahout.math.Vector;
+
+import code.vectorcreate.LabelDictionary;
+import code.vectorcreate.LemmaIndexVectorizer;
+import code.vectorcreate.TermWeighting;
+import code.vectorcreate.Vocabulary;
+
+public class ClassificationServer {
+	private final TopKScorer scorer;
+	private final Vocabulary vocabulary;
+	//must weigh articles the way the training vectors were weighed
+	private final TermWeighting weighting;
+	private final LabelDictionary labels;
+	private final int topK;
+	private final int batchSize;
+	private final long batchDelayNanos;
+	private final BlockingQueue<Request> requests;
+	//one histogram per worker, each guarded by its own lock
+	private final List<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>();
+
+	//one article waiting to be classified
+	private static class Request {
+		final String line;
+		final long queuedNanos = System.nanoTime();
+		final CountDownLatch done = new CountDownLatch(1);
+		String response;
+
+		Request(String line) {
+			this.line = line;
+		}
+	}
+
+	public ClassificationServer(TopKScorer scorer, Vocabulary vocabulary, TermWeighting weighting,
+			LabelDictionary labels, int topK, int batchSize, long batchDelayMs, int queueCapacity) {
+		this.scorer = scorer;
+		this.vocabulary = vocabulary;
+		this.weighting = weighting;
+		this.labels = labels;
+		this.topK = topK;
+		this.batchSize = batchSize;
+		this.batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(batchDelayMs);
+		this.requests = new ArrayBlockingQueue<Request>(queueCapacity);
+	}
+
+	//starts scoring workers
+	public void startWorkers(int numWorkers) {
+		for (int i = 0; i < numWorkers; i++) {
+			final LatencyHistogram histogram = new LatencyHistogram();
+			histograms.add(histogram);
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					scoreBatches(histogram);
+				}
+			}, "classification-worker-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	//queues line for classification and waits for its answer
+	public String classify(String line) throws InterruptedException {
+		Request request = new Request(line);
+		requests.put(request);
+		request.done.await();
+		return request.response;
+	}
+
+	//takes micro-batches off the queue and answers them until the JVM exits
+	private void scoreBatches(LatencyHistogram histogram) {
+		LemmaIndexVectorizer vectorizer = new LemmaIndexVectorizer(vocabulary, true, weighting);
+		ScoringBuffer buffer = scorer.newBuffer(topK);
+		List<Request> batch = new ArrayList<Request>(batchSize);
+		Text line = new Text();
+		while (true) {
+			try {
+				batch.add(requests.take());
+				long deadline = System.nanoTime() + batchDelayNanos;
+				while (batch.size() < batchSize) {
+					Request next = requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException ie) {
+				return;
+			}
+			for (Request request : batch) {
+				try {
+					line.set(request.line);
+					request.response = answer(line, vectorizer, buffer);
+				} catch (Exception e) {
+					request.response = "ERROR\t" + e;
+				}
+				long latency = System.nanoTime() - request.queuedNanos;
+				synchronized (histogram) {
+					histogram.record(latency);
+				}
+				request.done.countDown();
+			}
+			batch.clear();
+		}
+	}
+
+	//vectorizes and scores one article line
+	private String answer(Text line, LemmaIndexVectorizer vectorizer, ScoringBuffer buffer) throws IOException {
+		byte[] bytes = line.getBytes();
+		int length = line.getLength();
+		int titleEnd = LemmaIndexVectorizer.titleEnd(bytes, length);
+		String title = LemmaIndexVectorizer.title(bytes, titleEnd);
+		if (!LemmaIndexVectorizer.hasWords(bytes, titleEnd + 1, length)) {
+			return "ERROR\tDocument has no words!";
+		}
+		Vector vector = vectorizer.vectorize(bytes, titleEnd + 1, length, LemmaIndexVectorizer.SILENT);
+		scorer.score(vector, buffer);
+		StringBuilder response = new StringBuilder(title);
+		for (int i = 0; i < buffer.size(); i++) {
+			response.append('\t').append(labels.name(buffer.label(i)));
+			response.append('\t').append(buffer.score(i));
+		}
+		return response.toString();
+	}
+
+	//latency of every request answered so far, all workers merged
+	public String latencyReport() {
+		LatencyHistogram merged = new LatencyHistogram();
+		for (LatencyHistogram histogram : histograms) {
+			synchronized (histogram) {
+				merged.merge(histogram);
+			}
+		}
+		return merged.summary("request latency");
+	}
+
+	//answers one client connection, line by line, until the client hangs up
+	private void serve(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				out.println(line.equals("#stats") ? latencyReport() : classify(line));
+				out.flush();
+			}
+		} catch (IOException ioe) {
+			System.err.println("Connection failed: " + ioe);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ioe) {
+				//nothing left to do with this connection
+			}
+		}
+	}
+
+	//accepts connections forever, one thread per connection
+	public void listen(int port) throws IOException {
+		ServerSocket serverSocket = new ServerSocket(port);
+		System.out.println("Listening on port " + serverSocket.getLocalPort());
+		while (true) {
+			final Socket socket = serverSocket.accept();
+			Thread connection = new Thread(new Runnable() {
+				public void run() {
+					serve(socket);
+				}
+			}, "classification-connection");
+			connection.setDaemon(true);
+			connection.start();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		/* optional parameters (-D name=value):
+		 * port = PORT TO LISTEN ON (DEFAULT 8129)
+		 * modelPath = DIRECTORY OF THE TRAINED MODEL (DEFAULT TrainTestNBayes.MODEL_DIRECTORY)
+		 * compactModelPath = IF SET, SERVE THIS COMPACT MODEL FILE (WRITTEN BY CompactModel), MEMORY-MAPPED, INSTEAD OF modelPath
+		 * scorer = 'kernel' (DEFAULT) OR 'pruned' TO SERVE modelPath WITH PrunedTopKScorer (SAME PREDICTIONS)
+		 * prunedBlockSize = LABELS PER BLOCK OF THE pruned SCORER (DEFAULT PrunedTopKScorer.DEFAULT_BLOCK_SIZE)
+		 * labelIndexPath = LABEL INDEX WRITTEN BY TRAINING, FOR MODELS SAVED WITHOUT A LABEL DICTIONARY (DEFAULT TrainTestNBayes.LABEL_INDEX_PATH)
+		 * topK = NUMBER OF PROFESSIONS RETURNED PER ARTICLE (DEFAULT 3)
+		 * serverWorkers = NUMBER OF SCORING WORKERS (DEFAULT NUMBER OF CORES)
+		 * batchSize = MOST REQUESTS SCORED IN ONE MICRO-BATCH (DEFAULT 32)
+		 * batchDelayMs = LONGEST A WORKER WAITS FOR A MICRO-BATCH TO FILL (DEFAULT 2)
+		 * logTF, l2Normalize = TERM WEIGHTING THE TRAINING VECTORS WERE BUILT WITH (SEE TermWeighting)
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 1) {
+			System.err.println("Usage: classification-server <local vocabulary.bin>");
+			System.exit(2);
+		}
+		//everything is read from local disk
+		FileSystem fs = FileSystem.getLocal(conf);
+		Path modelPath = fs.makeQualified(new Path(conf.get("modelPath", TrainTestNBayes.MODEL_DIRECTORY)));
+		Path labelIndexPath = fs.makeQualified(new Path(conf.get("labelIndexPath", TrainTestNBayes.LABEL_INDEX_PATH)));
+
+		TopKScorer scorer;
+		LabelDictionary labels;
+		if (conf.get("compactModelPath") != null) {
+			CompactModel compactModel = CompactModel.map(new File(conf.get("compactModelPath")));
+			scorer = compactModel;
+			labels = compactModel.labels();
+		} else {
+			ModelWeights modelWeights = ModelWeights.read(modelPath, conf);
+			if (conf.get("scorer", "kernel").equals("pruned")) {
+				scorer = new PrunedTopKScorer(modelWeights,
+						conf.getInt("prunedBlockSize", PrunedTopKScorer.DEFAULT_BLOCK_SIZE));
+			} else {
+				scorer = new ComplementaryScoringKernel(modelWeights);
+			}
+			labels = TrainTestNBayes.readLabels(fs, modelPath, labelIndexPath, conf);
+		}
+		Vocabulary vocabulary = Vocabulary.map(new File(otherArgs[0]));
+		System.out.println("Loaded model with " + scorer.numLabels() + " labels and vocabulary with "
+				+ vocabulary.size() + " lemmas.");
+
+		int workers = conf.getInt("serverWorkers", Runtime.getRuntime().availableProcessors());
+		int batchSize = conf.getInt("batchSize", 32);
+		final ClassificationServer server = new ClassificationServer(scorer, vocabulary, TermWeighting.fromConf(conf),
+				labels, conf.getInt("topK", 3), batchSize, conf.getLong("batchDelayMs", 2), workers * batchSize * 4);
+		server.startWorkers(workers);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				System.out.println(server.latencyReport());
+			}
+		});
+		server.listen(conf.getInt("port", 8129));
+	}
+}
@@ -0,0 +1,35 @@
+/* ClassifierScorer - TopKScorer over Mahout's own classifier. Every label
+ * is scored through classifyFull, so this is the slow path; it is kept to
+ * cross-check the scoring kernels against Mahout's scores.
+ */
+
+package code.runmahout;
+
+import org.apache.mahout.classifier.AbstractVectorClassifier;
+import org.apache.mahout.math.Vector;
+
+public class ClassifierScorer implements TopKScorer {
+	private final AbstractVectorClassifier classifier;
+
+	public ClassifierScorer(AbstractVectorClassifier classifier) {
+		this.classifier = classifier;
+	}
+
+	public int numLabels() {
+		return classifier.numCategories();
+	}
+
+	public ScoringBuffer newBuffer(int k) {
+		return new ScoringBuffer(classifier.numCategories(), k);
+	}
+
+	public void score(Vector instance, ScoringBuffer buffer) {
+		buffer.clear();
+		Vector prediction = classifier.classifyFull(instance);
+		buffer.startRanking();
+		for (int label = 0; label < buffer.scores.length; label++) {
+			buffer.offer(label, prediction.get(label));
+		}
+		buffer.finish();
+	}
+}
@@ -0,0 +1,449 @@
+/* CompactModel - The complementary Naive Bayes model as one compact binary
+ * file that scorers memory-map instead of materializing Mahout's matrices
+ * on the heap. The CNB weight of a label and feature,
+ *   -log((featureWeight - labelFeatureWeight + alphaI) / (totalWeightSum - labelWeight + alphaI * numFeatures))
+ * splits exactly into a per feature term -log(featureWeight + alphaI), a
+ * per label term log(totalWeightSum - labelWeight + alphaI * numFeatures),
+ * and a correction that is only non-zero where the label has a weight sum
+ * for the feature. The two terms are kept in full precision; the
+ * corrections are stored sparse, feature-major, and can be stored as
+ * float16 or as int8 with one scale per feature, and corrections smaller
+ * than a threshold can be dropped.
+ *
+ * File layout (all big-endian):
+ *   int magic, int version, int weightType, int numLabels, int numFeatures, int numEntries
+ *   float[numLabels]       per label terms
+ *   float[numFeatures]     per feature terms
+ *   float[numFeatures]     per feature int8 scales (int8 weights only)
+ *   int[numFeatures + 1]   offset of each feature's first entry
+ *   short[numEntries]      label of each entry (unsigned)
+ *   float, short (float16) or byte[numEntries]  correction of each entry
+ *   int numLabels, then per label: int length, UTF-8 bytes of the profession name
+ *
+ * One mapping is at most 2GB, so that is the largest model file this reads.
+ * Export a model directory with main(), which also reports the accuracy of
+ * the compact model against the full precision one on test vectors.
+ */
+
+package code.runmahout;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.Vector.Element;
+import org.apache.mahout.math.VectorWritable;
+
+import code.vectorcreate.LabelDictionary;
+import code.vectorcreate.MappedFiles;
+
+public class CompactModel implements TopKScorer {
+	private static final int MAGIC = 0x5041334D; //"PA3M"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 24;
+
+	//how corrections are stored
+	public static enum WeightType { F32, F16, INT8 }
+
+	//float of every float16 bit pattern
+	private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+	static {
+		for (int half = 0; half < HALF_TO_FLOAT.length; half++) {
+			HALF_TO_FLOAT[half] = halfToFloat((short) half);
+		}
+	}
+
+	private final ByteBuffer buffer;
+	private final WeightType weightType;
+	private final int numLabels;
+	private final int numFeatures;
+	private final int numEntries;
+	private final LabelDictionary labels;
+	//absolute buffer positions of each section
+	private final int labelTermsStart;
+	private final int featureTermsStart;
+	private final int scalesStart;
+	private final int offsetsStart;
+	private final int entryLabelsStart;
+	private final int entryWeightsStart;
+
+	private CompactModel(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a compact model file (bad magic number or version)");
+		}
+		weightType = WeightType.values()[buffer.getInt(8)];
+		numLabels = buffer.getInt(12);
+		numFeatures = buffer.getInt(16);
+		numEntries = buffer.getInt(20);
+		labelTermsStart = HEADER_BYTES;
+		featureTermsStart = labelTermsStart + 4 * numLabels;
+		scalesStart = featureTermsStart + 4 * numFeatures;
+		offsetsStart = scalesStart + (weightType == WeightType.INT8 ? 4 * numFeatures : 0);
+		entryLabelsStart = offsetsStart + 4 * (numFeatures + 1);
+		entryWeightsStart = entryLabelsStart + 2 * numEntries;
+		int position = entryWeightsStart + weightBytes(weightType) * numEntries;
+
+		//label names
+		List<String> names = new ArrayList<String>(numLabels);
+		int count = buffer.getInt(position);
+		position += 4;
+		for (int label = 0; label < count; label++) {
+			byte[] name = new byte[buffer.getInt(position)];
+			position += 4;
+			for (int i = 0; i < name.length; i++) {
+				name[i] = buffer.get(position + i);
+			}
+			position += name.length;
+			names.add(new String(name, StandardCharsets.UTF_8));
+		}
+		labels = new LabelDictionary(names);
+	}
+
+	//memory-maps a compact model file
+	public static CompactModel map(File file) throws IOException {
+		return new CompactModel(MappedFiles.map(file));
+	}
+
+	//reads a compact model file from any file system onto the heap
+	public static CompactModel read(FileSystem fs, Path path) throws IOException {
+		return new CompactModel(MappedFiles.read(fs, path));
+	}
+
+	//memory-maps path if it is on the local file system, otherwise reads it onto the heap
+	public static CompactModel open(Path path, Configuration conf) throws IOException {
+		FileSystem fs = path.getFileSystem(conf);
+		if (fs instanceof LocalFileSystem) {
+			return map(((LocalFileSystem) fs).pathToFile(path));
+		}
+		return read(fs, path);
+	}
+
+	private static int weightBytes(WeightType weightType) {
+		return weightType == WeightType.F32 ? 4 : weightType == WeightType.F16 ? 2 : 1;
+	}
+
+	public int numLabels() {
+		return numLabels;
+	}
+
+	//length of the feature vectors the model was trained on
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	//number of stored corrections
+	public int numEntries() {
+		return numEntries;
+	}
+
+	public WeightType weightType() {
+		return weightType;
+	}
+
+	//professions of the model's labels
+	public LabelDictionary labels() {
+		return labels;
+	}
+
+	public ScoringBuffer newBuffer(int k) {
+		return new ScoringBuffer(numLabels, k);
+	}
+
+	public void score(Vector instance, ScoringBuffer buffer) {
+		buffer.clear();
+		double[] scores = buffer.scores;
+		//sum of value * per feature term, and of values--the same for every label
+		double featureTermSum = 0;
+		double valueSum = 0;
+		Iterator<Element> nonZeroes = instance.nonZeroes().iterator();
+		while (nonZeroes.hasNext()) {
+			Element e = nonZeroes.next();
+			int feature = e.index();
+			if (feature >= numFeatures) {
+				continue;
+			}
+			double value = e.get();
+			featureTermSum += value * this.buffer.getFloat(featureTermsStart + 4 * feature);
+			valueSum += value;
+			int from = this.buffer.getInt(offsetsStart + 4 * feature);
+			int to = this.buffer.getInt(offsetsStart + 4 * (feature + 1));
+			if (from == to) {
+				continue;
+			}
+			float scale = weightType == WeightType.INT8 ? this.buffer.getFloat(scalesStart + 4 * feature) : 0f;
+			for (int entry = from; entry < to; entry++) {
+				int label = this.buffer.getChar(entryLabelsStart + 2 * entry);
+				scores[label] += value * weight(entry, scale);
+			}
+		}
+		for (int label = 0; label < numLabels; label++) {
+			scores[label] += featureTermSum + valueSum * this.buffer.getFloat(labelTermsStart + 4 * label);
+		}
+		buffer.startRanking();
+		buffer.offerAllScores();
+		buffer.finish();
+	}
+
+	//correction of entry, scale being its feature's int8 scale
+	private float weight(int entry, float scale) {
+		switch (weightType) {
+		case F32:
+			return buffer.getFloat(entryWeightsStart + 4 * entry);
+		case F16:
+			return HALF_TO_FLOAT[buffer.getChar(entryWeightsStart + 2 * entry)];
+		default:
+			return buffer.get(entryWeightsStart + entry) * scale;
+		}
+	}
+
+	/* writes model and the professions of its labels as a compact model, dropping corrections smaller than
+	 * pruneBelow--returns number of corrections written*/
+	public static int write(ModelWeights model, LabelDictionary labels, WeightType weightType, double pruneBelow,
+			OutputStream stream) throws IOException {
+		int numLabels = model.numLabels();
+		int numFeatures = model.vectorSize();
+		if (numLabels > 1 << 16) {
+			throw new IllegalArgumentException("Too many labels for a compact model: " + numLabels);
+		}
+		if (labels.size() != numLabels) {
+			throw new IllegalArgumentException("Model has " + numLabels + " labels but its dictionary has "
+					+ labels.size());
+		}
+		double alphaI = model.alphaI();
+		double[] labelTerms = new double[numLabels];
+		for (int label = 0; label < numLabels; label++) {
+			labelTerms[label] = Math.log(model.totalWeightSum() - model.labelWeight(label)
+					+ alphaI * model.numFeatures());
+		}
+		double[] featureTerms = new double[numFeatures];
+		for (int feature = 0; feature < numFeatures; feature++) {
+			featureTerms[feature] = -Math.log(model.featureWeight(feature) + alphaI);
+		}
+
+		//corrections kept per feature, counted first so they can be laid out feature-major
+		int[] offsets = new int[numFeatures + 1];
+		for (int label = 0; label < numLabels; label++) {
+			int[] features = model.rowFeatures(label);
+			double[] weights = model.rowWeights(label);
+			for (int i = 0; i < features.length; i++) {
+				if (Math.abs(correction(model, features[i], weights[i])) >= pruneBelow) {
+					offsets[features[i] + 1]++;
+				}
+			}
+		}
+		for (int feature = 0; feature < numFeatures; feature++) {
+			offsets[feature + 1] += offsets[feature];
+		}
+		int numEntries = offsets[numFeatures];
+		int[] entryLabels = new int[numEntries];
+		float[] entryWeights = new float[numEntries];
+		int[] next = new int[numFeatures];
+		System.arraycopy(offsets, 0, next, 0, numFeatures);
+		//labels in ascending order within every feature
+		for (int label = 0; label < numLabels; label++) {
+			int[] features = model.rowFeatures(label);
+			double[] weights = model.rowWeights(label);
+			for (int i = 0; i < features.length; i++) {
+				double correction = correction(model, features[i], weights[i]);
+				if (Math.abs(correction) >= pruneBelow) {
+					int entry = next[features[i]]++;
+					entryLabels[entry] = label;
+					entryWeights[entry] = (float) correction;
+				}
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(weightType.ordinal());
+		out.writeInt(numLabels);
+		out.writeInt(numFeatures);
+		out.writeInt(numEntries);
+		for (double labelTerm : labelTerms) {
+			out.writeFloat((float) labelTerm);
+		}
+		for (double featureTerm : featureTerms) {
+			out.writeFloat((float) featureTerm);
+		}
+		//int8 scale maps a feature's largest correction to 127
+		float[] scales = new float[numFeatures];
+		if (weightType == WeightType.INT8) {
+			for (int feature = 0; feature < numFeatures; feature++) {
+				float largest = 0;
+				for (int entry = offsets[feature]; entry < offsets[feature + 1]; entry++) {
+					largest = Math.max(largest, Math.abs(entryWeights[entry]));
+				}
+				scales[feature] = largest / 127;
+				out.writeFloat(scales[feature]);
+			}
+		}
+		for (int offset : offsets) {
+			out.writeInt(offset);
+		}
+		for (int label : entryLabels) {
+			out.writeChar(label);
+		}
+		for (int feature = 0; feature < numFeatures; feature++) {
+			for (int entry = offsets[feature]; entry < offsets[feature + 1]; entry++) {
+				switch (weightType) {
+				case F32:
+					out.writeFloat(entryWeights[entry]);
+					break;
+				case F16:
+					out.writeShort(floatToHalf(entryWeights[entry]));
+					break;
+				default:
+					out.writeByte(scales[feature] == 0 ? 0 : Math.round(entryWeights[entry] / scales[feature]));
+				}
+			}
+		}
+		out.writeInt(numLabels);
+		for (String name : labels.names()) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		out.flush();
+		return numEntries;
+	}
+
+	//what the label's weight sum for feature adds to the CNB weight on top of the per feature and per label terms
+	private static double correction(ModelWeights model, int feature, double labelFeatureWeight) {
+		double featureWeight = model.featureWeight(feature) + model.alphaI();
+		return Math.log(featureWeight) - Math.log(featureWeight - labelFeatureWeight);
+	}
+
+	//IEEE 754 half precision bits of f, rounded to nearest
+	static short floatToHalf(float f) {
+		int bits = Float.floatToIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int magnitude = bits & 0x7fffffff;
+		//rounds by adding half of the lowest kept mantissa bit
+		int rounded = magnitude + 0x1000;
+		if (rounded >= 0x47800000) {
+			if (magnitude >= 0x7f800000) {
+				//infinity stays infinity, NaN stays NaN
+				return (short) (sign | 0x7c00 | (magnitude > 0x7f800000 ? 0x200 : 0));
+			}
+			//too large--largest half
+			return (short) (sign | 0x7bff);
+		}
+		if (rounded >= 0x38800000) {
+			//normal half
+			return (short) (sign | ((rounded - 0x38000000) >>> 13));
+		}
+		if (rounded < 0x33000000) {
+			//too small even for a subnormal half
+			return (short) sign;
+		}
+		//subnormal half
+		int exponent = magnitude >>> 23;
+		return (short) (sign | ((((magnitude & 0x7fffff) | 0x800000) + (0x800000 >>> (exponent - 102)))
+				>>> (126 - exponent)));
+	}
+
+	//float value of IEEE 754 half precision bits
+	static float halfToFloat(short half) {
+		int mantissa = half & 0x03ff;
+		int exponent = half & 0x7c00;
+		if (exponent == 0x7c00) {
+			exponent = 0x3fc00;
+		} else if (exponent != 0) {
+			exponent += 0x1c000;
+		} else if (mantissa != 0) {
+			//subnormal half becomes a normal float
+			exponent = 0x1c400;
+			do {
+				mantissa <<= 1;
+				exponent -= 0x400;
+			} while ((mantissa & 0x400) == 0);
+			mantissa &= 0x3ff;
+		}
+		return Float.intBitsToFloat((half & 0x8000) << 16 | (exponent | mantissa) << 13);
+	}
+
+	//exports a model directory, and compares the compact model's accuracy with the full precision model's
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		/* optional parameters (-D name=value):
+		 * weightType = 'f32' (DEFAULT), 'f16' OR 'int8'--PRECISION OF THE STORED CORRECTIONS
+		 * pruneBelow = DROP CORRECTIONS SMALLER THAN THIS (DEFAULT 0, KEEP ALL)
+		 * labelIndexPath = LABEL INDEX WRITTEN BY TRAINING, FOR MODELS SAVED WITHOUT A LABEL DICTIONARY (DEFAULT TrainTestNBayes.LABEL_INDEX_PATH)
+		 * testVectorsPath = IF SET, TEST VECTORS TO SCORE WITH BOTH MODELS TO REPORT THE ACCURACY DELTA
+		 * topK = NUMBER OF PROFESSIONS PREDICTED PER ARTICLE (DEFAULT 3)
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 2) {
+			System.err.println("Usage: export-compact-model <model directory> <compact model file>");
+			System.exit(2);
+		}
+		Path modelPath = new Path(otherArgs[0]);
+		Path compactPath = new Path(otherArgs[1]);
+		FileSystem fs = modelPath.getFileSystem(conf);
+		Path labelIndexPath = fs.makeQualified(new Path(conf.get("labelIndexPath", TrainTestNBayes.LABEL_INDEX_PATH)));
+		WeightType weightType = WeightType.valueOf(conf.get("weightType", "f32").toUpperCase());
+
+		ModelWeights model = ModelWeights.read(modelPath, conf);
+		LabelDictionary labels = TrainTestNBayes.readLabels(fs, modelPath, labelIndexPath, conf);
+		FileSystem compactFs = compactPath.getFileSystem(conf);
+		OutputStream out = compactFs.create(compactPath, true);
+		int numEntries = write(model, labels, weightType, conf.getFloat("pruneBelow", 0f), out);
+		out.close();
+		long rowEntries = 0;
+		for (int label = 0; label < model.numLabels(); label++) {
+			rowEntries += model.rowFeatures(label).length;
+		}
+		System.out.println("Wrote " + weightType + " compact model " + compactPath + " ("
+				+ compactFs.getFileStatus(compactPath).getLen() + " bytes) with " + numEntries + " of "
+				+ rowEntries + " label feature weights.");
+
+		String testVectorsPath = conf.get("testVectorsPath");
+		if (testVectorsPath != null) {
+			compare(new ComplementaryScoringKernel(model), open(compactPath, conf), labels,
+					new VectorPartsReader(fs, new Path(testVectorsPath), conf, 1, 1), conf.getInt("topK", 3));
+		}
+	}
+
+	//scores every test vector with the full precision and the compact model and reports both accuracies
+	private static void compare(TopKScorer full, CompactModel compact, LabelDictionary labels,
+			VectorPartsReader vectors, int k) throws IOException {
+		ScoringBuffer fullBest = full.newBuffer(k);
+		ScoringBuffer compactBest = compact.newBuffer(k);
+		EvaluationCounts fullCounts = new EvaluationCounts();
+		EvaluationCounts compactCounts = new EvaluationCounts();
+		int sameBestLabel = 0;
+		Text key = new Text();
+		VectorWritable value = new VectorWritable();
+		while (vectors.next(key, value)) {
+			int[] actualLabels = labels.ids(key.toString().split(":::")[1].split(","));
+			full.score(value.get(), fullBest);
+			compact.score(value.get(), compactBest);
+			fullCounts.add(TrainTestNBayes.isCorrectPrediction(actualLabels, fullBest));
+			compactCounts.add(TrainTestNBayes.isCorrectPrediction(actualLabels, compactBest));
+			if (fullBest.label(0) == compactBest.label(0)) {
+				sameBestLabel++;
+			}
+		}
+		vectors.close();
+		System.out.printf("Full precision accuracy: %.2f%%\n", fullCounts.getAccuracy());
+		System.out.printf("Compact model accuracy:  %.2f%%\n", compactCounts.getAccuracy());
+		System.out.printf("Accuracy delta:          %+.2f%%\n", compactCounts.getAccuracy() - fullCounts.getAccuracy());
+		System.out.println("Same best profession for " + sameBestLabel + " of " + fullCounts.getTotalPredictions()
+				+ " test vectors.");
+	}
+}
@@ -0,0 +1,93 @@
+/* ComplementaryScoringKernel - Complementary Naive Bayes scoring without
+ * going through Mahout's generic classifier. The per label, per feature
+ * weight that ComplementaryNaiveBayesClassifier recomputes (a log and a
+ * handful of matrix lookups) on every call is computed once, up front, into
+ * a flat double[] weight matrix. The matrix is laid out feature-major
+ * (weights[feature * numLabels + label]), so scoring a vector walks only
+ * its non-zero features and, for each one, reads a contiguous run of label
+ * weights into a primitive score buffer. The k best labels are then picked
+ * with the buffer's fixed-size heap instead of boxing and sorting every
+ * label's score.
+ *
+ * Weights are kept in double, and scores are accumulated in the same order
+ * classifyFull sums them, so they match classifyFull--near-ties included.
+ * A model too large for double weights in memory is scored with a
+ * CompactModel (F32, F16 or INT8 weights) instead.
+ */
+
+package code.runmahout;
+
+import java.util.Iterator;
+
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.Vector.Element;
+
+public class ComplementaryScoringKernel implements TopKScorer {
+	private final int numLabels;
+	private final int numFeatures;
+	//weights[feature * numLabels + label]
+	private final double[] weights;
+
+	public ComplementaryScoringKernel(ModelWeights model) {
+		numLabels = model.numLabels();
+		numFeatures = model.vectorSize();
+		if (weightBytes(numLabels, numFeatures) == Long.MAX_VALUE) {
+			throw new IllegalArgumentException("Model too large for a flat weight matrix: " + numLabels
+					+ " labels x " + numFeatures + " features");
+		}
+		weights = new double[numLabels * numFeatures];
+		//features a label never saw have a label feature weight of 0
+		for (int feature = 0; feature < numFeatures; feature++) {
+			for (int label = 0; label < numLabels; label++) {
+				weights[feature * numLabels + label] = model.complementaryWeight(label, feature, 0.0);
+			}
+		}
+		for (int label = 0; label < numLabels; label++) {
+			int[] features = model.rowFeatures(label);
+			double[] labelFeatureWeights = model.rowWeights(label);
+			for (int i = 0; i < features.length; i++) {
+				weights[features[i] * numLabels + label] =
+						model.complementaryWeight(label, features[i], labelFeatureWeights[i]);
+			}
+		}
+	}
+
+	/* bytes of the flat weight matrix of numLabels labels by numFeatures features--Long.MAX_VALUE if it is too
+	 * large for one array*/
+	public static long weightBytes(int numLabels, int numFeatures) {
+		long entries = (long) numLabels * numFeatures;
+		return entries > Integer.MAX_VALUE ? Long.MAX_VALUE : 8 * entries;
+	}
+
+	public int numLabels() {
+		return numLabels;
+	}
+
+	public ScoringBuffer newBuffer(int k) {
+		return new ScoringBuffer(numLabels, k);
+	}
+
+	public void score(Vector instance, ScoringBuffer buffer) {
+		buffer.clear();
+		double[] scores = buffer.scores;
+		Iterator<Element> nonZeroes = instance.nonZeroes().iterator();
+		while (nonZeroes.hasNext()) {
+			Element e = nonZeroes.next();
+			int feature = e.index();
+			if (feature >= numFeatures) {
+				continue;
+			}
+			accumulate(scores, weights, feature * numLabels, e.get(), numLabels);
+		}
+		buffer.startRanking();
+		buffer.offerAllScores();
+		buffer.finish();
+	}
+
+	//scores[label] += value * weights[offset + label] for every label
+	private static void accumulate(double[] scores, double[] weights, int offset, double value, int numLabels) {
+		for (int label = 0; label < numLabels; label++) {
+			scores[label] += value * weights[offset + label];
+		}
+	}
+}
@@ -0,0 +1,442 @@
+/* CrossValidationSweep - k-fold cross-validation of a grid of model
+ * configurations--Naive Bayes or Complementary Naive Bayes, smoothing
+ * alpha, minimum document frequency of a feature--over vectors loaded once
+ * into a VectorStore. Every row--one article, with all its professions--
+ * goes to one of k folds (a seeded shuffle); each fold in turn is scored
+ * by a model trained on the other folds.
+ *
+ * Work is split into one task per fold and min-DF cutoff, run
+ * sweepThreads at a time on the shared read-only store. A task adds up the
+ * label feature weight sums of its training rows, the way TrainNaiveBayesJob
+ * does, leaving out features in fewer training rows than the cutoff (as if
+ * they were not in the vocabulary), and then scores its fold once per
+ * classifier and alpha. Weights are the ones Mahout's classifiers compute.
+ * Scoring splits every weight into a feature term, a label term and a
+ * correction that is only non-zero where the label has a weight sum for the
+ * feature (see CompactModel), so a task never holds a labels x features
+ * matrix. Reports top-1 and top-3 accuracy of every configuration.
+ */
+
+package code.runmahout;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.mahout.classifier.naivebayes.ComplementaryNaiveBayesClassifier;
+import org.apache.mahout.classifier.naivebayes.StandardNaiveBayesClassifier;
+
+public class CrossValidationSweep {
+	public static enum Classifier { NB, CNB }
+
+	//one point of the grid
+	public static class SweepConfig {
+		final Classifier classifier;
+		final float alpha;
+		final int minDF;
+
+		public SweepConfig(Classifier classifier, float alpha, int minDF) {
+			this.classifier = classifier;
+			this.alpha = alpha;
+			this.minDF = minDF;
+		}
+
+		@Override
+		public String toString() {
+			return classifier.name().toLowerCase() + " alpha=" + alpha + " minDF=" + minDF;
+		}
+	}
+
+	//predictions of one configuration over all folds
+	public static class SweepResult {
+		final SweepConfig config;
+		private long top1Correct;
+		private long top3Correct;
+		private long total;
+
+		SweepResult(SweepConfig config) {
+			this.config = config;
+		}
+
+		synchronized void add(long top1Correct, long top3Correct, long total) {
+			this.top1Correct += top1Correct;
+			this.top3Correct += top3Correct;
+			this.total += total;
+		}
+
+		public SweepConfig config() {
+			return config;
+		}
+
+		public synchronized long total() {
+			return total;
+		}
+
+		//percent of rows whose best label is one of their labels
+		public synchronized double top1Accuracy() {
+			return total == 0 ? 0 : 100.0 * top1Correct / total;
+		}
+
+		/* percent of rows with one of their labels among the best three--the sweep always counts top-3, which is
+		 * what TrainTestNBayes counts only at its default topK of 3*/
+		public synchronized double top3Accuracy() {
+			return total == 0 ? 0 : 100.0 * top3Correct / total;
+		}
+	}
+
+	private final VectorStore store;
+	private final int numFolds;
+	//fold of every row
+	private final byte[] folds;
+	//the store by feature: rows and values of feature f are columnRows/Values[columnOffsets[f]...]
+	private final int[] columnOffsets;
+	private final int[] columnRows;
+	private final float[] columnValues;
+
+	public CrossValidationSweep(VectorStore store, int numFolds, long seed) {
+		if (numFolds < 2 || numFolds > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("Number of folds must be between 2 and " + Byte.MAX_VALUE);
+		}
+		this.store = store;
+		this.numFolds = numFolds;
+
+		//shuffled rows dealt out to the folds in turn, so fold sizes differ by at most one
+		int numRows = store.numRows();
+		int[] order = new int[numRows];
+		for (int row = 0; row < numRows; row++) {
+			order[row] = row;
+		}
+		Random random = new Random(seed);
+		for (int i = numRows - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int row = order[i];
+			order[i] = order[j];
+			order[j] = row;
+		}
+		folds = new byte[numRows];
+		for (int i = 0; i < numRows; i++) {
+			folds[order[i]] = (byte) (i % numFolds);
+		}
+
+		//transpose the rows into feature columns, counting sort by feature
+		columnOffsets = new int[store.numFeatures + 1];
+		for (int entry = 0; entry < store.indices.length; entry++) {
+			columnOffsets[store.indices[entry] + 1]++;
+		}
+		for (int feature = 0; feature < store.numFeatures; feature++) {
+			columnOffsets[feature + 1] += columnOffsets[feature];
+		}
+		columnRows = new int[store.indices.length];
+		columnValues = new float[store.indices.length];
+		int[] next = Arrays.copyOf(columnOffsets, store.numFeatures);
+		for (int row = 0; row < numRows; row++) {
+			for (int entry = store.rowOffsets[row]; entry < store.rowOffsets[row + 1]; entry++) {
+				int position = next[store.indices[entry]]++;
+				columnRows[position] = row;
+				columnValues[position] = store.values[entry];
+			}
+		}
+	}
+
+	//label feature weight sums of the rows outside one fold, features below a document frequency left out
+	private class FoldSums {
+		final int fold;
+		//entries of feature f are entryLabels/Sums[entryOffsets[f]...], ascending labels
+		final int[] entryOffsets;
+		int[] entryLabels;
+		double[] entrySums;
+		//0 for features left out
+		final double[] featureWeights;
+		final double[] labelWeights;
+		double totalWeight;
+		//features with a weight, NaiveBayesModel.numFeatures()
+		int numFeatures;
+
+		FoldSums(int fold, int minDF) {
+			this.fold = fold;
+			int numLabels = store.labels().size();
+			entryOffsets = new int[store.numFeatures + 1];
+			entryLabels = new int[1024];
+			entrySums = new double[1024];
+			featureWeights = new double[store.numFeatures];
+			labelWeights = new double[numLabels];
+			//one feature's sums, and the labels they are non-zero for
+			double[] scratch = new double[numLabels];
+			int[] touched = new int[numLabels];
+			int numEntries = 0;
+			for (int feature = 0; feature < store.numFeatures; feature++) {
+				entryOffsets[feature] = numEntries;
+				int docFreq = 0;
+				for (int i = columnOffsets[feature]; i < columnOffsets[feature + 1]; i++) {
+					if (folds[columnRows[i]] != fold) {
+						docFreq++;
+					}
+				}
+				if (docFreq == 0 || docFreq < minDF) {
+					continue;
+				}
+				int numTouched = 0;
+				for (int i = columnOffsets[feature]; i < columnOffsets[feature + 1]; i++) {
+					int row = columnRows[i];
+					if (folds[row] == fold) {
+						continue;
+					}
+					for (int j = store.labelOffsets[row]; j < store.labelOffsets[row + 1]; j++) {
+						int label = store.labels[j];
+						if (scratch[label] == 0) {
+							touched[numTouched++] = label;
+						}
+						scratch[label] += columnValues[i];
+					}
+				}
+				Arrays.sort(touched, 0, numTouched);
+				if (entryLabels.length < numEntries + numTouched) {
+					int capacity = Math.max(numEntries + numTouched, 2 * entryLabels.length);
+					entryLabels = Arrays.copyOf(entryLabels, capacity);
+					entrySums = Arrays.copyOf(entrySums, capacity);
+				}
+				for (int t = 0; t < numTouched; t++) {
+					int label = touched[t];
+					entryLabels[numEntries] = label;
+					entrySums[numEntries] = scratch[label];
+					featureWeights[feature] += scratch[label];
+					labelWeights[label] += scratch[label];
+					numEntries++;
+					scratch[label] = 0;
+				}
+				if (featureWeights[feature] != 0) {
+					numFeatures++;
+				}
+			}
+			entryOffsets[store.numFeatures] = numEntries;
+			for (double labelWeight : labelWeights) {
+				totalWeight += labelWeight;
+			}
+		}
+	}
+
+	/* weights of one classifier and alpha over FoldSums: the weight of label l for feature f is
+	 * featureTerms[f] + labelTerms[l], plus corrections[e] if l has entry e for f*/
+	private static class FoldWeights {
+		final double[] featureTerms;
+		final double[] labelTerms;
+		final double[] corrections;
+
+		FoldWeights(FoldSums sums, Classifier classifier, double alpha) {
+			double numFeatures = sums.numFeatures;
+			featureTerms = new double[sums.featureWeights.length];
+			labelTerms = new double[sums.labelWeights.length];
+			corrections = new double[sums.entryOffsets[sums.featureWeights.length]];
+			for (int label = 0; label < labelTerms.length; label++) {
+				double labelWeight = sums.labelWeights[label];
+				labelTerms[label] = classifier == Classifier.CNB
+						? Math.log(sums.totalWeight - labelWeight + alpha * numFeatures)
+						: -Math.log(labelWeight + alpha * numFeatures);
+			}
+			for (int feature = 0; feature < featureTerms.length; feature++) {
+				double featureWeight = sums.featureWeights[feature];
+				if (featureWeight == 0) {
+					continue;
+				}
+				featureTerms[feature] = classifier == Classifier.CNB ? -Math.log(featureWeight + alpha) : Math.log(alpha);
+				for (int entry = sums.entryOffsets[feature]; entry < sums.entryOffsets[feature + 1]; entry++) {
+					int label = sums.entryLabels[entry];
+					double labelWeight = sums.labelWeights[label];
+					double entrySum = sums.entrySums[entry];
+					corrections[entry] = classifier == Classifier.CNB
+							? ComplementaryNaiveBayesClassifier.computeWeight(featureWeight, entrySum, sums.totalWeight,
+									labelWeight, alpha, numFeatures)
+								- ComplementaryNaiveBayesClassifier.computeWeight(featureWeight, 0, sums.totalWeight,
+									labelWeight, alpha, numFeatures)
+							: StandardNaiveBayesClassifier.computeWeight(entrySum, labelWeight, alpha, numFeatures)
+								- StandardNaiveBayesClassifier.computeWeight(0, labelWeight, alpha, numFeatures);
+				}
+			}
+		}
+	}
+
+	//scores the rows of sums' fold with weights--adds top-1 and top-3 counts to result
+	private void evaluateFold(FoldSums sums, FoldWeights weights, SweepResult result) {
+		ScoringBuffer buffer = new ScoringBuffer(store.labels().size(), 3);
+		double[] scores = buffer.scores;
+		long top1Correct = 0;
+		long top3Correct = 0;
+		long total = 0;
+		for (int row = 0; row < folds.length; row++) {
+			if (folds[row] != sums.fold) {
+				continue;
+			}
+			buffer.clear();
+			double featureTermSum = 0;
+			double valueSum = 0;
+			for (int entry = store.rowOffsets[row]; entry < store.rowOffsets[row + 1]; entry++) {
+				int feature = store.indices[entry];
+				//features left out of training are not in the vocabulary a real model would have
+				if (sums.featureWeights[feature] == 0) {
+					continue;
+				}
+				double value = store.values[entry];
+				featureTermSum += value * weights.featureTerms[feature];
+				valueSum += value;
+				for (int e = sums.entryOffsets[feature]; e < sums.entryOffsets[feature + 1]; e++) {
+					scores[sums.entryLabels[e]] += value * weights.corrections[e];
+				}
+			}
+			for (int label = 0; label < scores.length; label++) {
+				scores[label] += featureTermSum + valueSum * weights.labelTerms[label];
+			}
+			buffer.startRanking();
+			buffer.offerAllScores();
+			buffer.finish();
+
+			total++;
+			for (int rank = 0; rank < buffer.size(); rank++) {
+				if (hasLabel(row, buffer.label(rank))) {
+					if (rank == 0) {
+						top1Correct++;
+					}
+					top3Correct++;
+					break;
+				}
+			}
+		}
+		result.add(top1Correct, top3Correct, total);
+	}
+
+	private boolean hasLabel(int row, int label) {
+		for (int i = store.labelOffsets[row]; i < store.labelOffsets[row + 1]; i++) {
+			if (store.labels[i] == label) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//cross-validates every configuration with numThreads tasks at a time--results in the order of configs
+	public List<SweepResult> run(List<SweepConfig> configs, int numThreads) throws Exception {
+		final List<SweepResult> results = new ArrayList<SweepResult>();
+		List<Integer> minDFs = new ArrayList<Integer>();
+		for (SweepConfig config : configs) {
+			results.add(new SweepResult(config));
+			if (!minDFs.contains(config.minDF)) {
+				minDFs.add(config.minDF);
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<?>> tasks = new ArrayList<Future<?>>();
+			for (int fold = 0; fold < numFolds; fold++) {
+				for (final int minDF : minDFs) {
+					final int taskFold = fold;
+					tasks.add(executor.submit(new Runnable() {
+						public void run() {
+							FoldSums sums = new FoldSums(taskFold, minDF);
+							for (SweepResult result : results) {
+								SweepConfig config = result.config;
+								if (config.minDF == minDF) {
+									evaluateFold(sums, new FoldWeights(sums, config.classifier, config.alpha), result);
+								}
+							}
+						}
+					}));
+				}
+			}
+			//rethrows the first failed task's exception
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	//every combination of the comma-separated classifiers, alphas and min-DF cutoffs
+	public static List<SweepConfig> grid(String[] classifiers, String[] alphas, String[] minDFs) {
+		List<SweepConfig> configs = new ArrayList<SweepConfig>();
+		for (String classifier : classifiers) {
+			for (String alpha : alphas) {
+				for (String minDF : minDFs) {
+					configs.add(new SweepConfig(Classifier.valueOf(classifier.toUpperCase()), Float.parseFloat(alpha),
+							Integer.parseInt(minDF)));
+				}
+			}
+		}
+		return configs;
+	}
+
+	private static void print(PrintStream out, List<SweepResult> results, boolean tsv) {
+		if (tsv) {
+			out.println("classifier\talpha\tminDF\tvectors\ttop1\ttop3");
+		}
+		for (SweepResult result : results) {
+			SweepConfig config = result.config;
+			if (tsv) {
+				out.printf("%s\t%s\t%d\t%d\t%.4f\t%.4f\n", config.classifier.name().toLowerCase(), config.alpha,
+						config.minDF, result.total(), result.top1Accuracy(), result.top3Accuracy());
+			} else {
+				out.printf("%-28s top-1 %6.2f%%  top-3 %6.2f%%\n", config, result.top1Accuracy(), result.top3Accuracy());
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		/* optional parameters (-D name=value):
+		 * folds = NUMBER OF FOLDS (DEFAULT 5)
+		 * classifiers = COMMA-SEPARATED 'cnb' AND/OR 'nb' (DEFAULT cnb,nb)
+		 * alphas = COMMA-SEPARATED SMOOTHING ALPHAS (DEFAULT 1.0, TrainNaiveBayesJob's DEFAULT)
+		 * minDFs = COMMA-SEPARATED MINIMUM NUMBERS OF TRAINING ROWS A FEATURE MUST BE IN (DEFAULT 1)
+		 * sweepThreads = NUMBER OF FOLD TASKS RUN AT ONCE (DEFAULT NUMBER OF PROCESSORS)
+		 * seed = SEED OF THE FOLD ASSIGNMENT (DEFAULT 42)
+		 * vectorReadThreads = NUMBER OF PART FILES READ IN PARALLEL WHILE LOADING (DEFAULT 4)
+		 * reportPath = IF SET, ALSO WRITE THE RESULTS HERE AS TAB-SEPARATED VALUES
+		 * professionsPath = BINARY PROFESSIONS INDEX, ONLY NEEDED FOR MULTI-LABEL RECORDS (SEE VectorStore)
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 1) {
+			System.err.println("Usage: cross-validation-sweep <vectors>");
+			System.exit(2);
+		}
+		FileSystem fs = FileSystem.get(conf);
+
+		long start = System.currentTimeMillis();
+		VectorStore store = VectorStore.load(fs, new Path(otherArgs[0]), conf);
+		System.out.println("Loaded " + store.numRows() + " vectors, " + store.numNonZeros() + " non-zeros, "
+				+ store.labels().size() + " labels (" + store.sizeInBytes() / (1024 * 1024) + " MB) in "
+				+ (System.currentTimeMillis() - start) + " ms.");
+		if (store.numRows() == 0) {
+			System.err.println("No vectors in " + otherArgs[0]);
+			System.exit(1);
+		}
+
+		List<SweepConfig> configs = grid(conf.getTrimmedStrings("classifiers", "cnb", "nb"),
+				conf.getTrimmedStrings("alphas", "1.0"), conf.getTrimmedStrings("minDFs", "1"));
+		int numFolds = conf.getInt("folds", 5);
+		int numThreads = conf.getInt("sweepThreads", Runtime.getRuntime().availableProcessors());
+		start = System.currentTimeMillis();
+		CrossValidationSweep sweep = new CrossValidationSweep(store, numFolds, conf.getLong("seed", 42));
+		List<SweepResult> results = sweep.run(configs, numThreads);
+		System.out.println("Cross-validated " + configs.size() + " configurations over " + numFolds + " folds with "
+				+ numThreads + " threads in " + (System.currentTimeMillis() - start) + " ms.");
+		print(System.out, results, false);
+
+		if (conf.get("reportPath") != null) {
+			Path reportPath = new Path(conf.get("reportPath"));
+			PrintStream report = new PrintStream(reportPath.getFileSystem(conf).create(reportPath, true), false, "UTF-8");
+			print(report, results, true);
+			report.close();
+			System.out.println("Wrote " + reportPath);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/* EvaluationCounts - Running count of correct (actual profession among the
+ * best k predicted) and total predictions. Each scoring thread keeps its
+ * own instance and the instances are merged once scoring is done, so
+ * threads never share a counter.
+ */
+
+package code.runmahout;
+
+public class EvaluationCounts {
+	private int correctPredictions;
+	private int totalPredictions;
+
+	public EvaluationCounts() {
+	}
+
+	//counts taken from elsewhere, like the counters of a scoring job
+	public EvaluationCounts(int correctPredictions, int totalPredictions) {
+		this.correctPredictions = correctPredictions;
+		this.totalPredictions = totalPredictions;
+	}
+
+	public void add(boolean correctPrediction) {
+		totalPredictions++;
+		if (correctPrediction) {
+			correctPredictions++;
+		}
+	}
+
+	//adds other's counts into these counts
+	public void merge(EvaluationCounts other) {
+		correctPredictions += other.correctPredictions;
+		totalPredictions += other.totalPredictions;
+	}
+
+	public int getCorrectPredictions() {
+		return correctPredictions;
+	}
+
+	public int getTotalPredictions() {
+		return totalPredictions;
+	}
+
+	//percent of predictions that were correct--0 if there were none
+	public double getAccuracy() {
+		return totalPredictions == 0 ? 0 : ((double) correctPredictions / totalPredictions) * 100.00;
+	}
+}
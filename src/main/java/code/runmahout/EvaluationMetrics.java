@@ -0,0 +1,326 @@
+/* EvaluationMetrics - Accuracy metrics of an evaluation run, kept as
+ * counts that merge by addition: top-k accuracy for every k up to the
+ * number of labels predicted per article, precision and recall of every
+ * profession, and a sparse confusion matrix. Like EvaluationCounts, every
+ * scorer (a scoring thread, or a ScoreVectorsMapred task) fills its own
+ * instance and the instances are merged once scoring is done, so nothing
+ * is shared while scoring. The class is a Writable so tasks can hand their
+ * metrics to the driver. writeJson() writes the report.
+ *
+ * Per profession, the prediction is the best label: it is a true positive
+ * of that label if the article has the label, and the article counts
+ * toward the recall of all its actual labels. The confusion matrix counts
+ * (actual, predicted) label pairs of best labels--a correct best label
+ * counts once on the diagonal, a wrong one once for every actual label.
+ */
+
+package code.runmahout;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.mahout.math.list.LongArrayList;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+
+import code.vectorcreate.LabelDictionary;
+
+public class EvaluationMetrics implements Writable {
+	private int numLabels;
+	private int maxK;
+	private long articles;
+	//articles whose best ranked actual label is at rank r--top-k hits are the sum up to k - 1
+	private long[] hitsAtRank;
+	//per label id: articles it was the best label of, of those the articles that have it, and articles that have it
+	private long[] predicted;
+	private long[] truePositives;
+	private long[] actual;
+	//count of (actual label id << 32 | predicted label id)
+	private OpenLongIntHashMap confusion;
+
+	//for Writable--readFields() sets everything up
+	public EvaluationMetrics() {
+	}
+
+	//metrics of numLabels labels, maxK of them predicted per article
+	public EvaluationMetrics(int numLabels, int maxK) {
+		init(numLabels, maxK);
+	}
+
+	private void init(int numLabels, int maxK) {
+		this.numLabels = numLabels;
+		this.maxK = maxK;
+		articles = 0;
+		hitsAtRank = new long[maxK];
+		predicted = new long[numLabels];
+		truePositives = new long[numLabels];
+		actual = new long[numLabels];
+		confusion = new OpenLongIntHashMap();
+	}
+
+	/* counts the prediction best (most probable label first) of an article with actualLabels--ids of -1,
+	 * professions the model does not know, count as never predicted*/
+	public void add(int[] actualLabels, ScoringBuffer best) {
+		articles++;
+		for (int rank = 0; rank < Math.min(best.size(), maxK); rank++) {
+			if (contains(actualLabels, best.label(rank))) {
+				hitsAtRank[rank]++;
+				break;
+			}
+		}
+		for (int label : actualLabels) {
+			if (label >= 0) {
+				actual[label]++;
+			}
+		}
+		if (best.size() == 0) {
+			return;
+		}
+		int prediction = best.label(0);
+		predicted[prediction]++;
+		if (contains(actualLabels, prediction)) {
+			truePositives[prediction]++;
+			confusion.adjustOrPutValue(cell(prediction, prediction), 1, 1);
+		} else {
+			for (int label : actualLabels) {
+				if (label >= 0) {
+					confusion.adjustOrPutValue(cell(label, prediction), 1, 1);
+				}
+			}
+		}
+	}
+
+	private static boolean contains(int[] labels, int label) {
+		for (int l : labels) {
+			if (l == label) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long cell(int actualLabel, int predictedLabel) {
+		return ((long) actualLabel << 32) | predictedLabel;
+	}
+
+	//adds other's counts into these counts--both must be of the same labels and k
+	public void merge(EvaluationMetrics other) {
+		if (other.numLabels != numLabels || other.maxK != maxK) {
+			throw new IllegalArgumentException("Metrics of " + other.numLabels + " labels and k " + other.maxK
+					+ " do not merge into metrics of " + numLabels + " labels and k " + maxK);
+		}
+		articles += other.articles;
+		add(hitsAtRank, other.hitsAtRank);
+		add(predicted, other.predicted);
+		add(truePositives, other.truePositives);
+		add(actual, other.actual);
+		LongArrayList cells = other.confusion.keys();
+		for (int i = 0; i < cells.size(); i++) {
+			long cell = cells.getQuick(i);
+			int count = other.confusion.get(cell);
+			confusion.adjustOrPutValue(cell, count, count);
+		}
+	}
+
+	private static void add(long[] to, long[] from) {
+		for (int i = 0; i < to.length; i++) {
+			to[i] += from[i];
+		}
+	}
+
+	public long articles() {
+		return articles;
+	}
+
+	//articles with an actual label among the best k, k <= maxK
+	public long hits(int k) {
+		long hits = 0;
+		for (int rank = 0; rank < k; rank++) {
+			hits += hitsAtRank[rank];
+		}
+		return hits;
+	}
+
+	//counts of the top k, the way EvaluationCounts counts correct predictions
+	public EvaluationCounts counts(int k) {
+		return new EvaluationCounts((int) hits(k), (int) articles);
+	}
+
+	//percent of articles with an actual label among the best k--0 if there were no articles
+	public double accuracy(int k) {
+		return articles == 0 ? 0 : 100.0 * hits(k) / articles;
+	}
+
+	//0 if the label was never predicted
+	public double precision(int label) {
+		return predicted[label] == 0 ? 0 : (double) truePositives[label] / predicted[label];
+	}
+
+	//0 if no article has the label
+	public double recall(int label) {
+		return actual[label] == 0 ? 0 : (double) truePositives[label] / actual[label];
+	}
+
+	//prints top-k accuracies, and the macro averages of precision and recall
+	public void report(PrintStream out) {
+		for (int k = 1; k <= maxK; k++) {
+			out.printf("Top-%d accuracy: %.2f%%\n", k, accuracy(k));
+		}
+		out.printf("Macro precision: %.2f%%, macro recall: %.2f%%\n", 100 * macroPrecision(), 100 * macroRecall());
+	}
+
+	//mean precision of the labels that were predicted
+	public double macroPrecision() {
+		double sum = 0;
+		int labels = 0;
+		for (int label = 0; label < numLabels; label++) {
+			if (predicted[label] > 0) {
+				sum += precision(label);
+				labels++;
+			}
+		}
+		return labels == 0 ? 0 : sum / labels;
+	}
+
+	//mean recall of the labels that articles have
+	public double macroRecall() {
+		double sum = 0;
+		int labels = 0;
+		for (int label = 0; label < numLabels; label++) {
+			if (actual[label] > 0) {
+				sum += recall(label);
+				labels++;
+			}
+		}
+		return labels == 0 ? 0 : sum / labels;
+	}
+
+	/* writes the metrics as a JSON object: article count, top-k accuracy by k, macro precision and recall,
+	 * every profession that was predicted or expected, and the non-zero confusion matrix cells by count,
+	 * largest first. Undefined precisions and recalls are null*/
+	public void writeJson(PrintWriter out, LabelDictionary labels) {
+		out.println("{");
+		out.println("  \"articles\": " + articles + ",");
+		out.print("  \"topKAccuracy\": {");
+		for (int k = 1; k <= maxK; k++) {
+			out.print((k == 1 ? "" : ", ") + "\"" + k + "\": " + ratio(hits(k), articles));
+		}
+		out.println("},");
+		out.println("  \"macroPrecision\": " + macroPrecision() + ",");
+		out.println("  \"macroRecall\": " + macroRecall() + ",");
+		out.println("  \"professions\": [");
+		boolean first = true;
+		for (int label = 0; label < numLabels; label++) {
+			if (predicted[label] == 0 && actual[label] == 0) {
+				continue;
+			}
+			out.print(first ? "" : ",\n");
+			first = false;
+			out.print("    {\"name\": " + quote(labels.name(label)) + ", \"articles\": " + actual[label]
+					+ ", \"predicted\": " + predicted[label] + ", \"truePositives\": " + truePositives[label]
+					+ ", \"precision\": " + ratio(truePositives[label], predicted[label])
+					+ ", \"recall\": " + ratio(truePositives[label], actual[label]) + "}");
+		}
+		out.println("\n  ],");
+		out.println("  \"confusion\": [");
+		List<long[]> cells = confusionCells();
+		for (int i = 0; i < cells.size(); i++) {
+			long cell = cells.get(i)[0];
+			out.print("    {\"actual\": " + quote(labels.name((int) (cell >> 32))) + ", \"predicted\": "
+					+ quote(labels.name((int) cell)) + ", \"count\": " + cells.get(i)[1] + "}"
+					+ (i == cells.size() - 1 ? "\n" : ",\n"));
+		}
+		out.println("  ]");
+		out.println("}");
+		out.flush();
+	}
+
+	//confusion matrix cells and their counts, largest count first, ties in cell order
+	private List<long[]> confusionCells() {
+		LongArrayList keys = confusion.keys();
+		List<long[]> cells = new ArrayList<long[]>(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			cells.add(new long[] { keys.getQuick(i), confusion.get(keys.getQuick(i)) });
+		}
+		Collections.sort(cells, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				if (a[1] != b[1]) {
+					return a[1] > b[1] ? -1 : 1;
+				}
+				return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+			}
+		});
+		return cells;
+	}
+
+	private static String ratio(long numerator, long denominator) {
+		return denominator == 0 ? "null" : String.valueOf((double) numerator / denominator);
+	}
+
+	//JSON string literal of s
+	private static String quote(String s) {
+		StringBuilder quoted = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, numLabels);
+		WritableUtils.writeVInt(out, maxK);
+		WritableUtils.writeVLong(out, articles);
+		writeCounts(out, hitsAtRank);
+		writeCounts(out, predicted);
+		writeCounts(out, truePositives);
+		writeCounts(out, actual);
+		LongArrayList cells = confusion.keys();
+		WritableUtils.writeVInt(out, cells.size());
+		for (int i = 0; i < cells.size(); i++) {
+			out.writeLong(cells.getQuick(i));
+			WritableUtils.writeVInt(out, confusion.get(cells.getQuick(i)));
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		init(WritableUtils.readVInt(in), WritableUtils.readVInt(in));
+		articles = WritableUtils.readVLong(in);
+		readCounts(in, hitsAtRank);
+		readCounts(in, predicted);
+		readCounts(in, truePositives);
+		readCounts(in, actual);
+		int cells = WritableUtils.readVInt(in);
+		for (int i = 0; i < cells; i++) {
+			confusion.put(in.readLong(), WritableUtils.readVInt(in));
+		}
+	}
+
+	private static void writeCounts(DataOutput out, long[] counts) throws IOException {
+		for (long count : counts) {
+			WritableUtils.writeVLong(out, count);
+		}
+	}
+
+	private static void readCounts(DataInput in, long[] counts) throws IOException {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = WritableUtils.readVLong(in);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/* EvaluationStats - Per-stage timings of an evaluation run. Every test
+ * vector goes through four stages: decode (taking it from the
+ * VectorPartsReader--with parallel part readers this is mostly waiting for
+ * them), classify (computing every label's score), rank (selecting the
+ * best k labels) and write (writing its prediction--the serial loop also
+ * formats and checks the prediction in this stage). Each stage has its own
+ * LatencyHistogram. Like EvaluationCounts, every thread keeps its own
+ * instance and the instances are merged once scoring is done. Also prints
+ * progress with the running throughput every progressInterval predictions.
+ */
+
+package code.runmahout;
+
+import java.io.PrintStream;
+
+public class EvaluationStats {
+	private final LatencyHistogram decode = new LatencyHistogram();
+	private final LatencyHistogram classify = new LatencyHistogram();
+	private final LatencyHistogram rank = new LatencyHistogram();
+	private final LatencyHistogram write = new LatencyHistogram();
+	//predictions between progress lines, 0 for none
+	private final int progressInterval;
+	private final long startNanos = System.nanoTime();
+
+	public EvaluationStats(int progressInterval) {
+		this.progressInterval = progressInterval;
+	}
+
+	public void recordDecode(long nanos) {
+		decode.record(nanos);
+	}
+
+	//splits the scorer's time at the point buffer started ranking, see ScoringBuffer.startRanking()
+	public void recordScore(long startNanos, ScoringBuffer buffer, long endNanos) {
+		classify.record(buffer.rankingStartNanos() - startNanos);
+		rank.record(endNanos - buffer.rankingStartNanos());
+	}
+
+	public void recordWrite(long nanos) {
+		write.record(nanos);
+	}
+
+	//adds other's timings into these timings
+	public void merge(EvaluationStats other) {
+		decode.merge(other.decode);
+		classify.merge(other.classify);
+		rank.merge(other.rank);
+		write.merge(other.write);
+	}
+
+	//predictions per second since these stats were created
+	public double throughput(long predictions) {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return seconds == 0 ? 0 : predictions / seconds;
+	}
+
+	//prints progress every progressInterval predictions
+	public void printProgress(EvaluationCounts counts) {
+		int totalPredictions = counts.getTotalPredictions();
+		if (progressInterval > 0 && totalPredictions % progressInterval == 0) {
+			System.out.printf("Predicted %d vectors, %.0f vectors/s, ", totalPredictions, throughput(totalPredictions));
+			System.out.print(counts.getCorrectPredictions() + " correct predictions so far: ");
+			System.out.printf("%.2f%% accuracy\n", counts.getAccuracy());
+		}
+	}
+
+	//stage histograms and overall throughput
+	public void report(PrintStream out, EvaluationCounts counts) {
+		out.println(decode.summary("decode"));
+		out.println(classify.summary("classify"));
+		out.println(rank.summary("rank"));
+		out.println(write.summary("write"));
+		out.printf("Throughput: %d vectors in %.2fs, %.0f vectors/s\n", counts.getTotalPredictions(),
+				(System.nanoTime() - startNanos) / 1e9, throughput(counts.getTotalPredictions()));
+	}
+}
@@ -0,0 +1,240 @@
+/* InMemoryTrainer - Trains the Naive Bayes model inside this JVM instead of
+ * through the local mapreduce jobs of Mahout's TrainNaiveBayesJob, whose job
+ * setup and temp directories take far longer than the summing itself at
+ * our vector volumes. Reads training vectors written by CreateVectorMapred,
+ * either one vector per profession keyed '/profession/' (what
+ * TrainNaiveBayesJob reads), multi-label records (multiLabel=true) or
+ * block files (vectorFormat=blocks, read without their titles).
+ *
+ * Every training thread reads whole part files and adds each vector into
+ * its own dense double[] weight sum per label, allocated when the thread
+ * first sees the label; the threads' sums are added up when all parts are
+ * read. Memory is threads x labels x features doubles, so lower
+ * trainerThreads for very large vocabularies. The model is assembled and
+ * written like MultiLabelTrainer's--NaiveBayesModel.serialize, a Mahout
+ * label index and the label dictionary--with labels numbered in profession
+ * name order.
+ */
+
+package code.runmahout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.mahout.classifier.naivebayes.NaiveBayesModel;
+import org.apache.mahout.math.MultiLabelVectorWritable;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+import code.vectorcreate.LabelDictionary;
+import code.vectorcreate.ProfessionsIndex;
+import code.vectorcreate.VectorBlockReader;
+
+public class InMemoryTrainer {
+	private final FileSystem fs;
+	private final Configuration conf;
+	private final List<Path> parts;
+	//next part for a training thread to read
+	private final AtomicInteger nextPart = new AtomicInteger();
+	//professions of multi-label record label ids--loaded with the first multi-label part
+	private volatile LabelDictionary professionLabels;
+
+	//weight sums of one training thread
+	private class LabelSums implements Runnable {
+		//profession name -> weight per feature
+		final Map<String, double[]> sums = new HashMap<String, double[]>();
+		//the same arrays by professions index label id, for multi-label records
+		private double[][] sumsById;
+		private Throwable failure;
+
+		public void run() {
+			try {
+				int part;
+				while ((part = nextPart.getAndIncrement()) < parts.size()) {
+					readPart(parts.get(part));
+				}
+			} catch (Throwable e) {
+				failure = e;
+			}
+		}
+
+		private void readPart(Path part) throws IOException {
+			if (VectorBlockReader.isBlockFile(part)) {
+				readBlockPart(part);
+				return;
+			}
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, conf);
+			try {
+				Text key = new Text();
+				Writable value = (Writable) ReflectionUtils.newInstance(reader.getValueClass(), conf);
+				if (value instanceof MultiLabelVectorWritable) {
+					MultiLabelVectorWritable record = (MultiLabelVectorWritable) value;
+					LabelDictionary labels = professionLabels();
+					while (reader.next(key, record)) {
+						Vector vector = record.getVector();
+						for (int label : record.getLabels()) {
+							add(sum(label, labels, vector.size()), vector);
+						}
+					}
+				} else {
+					VectorWritable vectorWritable = (VectorWritable) value;
+					while (reader.next(key, vectorWritable)) {
+						//key is '/profession/', as TrainNaiveBayesJob reads it
+						Vector vector = vectorWritable.get();
+						add(sum(key.toString().split("/")[1], vector.size()), vector);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		//adds the block file's vectors straight from the reader's arrays
+		private void readBlockPart(Path part) throws IOException {
+			VectorBlockReader reader = new VectorBlockReader(fs, part, conf, false);
+			try {
+				LabelDictionary labels = reader.labels();
+				double[][] partSumsById = new double[labels.size()][];
+				while (reader.next()) {
+					int[] indices = reader.indices();
+					float[] values = reader.values();
+					for (int i = 0; i < reader.numLabels(); i++) {
+						int label = reader.label(i);
+						if (partSumsById[label] == null) {
+							partSumsById[label] = sum(labels.name(label), reader.cardinality());
+						}
+						double[] sum = partSumsById[label];
+						for (int j = 0; j < reader.numNonZeros(); j++) {
+							sum[indices[j]] += values[j];
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		private double[] sum(String label, int numFeatures) {
+			double[] sum = sums.get(label);
+			if (sum == null) {
+				sum = new double[numFeatures];
+				sums.put(label, sum);
+			}
+			return sum;
+		}
+
+		private double[] sum(int label, LabelDictionary labels, int numFeatures) {
+			if (sumsById == null) {
+				sumsById = new double[labels.size()][];
+			}
+			if (sumsById[label] == null) {
+				sumsById[label] = sum(labels.name(label), numFeatures);
+			}
+			return sumsById[label];
+		}
+	}
+
+	private InMemoryTrainer(FileSystem fs, Path input, Configuration conf) throws IOException {
+		this.fs = fs;
+		this.conf = conf;
+		this.parts = VectorPartsReader.listParts(fs, input);
+	}
+
+	private synchronized LabelDictionary professionLabels() throws IOException {
+		if (professionLabels == null) {
+			professionLabels = ProfessionsIndex.load(conf).labels();
+		}
+		return professionLabels;
+	}
+
+	private static void add(double[] sum, Vector vector) {
+		for (Vector.Element element : vector.nonZeroes()) {
+			sum[element.index()] += element.get();
+		}
+	}
+
+	/* trains on the vectors in input (file or directory) with trainerThreads threads, writing the model to
+	 * modelDirectory and the label index to labelIndexPath--returns false if there was nothing to train on*/
+	public static boolean train(Configuration conf, Path input, Path modelDirectory, Path labelIndexPath)
+			throws Exception {
+		FileSystem fs = FileSystem.get(conf);
+		long start = System.currentTimeMillis();
+		InMemoryTrainer trainer = new InMemoryTrainer(fs, input, conf);
+		if (trainer.parts.isEmpty()) {
+			System.err.println("No training vectors in " + input);
+			return false;
+		}
+
+		//at most one thread per part
+		int numThreads = Math.min(conf.getInt("trainerThreads", Runtime.getRuntime().availableProcessors()),
+				trainer.parts.size());
+		List<LabelSums> threadSums = new ArrayList<LabelSums>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < numThreads; i++) {
+			LabelSums sums = trainer.new LabelSums();
+			Thread thread = new Thread(sums, "trainer-" + i);
+			threadSums.add(sums);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		//merge every thread's sums into the first sum of each label, in profession name order
+		TreeMap<String, double[]> labelSums = new TreeMap<String, double[]>();
+		for (LabelSums sums : threadSums) {
+			if (sums.failure != null) {
+				throw new IOException("Reading training vectors failed", sums.failure);
+			}
+			for (Map.Entry<String, double[]> entry : sums.sums.entrySet()) {
+				double[] total = labelSums.get(entry.getKey());
+				if (total == null) {
+					labelSums.put(entry.getKey(), entry.getValue());
+				} else {
+					double[] sum = entry.getValue();
+					for (int feature = 0; feature < total.length; feature++) {
+						total[feature] += sum[feature];
+					}
+				}
+			}
+		}
+		if (labelSums.isEmpty()) {
+			System.err.println("No training vectors in " + input);
+			return false;
+		}
+
+		//only the non-zero weights go into the model, as in the sums TrainNaiveBayesJob adds up
+		List<String> labelNames = new ArrayList<String>(labelSums.keySet());
+		List<Vector> labelVectors = new ArrayList<Vector>(labelSums.size());
+		for (double[] sum : labelSums.values()) {
+			Vector vector = new RandomAccessSparseVector(sum.length);
+			for (int feature = 0; feature < sum.length; feature++) {
+				if (sum[feature] != 0) {
+					vector.setQuick(feature, sum[feature]);
+				}
+			}
+			labelVectors.add(vector);
+		}
+
+		NaiveBayesModel model = MultiLabelTrainer.writeModel(conf, labelNames, labelVectors, modelDirectory,
+				labelIndexPath);
+		System.out.println("Trained model with " + labelNames.size() + " labels and "
+				+ (int) model.numFeatures() + " features from " + trainer.parts.size() + " part files with "
+				+ numThreads + " threads in " + (System.currentTimeMillis() - start) + " ms.");
+		return true;
+	}
+}
@@ -0,0 +1,110 @@
+/* LatencyHistogram - Fixed-size log-linear histogram of durations in
+ * nanoseconds. Every power of two is split into 16 buckets, so a reported
+ * percentile is within about 6% of the true value however many durations
+ * are recorded, and recording never allocates. Not thread-safe: give each
+ * thread its own histogram and merge() them when reporting.
+ */
+
+package code.runmahout;
+
+import java.util.Arrays;
+
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	//enough buckets for any non-negative long
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final long[] counts = new long[NUM_BUCKETS];
+	private long totalCount;
+	private long totalNanos;
+	private long maxNanos;
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[bucket(nanos)]++;
+		totalCount++;
+		totalNanos += nanos;
+		if (nanos > maxNanos) {
+			maxNanos = nanos;
+		}
+	}
+
+	//adds other's durations into this histogram
+	public void merge(LatencyHistogram other) {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		totalCount += other.totalCount;
+		totalNanos += other.totalNanos;
+		maxNanos = Math.max(maxNanos, other.maxNanos);
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		totalCount = 0;
+		totalNanos = 0;
+		maxNanos = 0;
+	}
+
+	public long count() {
+		return totalCount;
+	}
+
+	public long totalNanos() {
+		return totalNanos;
+	}
+
+	public long maxNanos() {
+		return maxNanos;
+	}
+
+	public double meanNanos() {
+		return totalCount == 0 ? 0 : (double) totalNanos / totalCount;
+	}
+
+	//duration at or below which a fraction p (0 to 1) of the durations fall, to bucket precision
+	public long percentileNanos(double p) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p * totalCount));
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(bucketUpperBound(i), maxNanos);
+			}
+		}
+		return maxNanos;
+	}
+
+	//one line summary in milliseconds
+	public String summary(String name) {
+		return String.format("%s: count=%d, mean=%.3fms, p50=%.3fms, p90=%.3fms, p99=%.3fms, max=%.3fms",
+				name, totalCount, meanNanos() / 1e6, percentileNanos(0.50) / 1e6, percentileNanos(0.90) / 1e6,
+				percentileNanos(0.99) / 1e6, maxNanos / 1e6);
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	//largest value that falls into bucket
+	private static long bucketUpperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = bucket % SUB_BUCKETS;
+		long lower = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+		return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
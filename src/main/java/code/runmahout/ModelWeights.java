@@ -0,0 +1,155 @@
+/* ModelWeights - The raw sums a Mahout Naive Bayes model is made of, in
+ * primitive arrays: per feature weight sums, per label weight sums, and one
+ * sparse row of per feature weight sums for every label. NaiveBayesModel
+ * keeps these behind accessors that only answer one (label, feature) at a
+ * time and hides the vector length, so scoring kernels that precompute all
+ * weights read the model file (naiveBayesModel.bin, written by
+ * NaiveBayesModel.serialize) into this class instead.
+ */
+
+package code.runmahout;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.classifier.naivebayes.ComplementaryNaiveBayesClassifier;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.Vector.Element;
+import org.apache.mahout.math.VectorWritable;
+
+public class ModelWeights {
+	//file NaiveBayesModel.serialize writes inside the model directory
+	public static final String MODEL_FILE = "naiveBayesModel.bin";
+
+	private final float alphaI;
+	//indexed by feature, length is the length of the feature vectors
+	private final double[] featureWeights;
+	private final double[] labelWeights;
+	//not used for scoring, only kept so the model can be written back unchanged
+	private final double[] thetaNormalizers;
+	//sparse row per label--ascending feature indices and their weight sums
+	private final int[][] rowFeatures;
+	private final double[][] rowWeights;
+	//number of features with a non-zero weight sum, what NaiveBayesModel.numFeatures() returns
+	private final double numFeatures;
+	private final double totalWeightSum;
+
+	ModelWeights(float alphaI, double[] featureWeights, double[] labelWeights, double[] thetaNormalizers,
+			int[][] rowFeatures, double[][] rowWeights, double numFeatures) {
+		this.alphaI = alphaI;
+		this.featureWeights = featureWeights;
+		this.labelWeights = labelWeights;
+		this.thetaNormalizers = thetaNormalizers;
+		this.rowFeatures = rowFeatures;
+		this.rowWeights = rowWeights;
+		this.numFeatures = numFeatures;
+		double sum = 0;
+		for (double labelWeight : labelWeights) {
+			sum += labelWeight;
+		}
+		this.totalWeightSum = sum;
+	}
+
+	//reads the model NaiveBayesModel.materialize would read from modelDirectory
+	public static ModelWeights read(Path modelDirectory, Configuration conf) throws IOException {
+		FileSystem fs = modelDirectory.getFileSystem(conf);
+		DataInputStream in = fs.open(new Path(modelDirectory, MODEL_FILE));
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	//reads a model in the naiveBayesModel.bin format from in, leaving in open
+	public static ModelWeights read(DataInput in) throws IOException {
+		float alphaI = in.readFloat();
+		Vector weightsPerFeature = VectorWritable.readVector(in);
+		double[] labelWeights = toArray(VectorWritable.readVector(in));
+		double[] thetaNormalizers = toArray(VectorWritable.readVector(in));
+		int numLabels = labelWeights.length;
+		int[][] rowFeatures = new int[numLabels][];
+		double[][] rowWeights = new double[numLabels][];
+		for (int label = 0; label < numLabels; label++) {
+			Vector row = VectorWritable.readVector(in);
+			int[] features = new int[row.getNumNondefaultElements()];
+			int n = 0;
+			for (Element e : row.nonZeroes()) {
+				features[n++] = e.index();
+			}
+			features = Arrays.copyOf(features, n);
+			Arrays.sort(features);
+			double[] weights = new double[n];
+			for (int i = 0; i < n; i++) {
+				weights[i] = row.getQuick(features[i]);
+			}
+			rowFeatures[label] = features;
+			rowWeights[label] = weights;
+		}
+		return new ModelWeights(alphaI, toArray(weightsPerFeature), labelWeights, thetaNormalizers,
+				rowFeatures, rowWeights, weightsPerFeature.getNumNondefaultElements());
+	}
+
+	private static double[] toArray(Vector vector) {
+		double[] array = new double[vector.size()];
+		for (Element e : vector.nonZeroes()) {
+			array[e.index()] = e.get();
+		}
+		return array;
+	}
+
+	public int numLabels() {
+		return labelWeights.length;
+	}
+
+	//length of the feature vectors the model was trained on
+	public int vectorSize() {
+		return featureWeights.length;
+	}
+
+	//same as NaiveBayesModel.numFeatures()
+	public double numFeatures() {
+		return numFeatures;
+	}
+
+	public float alphaI() {
+		return alphaI;
+	}
+
+	public double totalWeightSum() {
+		return totalWeightSum;
+	}
+
+	public double featureWeight(int feature) {
+		return featureWeights[feature];
+	}
+
+	public double labelWeight(int label) {
+		return labelWeights[label];
+	}
+
+	double[] thetaNormalizers() {
+		return thetaNormalizers;
+	}
+
+	//ascending features label has a weight sum for
+	public int[] rowFeatures(int label) {
+		return rowFeatures[label];
+	}
+
+	//weight sums matching rowFeatures(label)
+	public double[] rowWeights(int label) {
+		return rowWeights[label];
+	}
+
+	//what ComplementaryNaiveBayesClassifier.getScoreForLabelFeature returns for label, feature
+	public double complementaryWeight(int label, int feature, double labelFeatureWeight) {
+		return ComplementaryNaiveBayesClassifier.computeWeight(featureWeights[feature], labelFeatureWeight,
+				totalWeightSum, labelWeights[label], alphaI, numFeatures);
+	}
+}
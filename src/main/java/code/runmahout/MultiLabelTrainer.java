@@ -0,0 +1,190 @@
+/* MultiLabelTrainer - Trains the Naive Bayes model from multi-label
+ * training records (one MultiLabelVectorWritable per article, written by
+ * CreateVectorMapred with multiLabel=true) instead of from one duplicated
+ * vector per profession. Every article is read once and its vector is
+ * added to the running weight sum of each of its labels; mappers keep one
+ * sum per label in memory and emit them when done, and the reducer adds
+ * up the sums of all mappers.
+ *
+ * The model is then assembled the way Mahout's TrainNaiveBayesJob does it
+ * without complementary thetas: per label, per feature weights are the
+ * label sums, per feature weights are their column sums, per label weights
+ * their row sums, and alphaI defaults to 1. It is written with
+ * NaiveBayesModel.serialize along with a Mahout label index, so the model
+ * is read exactly like one TrainNaiveBayesJob wrote, and with the model's
+ * label dictionary. Labels that no training article has are left out, and
+ * the remaining ones are numbered in profession order. Record label ids
+ * are those of the professions index (professionsPath, or professions.txt
+ * from the JAR) the records were vectorized with.
+ */
+
+package code.runmahout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.mahout.classifier.naivebayes.BayesUtils;
+import org.apache.mahout.classifier.naivebayes.NaiveBayesModel;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.MultiLabelVectorWritable;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SparseMatrix;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+import org.apache.mahout.math.function.Functions;
+
+import code.vectorcreate.LabelDictionary;
+import code.vectorcreate.ProfessionsIndex;
+
+public class MultiLabelTrainer {
+
+	//adds every article's vector to the sum of each of its labels, emits the sums when the split is done
+	public static class LabelSumMapper extends Mapper<Text, MultiLabelVectorWritable, IntWritable, VectorWritable> {
+		private final Map<Integer, Vector> labelSums = new HashMap<Integer, Vector>();
+
+		@Override
+		public void map(Text articleName, MultiLabelVectorWritable record, Context context)
+				throws IOException, InterruptedException {
+			Vector vector = record.getVector();
+			for (int label : record.getLabels()) {
+				Vector sum = labelSums.get(label);
+				if (sum == null) {
+					labelSums.put(label, new RandomAccessSparseVector(vector));
+				} else {
+					sum.assign(vector, Functions.PLUS);
+				}
+			}
+		}
+
+		@Override
+		protected void cleanup(Mapper<Text, MultiLabelVectorWritable, IntWritable, VectorWritable>.Context context)
+				throws IOException, InterruptedException {
+			IntWritable label = new IntWritable();
+			VectorWritable sum = new VectorWritable();
+			for (Map.Entry<Integer, Vector> entry : labelSums.entrySet()) {
+				label.set(entry.getKey());
+				sum.set(entry.getValue());
+				context.write(label, sum);
+			}
+			super.cleanup(context);
+		}
+	}
+
+	//adds up the sums of one label from all mappers
+	public static class LabelSumReducer extends Reducer<IntWritable, VectorWritable, IntWritable, VectorWritable> {
+		@Override
+		public void reduce(IntWritable label, Iterable<VectorWritable> sums, Context context)
+				throws IOException, InterruptedException {
+			Vector total = null;
+			for (VectorWritable sum : sums) {
+				//VectorWritable reads every vector into a new Vector, so the first one can be summed into
+				if (total == null) {
+					total = sum.get();
+				} else {
+					total.assign(sum.get(), Functions.PLUS);
+				}
+			}
+			context.write(label, new VectorWritable(total));
+		}
+	}
+
+	/* trains on the multi-label records in input (file or directory), writing the model to modelDirectory and the
+	 * label index to labelIndexPath--returns false if the job failed*/
+	public static boolean train(Configuration conf, Path input, Path modelDirectory, Path labelIndexPath,
+			Path tempDirectory) throws Exception {
+		FileSystem fs = FileSystem.get(conf);
+		Path sumsPath = new Path(tempDirectory, "labelSums");
+		fs.delete(sumsPath, true);
+
+		Job job = Job.getInstance(conf, "Sum multi-label training vectors");
+		job.setJarByClass(MultiLabelTrainer.class);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setMapperClass(LabelSumMapper.class);
+		job.setReducerClass(LabelSumReducer.class);
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(VectorWritable.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FileInputFormat.addInputPath(job, input);
+		FileOutputFormat.setOutputPath(job, sumsPath);
+		if (!job.waitForCompletion(true)) {
+			return false;
+		}
+
+		//label sums in label id order
+		TreeMap<Integer, Vector> labelSums = new TreeMap<Integer, Vector>();
+		IntWritable label = new IntWritable();
+		VectorWritable sum = new VectorWritable();
+		for (Path part : VectorPartsReader.listParts(fs, sumsPath)) {
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, conf);
+			while (reader.next(label, sum)) {
+				labelSums.put(label.get(), sum.get());
+			}
+			reader.close();
+		}
+		if (labelSums.isEmpty()) {
+			System.err.println("No training records in " + input);
+			return false;
+		}
+
+		//record label ids are ids of the professions index the records were vectorized with
+		LabelDictionary professions = ProfessionsIndex.load(conf).labels();
+		List<String> labelNames = new ArrayList<String>();
+		for (int id : labelSums.keySet()) {
+			labelNames.add(professions.name(id));
+		}
+
+		NaiveBayesModel model = writeModel(conf, labelNames, new ArrayList<Vector>(labelSums.values()),
+				modelDirectory, labelIndexPath);
+		System.out.println("Trained model with " + labelNames.size() + " labels and "
+				+ (int) model.numFeatures() + " features.");
+		return true;
+	}
+
+	/* builds the model from the weight sums of labelNames (alphaI from the configuration) and writes it to
+	 * modelDirectory, with the label index at labelIndexPath and the label dictionary in the model directory*/
+	static NaiveBayesModel writeModel(Configuration conf, List<String> labelNames, List<Vector> labelSums,
+			Path modelDirectory, Path labelIndexPath) throws IOException {
+		NaiveBayesModel model = buildModel(labelSums, conf.getFloat("alphaI", 1.0f));
+		model.serialize(modelDirectory, conf);
+		BayesUtils.writeLabelIndex(conf, labelNames, labelIndexPath);
+		//save the label dictionary with the model
+		new LabelDictionary(labelNames).write(modelDirectory.getFileSystem(conf),
+				new Path(modelDirectory, LabelDictionary.FILE));
+		return model;
+	}
+
+	//the model TrainNaiveBayesJob builds from these per label weight sums (no complementary thetas)
+	static NaiveBayesModel buildModel(List<Vector> labelSums, float alphaI) {
+		int numLabels = labelSums.size();
+		int numFeatures = labelSums.get(0).size();
+		Matrix weightsPerLabelAndFeature = new SparseMatrix(numLabels, numFeatures);
+		Vector weightsPerFeature = new RandomAccessSparseVector(numFeatures);
+		Vector weightsPerLabel = new DenseVector(numLabels);
+		for (int label = 0; label < numLabels; label++) {
+			Vector row = labelSums.get(label);
+			weightsPerLabelAndFeature.assignRow(label, row);
+			weightsPerFeature.assign(row, Functions.PLUS);
+			weightsPerLabel.set(label, row.zSum());
+		}
+		return new NaiveBayesModel(weightsPerLabelAndFeature, weightsPerFeature, weightsPerLabel,
+				weightsPerLabel.like(), alphaI);
+	}
+}
@@ -0,0 +1,258 @@
+/* PipelinedEvaluator - Multi-threaded version of the TrainTestNBayes
+ * evaluation loop. A reader thread decodes test vectors from the
+ * SequenceFile parts, a pool of scoring workers scores them against the
+ * shared (read-only) scorer, each worker with its own scoring buffer, and
+ * the calling thread writes predictions in the order the vectors were
+ * read, so prediction-results.txt comes out exactly as the serial loop
+ * writes it. Bounded queues between the stages keep a fast reader from
+ * running ahead of the workers (and the workers from running ahead of the
+ * writer), and the reader takes a permit of a window of queueCapacity
+ * records that the writer gives back as it writes, so a stalled worker
+ * cannot let the others pile up records the writer has to hold back--at
+ * most queueCapacity records are in flight. Every worker counts its own
+ * correct predictions and keeps its own metrics (EvaluationMetrics) and
+ * stage timings (EvaluationStats); all are merged at the end.
+ */
+
+package code.runmahout;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.hadoop.io.Text;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+import code.vectorcreate.LabelDictionary;
+
+public class PipelinedEvaluator {
+	private final TopKScorer scorer;
+	private final LabelDictionary labels;
+	//labels predicted per article
+	private final int topK;
+	private final int numWorkers;
+	private final int queueCapacity;
+
+	//first failure of any stage--the other stages stop early once it is set
+	private volatile Throwable failure;
+
+	//test vector read from the SequenceFile, numbered in read order
+	private static class TestRecord {
+		final long sequence;
+		final String key;
+		final Vector vector;
+
+		TestRecord(long sequence, String key, Vector vector) {
+			this.sequence = sequence;
+			this.key = key;
+			this.vector = vector;
+		}
+	}
+
+	//prediction line ready to be written--a record with a null entry marks a finished worker
+	private static class ScoredRecord {
+		final long sequence;
+		final String entry;
+		final boolean correctPrediction;
+		final EvaluationCounts workerCounts;
+		final EvaluationStats workerStats;
+		final EvaluationMetrics workerMetrics;
+
+		ScoredRecord(long sequence, String entry, boolean correctPrediction) {
+			this.sequence = sequence;
+			this.entry = entry;
+			this.correctPrediction = correctPrediction;
+			this.workerCounts = null;
+			this.workerStats = null;
+			this.workerMetrics = null;
+		}
+
+		ScoredRecord(EvaluationCounts workerCounts, EvaluationStats workerStats, EvaluationMetrics workerMetrics) {
+			this.sequence = -1;
+			this.entry = null;
+			this.correctPrediction = false;
+			this.workerCounts = workerCounts;
+			this.workerStats = workerStats;
+			this.workerMetrics = workerMetrics;
+		}
+	}
+
+	//tells a worker there is nothing left to read
+	private static final TestRecord END_OF_INPUT = new TestRecord(-1, null, null);
+
+	public PipelinedEvaluator(TopKScorer scorer, LabelDictionary labels, int topK,
+			int numWorkers, int queueCapacity) {
+		this.scorer = scorer;
+		this.labels = labels;
+		this.topK = topK;
+		this.numWorkers = numWorkers;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/* scores every vector in reader and writes predictions to writer--returns merged counts of all workers.
+	 * Metrics of every worker are merged into metrics, and stage timings of every thread into stats, which
+	 * also prints progress*/
+	public EvaluationCounts run(final VectorPartsReader reader, PrintWriter writer, EvaluationStats stats,
+			EvaluationMetrics metrics) throws IOException, InterruptedException {
+		final EvaluationStats readerStats = new EvaluationStats(0);
+		final BlockingQueue<TestRecord> testRecords = new ArrayBlockingQueue<TestRecord>(queueCapacity);
+		final BlockingQueue<ScoredRecord> scoredRecords = new ArrayBlockingQueue<ScoredRecord>(queueCapacity);
+		//records read but not yet written, or dropped after a failure
+		final Semaphore window = new Semaphore(queueCapacity);
+
+		Thread readerThread = new Thread(new Runnable() {
+			public void run() {
+				readStage(reader, testRecords, window, readerStats);
+			}
+		}, "evaluator-reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < numWorkers; i++) {
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					scoreStage(testRecords, scoredRecords, window);
+				}
+			}, "evaluator-worker-" + i);
+			worker.setDaemon(true);
+			worker.start();
+			workers.add(worker);
+		}
+
+		EvaluationCounts counts = writeStage(scoredRecords, window, writer, stats, metrics);
+
+		readerThread.join();
+		stats.merge(readerStats);
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (failure != null) {
+			throw new IOException("Pipelined evaluation failed", failure);
+		}
+		return counts;
+	}
+
+	/* decodes test vectors and hands them to the workers, each once the window has room for it, then tells every
+	 * worker to stop*/
+	private void readStage(VectorPartsReader reader, BlockingQueue<TestRecord> testRecords, Semaphore window,
+			EvaluationStats readerStats) {
+		Text keyText = new Text();
+		VectorWritable valueVecWritable = new VectorWritable();
+		long sequence = 0;
+		try {
+			try {
+				//VectorWritable reads every vector into a new Vector, so the vector can be handed off as is
+				window.acquire();
+				long start = System.nanoTime();
+				while (failure == null && reader.next(keyText, valueVecWritable)) {
+					readerStats.recordDecode(System.nanoTime() - start);
+					testRecords.put(new TestRecord(sequence++, keyText.toString(), valueVecWritable.get()));
+					window.acquire();
+					start = System.nanoTime();
+				}
+			} catch (IOException ioe) {
+				fail(ioe);
+			} finally {
+				for (int i = 0; i < numWorkers; i++) {
+					testRecords.put(END_OF_INPUT);
+				}
+			}
+		} catch (InterruptedException ie) {
+			fail(ie);
+		}
+	}
+
+	/* scores test vectors until told to stop, counting its own correct predictions and metrics and timing
+	 * classify and rank. Records dropped after a failure go back to the window*/
+	private void scoreStage(BlockingQueue<TestRecord> testRecords, BlockingQueue<ScoredRecord> scoredRecords,
+			Semaphore window) {
+		EvaluationCounts workerCounts = new EvaluationCounts();
+		EvaluationStats workerStats = new EvaluationStats(0);
+		EvaluationMetrics workerMetrics = new EvaluationMetrics(labels.size(), topK);
+		ScoringBuffer buffer = scorer.newBuffer(topK);
+		buffer.setTimed(true);
+		try {
+			try {
+				TestRecord record;
+				while ((record = testRecords.take()) != END_OF_INPUT) {
+					if (failure != null) {
+						window.release();
+						continue; //drain so the reader is never left blocked
+					}
+					String[] articleAndProffInfo = record.key.split(":::");
+					long start = System.nanoTime();
+					scorer.score(record.vector, buffer);
+					workerStats.recordScore(start, buffer, System.nanoTime());
+					int[] actualLabels = labels.ids(articleAndProffInfo[1].split(","));
+					boolean correctPrediction = TrainTestNBayes.isCorrectPrediction(actualLabels, buffer);
+					workerCounts.add(correctPrediction);
+					workerMetrics.add(actualLabels, buffer);
+					scoredRecords.put(new ScoredRecord(record.sequence,
+							TrainTestNBayes.predictionEntry(articleAndProffInfo[0], buffer, labels), correctPrediction));
+				}
+			} catch (RuntimeException re) {
+				fail(re);
+				//this record is never written, so neither are the records after it--open the window all the way
+				//so the reader cannot wait on it
+				window.release(queueCapacity);
+				//keep taking until this worker's end marker so the reader can finish
+				while (testRecords.take() != END_OF_INPUT) {
+				}
+			} finally {
+				scoredRecords.put(new ScoredRecord(workerCounts, workerStats, workerMetrics));
+			}
+		} catch (InterruptedException ie) {
+			fail(ie);
+		}
+	}
+
+	/* writes predictions in read order until every worker has finished, giving every written record back to the
+	 * window--returns merged worker counts*/
+	private EvaluationCounts writeStage(BlockingQueue<ScoredRecord> scoredRecords, Semaphore window,
+			PrintWriter writer, EvaluationStats stats, EvaluationMetrics metrics) throws InterruptedException {
+		EvaluationCounts mergedCounts = new EvaluationCounts();
+		//running counts in write order, only used for progress printing
+		EvaluationCounts progressCounts = new EvaluationCounts();
+		//records that finished ahead of an earlier record--fewer than the window
+		Map<Long, ScoredRecord> pending = new HashMap<Long, ScoredRecord>();
+		long nextSequence = 0;
+		int finishedWorkers = 0;
+
+		while (finishedWorkers < numWorkers) {
+			ScoredRecord scored = scoredRecords.take();
+			if (scored.entry == null) {
+				mergedCounts.merge(scored.workerCounts);
+				stats.merge(scored.workerStats);
+				metrics.merge(scored.workerMetrics);
+				finishedWorkers++;
+				continue;
+			}
+			pending.put(scored.sequence, scored);
+			ScoredRecord next;
+			while ((next = pending.remove(nextSequence)) != null) {
+				long start = System.nanoTime();
+				writer.println(next.entry);
+				stats.recordWrite(System.nanoTime() - start);
+				progressCounts.add(next.correctPrediction);
+				stats.printProgress(progressCounts);
+				nextSequence++;
+				window.release();
+			}
+		}
+		return mergedCounts;
+	}
+
+	private void fail(Throwable t) {
+		if (failure == null) {
+			failure = t;
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/* PrunedTopKScorer - Exact top-k complementary Naive Bayes scoring that
+ * only scores the labels that can still make the top k. The CNB weight of
+ * a label and feature splits (see CompactModel) into a per feature term, a
+ * per label term and a correction that is only non-zero where the label
+ * has a weight sum for the feature--and that is never negative. A label's
+ * score is therefore
+ *   sum of value * per feature term, the same for every label
+ *   + sum of values * its label term
+ *   + sum of value * its correction, over the vector's features.
+ * Labels are grouped into small blocks (labels of similar label terms side
+ * by side), and an inverted index keeps, per feature, the largest
+ * correction of every block, feature-major like the kernel's weights. For
+ * a vector, one pass over the index rows of its features bounds the score
+ * of every block; blocks are then scored label by label, highest bound
+ * first, until the k-th best score is above the bound of the next block,
+ * as block-max WAND skips blocks of documents whose best possible score
+ * cannot make the top k. The bound is loose where corrections are spread
+ * over many labels and tight where a few labels own an article's
+ * features--there, adding labels adds index rows to bound but hardly any
+ * labels to score. Smaller blocks bound tighter but make the bounding pass
+ * longer; larger taxonomies favour larger blocks.
+ *
+ * Blocks are scored from the kernel's double weights, stored with labels
+ * in block order so a block's weights for a feature sit side by side, and
+ * every label's score is summed in the kernel's order. Bounds are computed
+ * in double with a margin that covers their rounding and that of the float
+ * block corrections. The k best labels, their order and their scores are
+ * therefore those of ComplementaryScoringKernel, to the bit. Vectors with
+ * negative values break the bounds and have every label scored.
+ */
+
+package code.runmahout;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.Vector.Element;
+
+public class PrunedTopKScorer implements TopKScorer {
+	//labels per block when not given
+	public static final int DEFAULT_BLOCK_SIZE = 4;
+	//relative error allowed for on every weight and correction--float rounding of a correction alone is 2^-24
+	private static final double ROUNDING = Math.scalb(1.0, -19);
+
+	private final int numLabels;
+	private final int numFeatures;
+	private final int numBlocks;
+	private final int blockSize;
+	//labels by descending label term log(totalWeightSum - labelWeight + alphaI * numFeatures)--block b is
+	//positions b * blockSize to (b + 1) * blockSize
+	private final int[] labelsByTerm;
+	//the kernel's weights, with labels in that order: weights[feature * numLabels + position]
+	private final double[] weights;
+	//largest label term of each block, less the smallest label term of all
+	private final double[] blockLabelTerms;
+	private final double smallestLabelTerm;
+	//per feature term -log(featureWeight + alphaI), and bound on the absolute value of the feature's weights
+	private final double[] featureTerms;
+	private final double[] weightBounds;
+	//largest correction of each block for each feature: blockCorrections[feature * numBlocks + block]
+	private final float[] blockCorrections;
+	//false if a weight is not finite or a correction is negative--every label is then scored
+	private final boolean bounded;
+
+	//per thread scratch space
+	public static class Buffer extends ScoringBuffer {
+		//the vector's features below numFeatures and their values, in the vector's order
+		private int[] features = new int[256];
+		private double[] values = new double[256];
+		private int length;
+		//bound of each block, and blocks sorted by bound (bound bits above, block below)
+		private final double[] bounds;
+		private final long[] order;
+		private int labelsScored;
+
+		Buffer(int numLabels, int numBlocks, int k) {
+			super(numLabels, k);
+			bounds = new double[numBlocks];
+			order = new long[numBlocks];
+		}
+
+		//number of labels the last vector was scored for
+		public int labelsScored() {
+			return labelsScored;
+		}
+
+		private void add(int feature, double value) {
+			if (length == features.length) {
+				features = Arrays.copyOf(features, 2 * length);
+				values = Arrays.copyOf(values, 2 * length);
+			}
+			features[length] = feature;
+			values[length++] = value;
+		}
+	}
+
+	public PrunedTopKScorer(ModelWeights model) {
+		this(model, DEFAULT_BLOCK_SIZE);
+	}
+
+	public PrunedTopKScorer(ModelWeights model, int blockSize) {
+		numLabels = model.numLabels();
+		numFeatures = model.vectorSize();
+		if ((long) numLabels * numFeatures > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Model too large for a flat weight matrix: " + numLabels
+					+ " labels x " + numFeatures + " features");
+		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be at least 1: " + blockSize);
+		}
+		this.blockSize = blockSize;
+		boolean finite = true;
+
+		//blocks of labels by descending label term
+		final double[] labelTerms = new double[numLabels];
+		double maxLabelTerm = 0;
+		Integer[] byTerm = new Integer[numLabels];
+		for (int label = 0; label < numLabels; label++) {
+			labelTerms[label] = Math.log(model.totalWeightSum() - model.labelWeight(label)
+					+ model.alphaI() * model.numFeatures());
+			finite &= !Double.isNaN(labelTerms[label]) && !Double.isInfinite(labelTerms[label]);
+			maxLabelTerm = Math.max(maxLabelTerm, Math.abs(labelTerms[label]));
+			byTerm[label] = label;
+		}
+		Arrays.sort(byTerm, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(labelTerms[b], labelTerms[a]);
+			}
+		});
+		labelsByTerm = new int[numLabels];
+		for (int i = 0; i < numLabels; i++) {
+			labelsByTerm[i] = byTerm[i];
+		}
+		int[] positions = new int[numLabels];
+		for (int position = 0; position < numLabels; position++) {
+			positions[labelsByTerm[position]] = position;
+		}
+		numBlocks = (numLabels + blockSize - 1) / blockSize;
+		blockLabelTerms = new double[numBlocks];
+		smallestLabelTerm = numLabels == 0 ? 0 : labelTerms[labelsByTerm[numLabels - 1]];
+		for (int block = 0; block < numBlocks; block++) {
+			blockLabelTerms[block] = labelTerms[labelsByTerm[block * blockSize]] - smallestLabelTerm;
+		}
+
+		//the kernel's weights--features a label never saw have a label feature weight of 0
+		weights = new double[numLabels * numFeatures];
+		for (int feature = 0; feature < numFeatures; feature++) {
+			for (int label = 0; label < numLabels; label++) {
+				weights[feature * numLabels + positions[label]] = model.complementaryWeight(label, feature, 0.0);
+			}
+		}
+		for (int label = 0; label < numLabels; label++) {
+			int[] features = model.rowFeatures(label);
+			double[] labelFeatureWeights = model.rowWeights(label);
+			for (int i = 0; i < features.length; i++) {
+				weights[features[i] * numLabels + positions[label]] =
+						model.complementaryWeight(label, features[i], labelFeatureWeights[i]);
+			}
+		}
+
+		//block maxima of the corrections
+		if ((long) numBlocks * numFeatures > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many blocks for a block index: " + numBlocks + " blocks x "
+					+ numFeatures + " features");
+		}
+		blockCorrections = new float[numBlocks * numFeatures];
+		for (int label = 0; label < numLabels; label++) {
+			int[] features = model.rowFeatures(label);
+			double[] labelFeatureWeights = model.rowWeights(label);
+			for (int i = 0; i < features.length; i++) {
+				double correction = model.complementaryWeight(label, features[i], labelFeatureWeights[i])
+						- model.complementaryWeight(label, features[i], 0.0);
+				finite &= correction >= 0 && !Double.isInfinite(correction);
+				int cell = features[i] * numBlocks + positions[label] / blockSize;
+				//rounded up, so the float bounds the correction
+				float bound = (float) correction < correction ? Math.nextUp((float) correction) : (float) correction;
+				blockCorrections[cell] = Math.max(blockCorrections[cell], bound);
+			}
+		}
+		featureTerms = new double[numFeatures];
+		weightBounds = new double[numFeatures];
+		for (int feature = 0; feature < numFeatures; feature++) {
+			float maxCorrection = 0;
+			for (int block = 0; block < numBlocks; block++) {
+				maxCorrection = Math.max(maxCorrection, blockCorrections[feature * numBlocks + block]);
+			}
+			featureTerms[feature] = -Math.log(model.featureWeight(feature) + model.alphaI());
+			weightBounds[feature] = Math.abs(featureTerms[feature]) + maxLabelTerm + maxCorrection;
+			finite &= !Double.isNaN(weightBounds[feature]) && !Double.isInfinite(weightBounds[feature]);
+		}
+		bounded = finite;
+	}
+
+	public int numLabels() {
+		return numLabels;
+	}
+
+	public ScoringBuffer newBuffer(int k) {
+		return new Buffer(numLabels, numBlocks, k);
+	}
+
+	public void score(Vector instance, ScoringBuffer scoringBuffer) {
+		Buffer buffer = (Buffer) scoringBuffer;
+		//only the accumulators of scored labels are used, and zeroing all of them would cost a pass over every label
+		buffer.reset();
+		buffer.length = 0;
+		buffer.labelsScored = 0;
+		boolean prunable = bounded;
+		Iterator<Element> nonZeroes = instance.nonZeroes().iterator();
+		while (nonZeroes.hasNext()) {
+			Element e = nonZeroes.next();
+			int feature = e.index();
+			if (feature >= numFeatures) {
+				continue;
+			}
+			double value = e.get();
+			prunable &= value >= 0 && !Double.isInfinite(value);
+			buffer.add(feature, value);
+		}
+		if (!prunable) {
+			for (int block = 0; block < numBlocks; block++) {
+				scoreBlock(buffer, block, false);
+			}
+			buffer.startRanking();
+			buffer.offerAllScores();
+			buffer.finish();
+			return;
+		}
+		int length = buffer.length;
+		int[] features = buffer.features;
+		double[] values = buffer.values;
+		double[] bounds = buffer.bounds;
+		long[] order = buffer.order;
+
+		//a label of block b scores at most base + bounds[b]
+		double valueSum = 0;
+		double base = 0;
+		double margin = 0;
+		for (int i = 0; i < length; i++) {
+			valueSum += values[i];
+			base += values[i] * featureTerms[features[i]];
+			margin += values[i] * weightBounds[features[i]];
+		}
+		base += valueSum * smallestLabelTerm;
+		margin *= ROUNDING;
+		for (int block = 0; block < numBlocks; block++) {
+			bounds[block] = valueSum * blockLabelTerms[block];
+		}
+		for (int i = 0; i < length; i++) {
+			accumulate(bounds, blockCorrections, features[i] * numBlocks, values[i], numBlocks);
+		}
+		//bounds are not negative, so their bits sort like their values
+		for (int block = 0; block < numBlocks; block++) {
+			order[block] = (Double.doubleToLongBits(bounds[block]) & ~0xFFFFFFFFL) | block;
+		}
+		Arrays.sort(order);
+
+		//blocks by descending bound
+		for (int i = numBlocks - 1; i >= 0; i--) {
+			int block = (int) order[i];
+			//sort keys drop low bits of the bounds, so a block further down may bound a little higher
+			if (buffer.threshold() > base + bounds[block] + margin
+					&& buffer.threshold() > base + largestBound(bounds, order, i) + margin) {
+				break;
+			}
+			scoreBlock(buffer, block, true);
+		}
+		buffer.startRanking();
+		buffer.finish();
+	}
+
+	//largest bound of the blocks order[0] to order[last]
+	private static double largestBound(double[] bounds, long[] order, int last) {
+		double largest = 0;
+		for (int i = 0; i <= last; i++) {
+			largest = Math.max(largest, bounds[(int) order[i]]);
+		}
+		return largest;
+	}
+
+	//bounds[block] += value * blockCorrections[offset + block] for every block
+	private static void accumulate(double[] bounds, float[] blockCorrections, int offset, double value,
+			int numBlocks) {
+		for (int block = 0; block < numBlocks; block++) {
+			bounds[block] += value * blockCorrections[offset + block];
+		}
+	}
+
+	/* scores the labels of block the way ComplementaryScoringKernel does, into the buffer's accumulators, and
+	 * offers them to the buffer if offer*/
+	private void scoreBlock(Buffer buffer, int block, boolean offer) {
+		int from = block * blockSize;
+		int to = Math.min(numLabels, from + blockSize);
+		double[] scores = buffer.scores;
+		for (int position = from; position < to; position++) {
+			scores[labelsByTerm[position]] = 0;
+		}
+		for (int i = 0; i < buffer.length; i++) {
+			int offset = buffer.features[i] * numLabels;
+			double value = buffer.values[i];
+			for (int position = from; position < to; position++) {
+				scores[labelsByTerm[position]] += value * weights[offset + position];
+			}
+		}
+		buffer.labelsScored += to - from;
+		for (int position = from; offer && position < to; position++) {
+			buffer.offer(labelsByTerm[position], scores[labelsByTerm[position]]);
+		}
+	}
+}
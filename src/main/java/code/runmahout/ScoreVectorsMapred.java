@@ -0,0 +1,256 @@
+/* ScoreVectorsMapred - Runs a map-only mapreduce job that classifies test
+ * vectors across the cluster instead of on one machine. Input is the
+ * SequenceFile of test vectors written by CreateVectorMapred (test run),
+ * or its block files (-D vectorFormat=blocks, read through
+ * VectorBlockInputFormat), with no local copy needed; the trained model
+ * file is shipped to every task through the distributed cache, or a
+ * CompactModel file, which tasks memory-map. Each mapper scores its split
+ * with the precomputed CNB weight kernel (or PrunedTopKScorer, or the
+ * compact model) and writes one prediction line per article, in the same
+ * format TrainTestNBayes writes prediction-results.txt. Correct and total
+ * predictions are counted in job counters, from which the driver reports
+ * accuracy the way TrainTestNBayes does. Every task also fills its own
+ * EvaluationMetrics and saves them next to its output part (metrics-m-*);
+ * the driver merges them into <out>/prediction-metrics.json.
+ */
+
+package code.runmahout;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.mahout.math.VectorWritable;
+
+import code.vectorcreate.LabelDictionary;
+import code.vectorcreate.VectorBlockInputFormat;
+import code.vectorcreate.VectorBlockReader;
+
+public class ScoreVectorsMapred {
+	//name the model file is linked under in each task's working directory
+	private static final String MODEL_CACHE_NAME = "pa3-model.bin";
+	//name a compact model file is linked under instead
+	private static final String COMPACT_MODEL_CACHE_NAME = "pa3-compact-model.bin";
+
+	public static enum ScoreVectorsCounter { CORRECT, TOTAL }
+	//prefix of the metrics file of every task
+	private static final String METRICS_PREFIX = "metrics";
+
+	public static class ScoreVectorsMapper extends Mapper<Text, VectorWritable, Text, NullWritable> {
+		private TopKScorer scorer;
+		private ScoringBuffer buffer;
+		//label ids of the model's professions
+		private LabelDictionary labels;
+		//output object, reused across records
+		private final Text predictionText = new Text();
+		//metrics of this task's split
+		private EvaluationMetrics metrics;
+
+		//loads the model shipped through the distributed cache and builds the scoring kernel
+		@Override
+		protected void setup(Mapper<Text, VectorWritable, Text, NullWritable>.Context context)
+				throws IOException, InterruptedException {
+			super.setup(context);
+			Configuration conf = context.getConfiguration();
+			if (conf.get("compactModelPath") != null) {
+				//memory-mapped, and carries its own label dictionary
+				CompactModel compactModel = CompactModel.map(new File(COMPACT_MODEL_CACHE_NAME));
+				scorer = compactModel;
+				labels = compactModel.labels();
+				buffer = scorer.newBuffer(conf.getInt("topK", 3));
+				metrics = new EvaluationMetrics(labels.size(), buffer.capacity());
+				return;
+			}
+			labels = new LabelDictionary(Arrays.asList(conf.getStrings("modelLabels")));
+
+			//the distributed cache links the file into the task's working directory
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(MODEL_CACHE_NAME)));
+			ModelWeights modelWeights;
+			try {
+				modelWeights = ModelWeights.read(in);
+			} finally {
+				in.close();
+			}
+			if (modelWeights.numLabels() != labels.size()) {
+				throw new IOException("Model has " + modelWeights.numLabels() + " labels but its dictionary has "
+						+ labels.size());
+			}
+			if (conf.get("scorer", "kernel").equals("pruned")) {
+				scorer = new PrunedTopKScorer(modelWeights,
+						conf.getInt("prunedBlockSize", PrunedTopKScorer.DEFAULT_BLOCK_SIZE));
+			} else {
+				scorer = new ComplementaryScoringKernel(modelWeights);
+			}
+			buffer = scorer.newBuffer(conf.getInt("topK", 3));
+			metrics = new EvaluationMetrics(labels.size(), buffer.capacity());
+		}
+
+		/* map function--takes 'articleName:::profession1,profession2...' key and test vector, and outputs
+		 * the article's prediction line. Counts correct (an actual profession among the top k) and total
+		 * predictions*/
+		@Override
+		public void map(Text key, VectorWritable value, Context context)
+				throws IOException, InterruptedException {
+			String[] articleAndProffInfo = key.toString().split(":::");
+			scorer.score(value.get(), buffer);
+			int[] actualLabels = labels.ids(articleAndProffInfo[1].split(","));
+			if (TrainTestNBayes.isCorrectPrediction(actualLabels, buffer)) {
+				context.getCounter(ScoreVectorsCounter.CORRECT).increment(1);
+			}
+			metrics.add(actualLabels, buffer);
+			context.getCounter(ScoreVectorsCounter.TOTAL).increment(1);
+			predictionText.set(TrainTestNBayes.predictionEntry(articleAndProffInfo[0], buffer, labels));
+			context.write(predictionText, NullWritable.get());
+		}
+
+		//saves the task's metrics in its work output directory, committed along with its output part
+		@Override
+		protected void cleanup(Mapper<Text, VectorWritable, Text, NullWritable>.Context context)
+				throws IOException, InterruptedException {
+			Path metricsPath = new Path(FileOutputFormat.getWorkOutputPath(context),
+					FileOutputFormat.getUniqueFile(context, METRICS_PREFIX, ""));
+			FSDataOutputStream out = metricsPath.getFileSystem(context.getConfiguration()).create(metricsPath, false);
+			try {
+				metrics.write(out);
+			} finally {
+				out.close();
+			}
+			super.cleanup(context);
+		}
+	}
+
+	//merges the metrics every task saved in dir--null if there are none
+	public static EvaluationMetrics readMetrics(FileSystem fs, Path dir) throws IOException {
+		EvaluationMetrics merged = null;
+		for (FileStatus status : fs.listStatus(dir)) {
+			if (!status.getPath().getName().startsWith(METRICS_PREFIX + "-")) {
+				continue;
+			}
+			EvaluationMetrics taskMetrics = new EvaluationMetrics();
+			FSDataInputStream in = fs.open(status.getPath());
+			try {
+				taskMetrics.readFields(in);
+			} finally {
+				in.close();
+			}
+			if (merged == null) {
+				merged = taskMetrics;
+			} else {
+				merged.merge(taskMetrics);
+			}
+		}
+		return merged;
+	}
+
+	//true if the vectors under path are block files--a directory of CreateVectorMapred output holds one format
+	private static boolean isBlockInput(FileSystem fs, Path path) throws IOException {
+		for (Path part : VectorPartsReader.listParts(fs, path)) {
+			if (VectorBlockReader.isBlockFile(part)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//controls mapreduce job
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		/* optional parameters (-D name=value):
+		 * modelPath = DIRECTORY OF THE TRAINED MODEL (DEFAULT TrainTestNBayes.MODEL_DIRECTORY)
+		 * labelIndexPath = LABEL INDEX WRITTEN BY TRAINING, FOR MODELS SAVED WITHOUT A LABEL DICTIONARY (DEFAULT TrainTestNBayes.LABEL_INDEX_PATH)
+		 * topK = NUMBER OF PROFESSIONS PREDICTED PER ARTICLE (DEFAULT 3)
+		 * compactModelPath = IF SET, SCORE WITH THIS COMPACT MODEL FILE (WRITTEN BY CompactModel) INSTEAD OF modelPath
+		 * scorer = 'kernel' (DEFAULT) OR 'pruned' TO SCORE modelPath WITH PrunedTopKScorer (SAME PREDICTIONS)
+		 * prunedBlockSize = LABELS PER BLOCK OF THE pruned SCORER (DEFAULT PrunedTopKScorer.DEFAULT_BLOCK_SIZE)
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 2){
+			System.err.println("Usage: score-vectors-mapred <test vectors> <out>");
+			System.exit(2);
+		}
+		FileSystem fs = FileSystem.get(conf);
+		Path modelPath = fs.makeQualified(new Path(conf.get("modelPath", TrainTestNBayes.MODEL_DIRECTORY)));
+		Path labelIndexPath = fs.makeQualified(new Path(conf.get("labelIndexPath", TrainTestNBayes.LABEL_INDEX_PATH)));
+
+		Path compactModelPath = conf.get("compactModelPath") == null ? null
+				: fs.makeQualified(new Path(conf.get("compactModelPath")));
+		if (compactModelPath == null) {
+			//label dictionary is read once here and handed to every task through the configuration
+			LabelDictionary labels = TrainTestNBayes.readLabels(fs, modelPath, labelIndexPath, conf);
+			conf.setStrings("modelLabels", labels.names().toArray(new String[labels.size()]));
+			System.out.println("Label Dictionary Size: " + labels.size());
+		}
+
+		Job job = Job.getInstance(conf, "Score Mahout test vectors");
+		job.setJarByClass(ScoreVectorsMapred.class);
+		job.setMapperClass(ScoreVectorsMapper.class);
+		//map-only--every split is scored independently
+		job.setNumReduceTasks(0);
+		//block files or SequenceFiles, as CreateVectorMapred wrote them
+		if (isBlockInput(fs, new Path(otherArgs[0]))) {
+			job.setInputFormatClass(VectorBlockInputFormat.class);
+		} else {
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+		}
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(NullWritable.class);
+		job.setOutputFormatClass(TextOutputFormat.class);
+		//ship model file to every task, linked into its working directory
+		if (compactModelPath != null) {
+			job.addCacheFile(new URI(compactModelPath.toUri().toString() + "#" + COMPACT_MODEL_CACHE_NAME));
+		} else {
+			URI modelUri = new Path(modelPath, ModelWeights.MODEL_FILE).toUri();
+			job.addCacheFile(new URI(modelUri.toString() + "#" + MODEL_CACHE_NAME));
+		}
+		FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
+		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
+		boolean finishedOK = job.waitForCompletion(true);
+
+		if (finishedOK) {
+			Counters counters = job.getCounters();
+			EvaluationCounts counts = new EvaluationCounts(
+					(int) counters.findCounter(ScoreVectorsCounter.CORRECT).getValue(),
+					(int) counters.findCounter(ScoreVectorsCounter.TOTAL).getValue());
+			System.out.println("Scored " + counts.getTotalPredictions() + " test vectors.");
+			System.out.print("Percent correct predictions : ");
+			System.out.printf("%.2f%%\n", counts.getAccuracy());
+
+			EvaluationMetrics metrics = readMetrics(fs, new Path(otherArgs[1]));
+			if (metrics != null) {
+				LabelDictionary labels = compactModelPath != null ? CompactModel.open(compactModelPath, conf).labels()
+						: new LabelDictionary(Arrays.asList(conf.getStrings("modelLabels")));
+				metrics.report(System.out);
+				Path metricsPath = new Path(otherArgs[1], TrainTestNBayes.METRICS_FILE);
+				PrintWriter metricsWriter = new PrintWriter(new OutputStreamWriter(fs.create(metricsPath, true),
+						StandardCharsets.UTF_8));
+				metrics.writeJson(metricsWriter, labels);
+				metricsWriter.close();
+				System.out.println("Wrote metrics to " + metricsPath);
+			}
+		}
+		System.exit( finishedOK? 0 : 1);
+	}
+}
@@ -0,0 +1,162 @@
+/* ScoringBuffer - Reusable per-thread scratch space for scoring one vector:
+ * a primitive score per label plus a fixed-size heap that keeps the k best
+ * labels. Labels rank by descending score, and equal scores rank by
+ * ascending label index, which is the order the old sort over
+ * PredictionIndexPair objects produced.
+ */
+
+package code.runmahout;
+
+import java.util.Arrays;
+
+public class ScoringBuffer {
+	//one accumulator per label, for scorers that score every label
+	final double[] scores;
+	//best labels found so far--a min-heap (worst on top) until finish() sorts it best first
+	private final int[] topLabels;
+	private final double[] topScores;
+	private int size;
+	//set by setTimed()--the clock is only read for buffers whose stages are being timed
+	private boolean timed;
+	private long rankingStartNanos;
+
+	public ScoringBuffer(int numLabels, int k) {
+		this.scores = new double[numLabels];
+		this.topLabels = new int[Math.min(k, numLabels)];
+		this.topScores = new double[topLabels.length];
+	}
+
+	//forgets previous vector's results--score accumulators are zeroed too
+	public void clear() {
+		Arrays.fill(scores, 0.0);
+		size = 0;
+	}
+
+	//forgets previous vector's results but leaves the score accumulators as they are, for scorers that do not use them
+	public void reset() {
+		size = 0;
+	}
+
+	//number of labels kept, k (or fewer if there are fewer labels)
+	public int capacity() {
+		return topLabels.length;
+	}
+
+	//number of labels kept so far
+	public int size() {
+		return size;
+	}
+
+	//label at rank i, 0 being the best--only valid after finish()
+	public int label(int rank) {
+		return topLabels[rank];
+	}
+
+	//score at rank i, 0 being the best--only valid after finish()
+	public double score(int rank) {
+		return topScores[rank];
+	}
+
+	//score the heap's worst label has, or negative infinity while the heap is not yet full
+	public double threshold() {
+		return size < topLabels.length ? Double.NEGATIVE_INFINITY : topScores[0];
+	}
+
+	//times scoring and ranking of every vector scored into this buffer (see EvaluationStats)
+	public void setTimed(boolean timed) {
+		this.timed = timed;
+	}
+
+	//called by scorers between computing label scores and selecting the top k
+	public void startRanking() {
+		if (timed) {
+			rankingStartNanos = System.nanoTime();
+		}
+	}
+
+	//System.nanoTime() when ranking of the last vector started--only set if the buffer is timed
+	public long rankingStartNanos() {
+		return rankingStartNanos;
+	}
+
+	//offers label with score to the top k
+	public void offer(int label, double score) {
+		if (size < topLabels.length) {
+			topLabels[size] = label;
+			topScores[size] = score;
+			siftUp(size++);
+		} else if (topLabels.length > 0 && ranksBefore(label, score, topLabels[0], topScores[0])) {
+			topLabels[0] = label;
+			topScores[0] = score;
+			siftDown(0);
+		}
+	}
+
+	//offers every label's accumulated score to the top k
+	public void offerAllScores() {
+		for (int label = 0; label < scores.length; label++) {
+			offer(label, scores[label]);
+		}
+	}
+
+	//sorts kept labels best first
+	public void finish() {
+		//heap sort in place: repeatedly move the worst label to the end of the shrinking heap
+		int heapSize = size;
+		while (heapSize > 1) {
+			heapSize--;
+			swap(0, heapSize);
+			siftDown(0, heapSize);
+		}
+	}
+
+	//true if label a with score a ranks ahead of label b with score b
+	static boolean ranksBefore(int labelA, double scoreA, int labelB, double scoreB) {
+		return scoreA > scoreB || (scoreA == scoreB && labelA < labelB);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			//worse labels float to the top of the heap
+			if (ranksBefore(topLabels[parent], topScores[parent], topLabels[i], topScores[i])) {
+				swap(i, parent);
+				i = parent;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void siftDown(int i) {
+		siftDown(i, size);
+	}
+
+	private void siftDown(int i, int heapSize) {
+		while (true) {
+			int worst = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < heapSize && ranksBefore(topLabels[worst], topScores[worst], topLabels[left], topScores[left])) {
+				worst = left;
+			}
+			if (right < heapSize && ranksBefore(topLabels[worst], topScores[worst], topLabels[right], topScores[right])) {
+				worst = right;
+			}
+			if (worst == i) {
+				return;
+			}
+			swap(i, worst);
+			i = worst;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int label = topLabels[i];
+		double score = topScores[i];
+		topLabels[i] = topLabels[j];
+		topScores[i] = topScores[j];
+		topLabels[j] = label;
+		topScores[j] = score;
+	}
+}
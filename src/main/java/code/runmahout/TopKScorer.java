@@ -0,0 +1,20 @@
+/* TopKScorer - Scores a feature vector against every profession label of
+ * a trained model and keeps only the k best labels. Implementations are
+ * immutable once built and safe to share between threads; all per-vector
+ * state lives in the ScoringBuffer each thread gets from newBuffer().
+ */
+
+package code.runmahout;
+
+import org.apache.mahout.math.Vector;
+
+public interface TopKScorer {
+	//number of labels in the model
+	int numLabels();
+
+	//scratch space for one thread, keeping the k best labels
+	ScoringBuffer newBuffer(int k);
+
+	//scores instance and leaves its best labels, best first, in buffer
+	void score(Vector instance, ScoringBuffer buffer);
+}
@@ -5,19 +5,14 @@
 package code.runmahout;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-import java.util.TreeSet;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
-import org.apache.mahout.classifier.AbstractVectorClassifier;
+import org.apache.hadoop.util.GenericOptionsParser;
 import org.apache.mahout.classifier.naivebayes.ComplementaryNaiveBayesClassifier;
 import org.apache.mahout.classifier.naivebayes.NaiveBayesModel;
 import org.apache.mahout.classifier.naivebayes.training.TrainNaiveBayesJob;
@@ -25,180 +20,288 @@ import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 
 import code.vectorcreate.CreateVectorMapred;
-
-/* custom class--double prediction represents probability according to model that
- * vector corresponds to the profession represented by int index. index is the location
- * of the coupled profession within in a (separate) sorted list. Implements 
- * comparable so we can sort by prediction, thus allowing us to identify the most
- * probable professions for a given test vector*/
-class PredictionIndexPair implements Comparable <PredictionIndexPair>{
-	private double prediction;
-	private int index;
-	
-	PredictionIndexPair(double prediction, int index){
-		this.prediction = prediction;
-		this.index = index;
-	}
-	public double getPrediction(){
-		return prediction;
-	}
-	public int getIndex(){
-		return index;
-	}
-	// allows sorting in descending order of predictions
-	public int compareTo(PredictionIndexPair p) {
-		if (this.getPrediction() < p.getPrediction())
-			return 1;
-		else if(this.getPrediction() > p.getPrediction())
-			return -1;
-		else
-			return 0;
-	}
-	public String toString(){
-		return "[ "+this.prediction + ", "+this.index+ "]";
-	}
-}
+import code.vectorcreate.LabelDictionary;
 
 //class for training and testing model
 public class TrainTestNBayes {	
 	//controls printing of debug statements
 	private static final boolean DEBUG = false;
+	//Our model will be stored here
+	public static final String MODEL_DIRECTORY = "pa3TainingOutput";
+	//Mahout writes the profession of each model label here while training
+	public static final String LABEL_INDEX_PATH = "labelIndexes";
+	//metrics report written next to the predictions file
+	public static final String METRICS_FILE = "prediction-metrics.json";
 
 	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		/* optional parameters (-D name=value):
+		 * scoringThreads = NUMBER OF SCORING WORKERS FOR PIPELINED EVALUATION (0 = serial evaluation)
+		 * scoringQueueSize = CAPACITY OF EACH QUEUE BETWEEN PIPELINE STAGES
+		 * scorer = 'kernel' (DEFAULT), 'pruned' TO SCORE ONLY THE LABELS THAT CAN MAKE THE TOP K (PrunedTopKScorer,
+		 *   SAME PREDICTIONS) OR 'classifyFull' TO SCORE THROUGH MAHOUT'S CLASSIFIER--kernel AND pruned HOLD A DENSE
+		 *   LABELS x FEATURES MATRIX OF DOUBLES; IF IT DOES NOT FIT THE HEAP, classifyFull IS USED (SET compactModelPath
+		 *   TO SCORE A LARGE MODEL FAST)
+		 * prunedBlockSize = LABELS PER BLOCK OF THE pruned SCORER (DEFAULT PrunedTopKScorer.DEFAULT_BLOCK_SIZE)
+		 * trainVectorsPath = TRAINING VECTORS, FILE OR OUTPUT DIRECTORY OF CreateVectorMapred (DEFAULT CreateVectorMapred.TRAIN_MAHOUT_SEQFILE_PATH)
+		 * testVectorsPath = TEST VECTORS, FILE OR OUTPUT DIRECTORY OF CreateVectorMapred (DEFAULT CreateVectorMapred.TEST_MAHOUT_SEQFILE_PATH)
+		 * vectorReadThreads = NUMBER OF PART FILES OF TEST VECTORS READ IN PARALLEL (DEFAULT 4)--PREDICTIONS
+		 *   ARE WRITTEN IN PART ORDER EITHER WAY
+		 * labelIndexPath = LABEL INDEX WRITTEN BY TRAINING (DEFAULT LABEL_INDEX_PATH)
+		 * trainer = 'mahout' (DEFAULT, TrainNaiveBayesJob) OR 'multiLabel' TO TRAIN FROM MULTI-LABEL RECORDS
+		 *   (CreateVectorMapred -D multiLabel=true) WITH MultiLabelTrainer, OR 'inMemory' TO TRAIN IN THIS JVM WITH InMemoryTrainer
+		 *   (THE ONLY TRAINER THAT READS BLOCK FILES, CreateVectorMapred -D vectorFormat=blocks)
+		 * trainerThreads = NUMBER OF THREADS OF THE inMemory TRAINER (DEFAULT NUMBER OF PROCESSORS)
+		 * compactModelPath = IF SET, SCORE WITH THIS COMPACT MODEL FILE (WRITTEN BY CompactModel), MEMORY-MAPPED,
+		 *   INSTEAD OF LOADING THE MODEL DIRECTORY
+		 * modelPath = DIRECTORY THE MODEL IS TRAINED INTO AND LOADED FROM (DEFAULT MODEL_DIRECTORY)
+		 * predictionsPath = LOCAL FILE PREDICTIONS ARE WRITTEN TO (DEFAULT prediction-results.txt)
+		 * metricsPath = LOCAL FILE THE JSON METRICS REPORT (EvaluationMetrics) IS WRITTEN TO (DEFAULT
+		 *   prediction-metrics.json NEXT TO THE PREDICTIONS FILE)
+		 * topK = NUMBER OF PROFESSIONS PREDICTED PER ARTICLE (DEFAULT 3)--A PREDICTION IS CORRECT IF ANY OF THEM IS
+		 *   AN ACTUAL PROFESSION, AND THE METRICS REPORT TOP-k ACCURACY FOR EVERY k UP TO IT
+		 * progressInterval = PREDICTIONS BETWEEN PROGRESS LINES (DEFAULT 2000, 0 = NO PROGRESS LINES)
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
 		boolean train = false;
-		if(args.length == 1){
-			if (args[0].equals("1")){
+		if(otherArgs.length == 1){
+			if (otherArgs[0].equals("1")){
 				System.out.println("Will train too.");
 				train = true;
 			}
 		}
-		File predictionsFile = new File("prediction-results.txt");
-		Configuration conf = new Configuration();
+		if (train && !train(conf)) {
+			System.exit(1);
+		}
+		EvaluationCounts counts = evaluate(conf);
+		System.out.print("Percent correct predictions : ");
+		System.out.printf("%.2f%%\n", counts.getAccuracy());
+	}
+	
+	/* bytes the kernel's weight matrix takes for model, plus the block index of the pruned scorer when blockSize
+	 * is above 0--Long.MAX_VALUE if the matrix is too large for one array*/
+	private static long denseWeightBytes(ModelWeights model, int blockSize) {
+		long bytes = ComplementaryScoringKernel.weightBytes(model.numLabels(), model.vectorSize());
+		if (bytes == Long.MAX_VALUE || blockSize <= 0) {
+			return bytes;
+		}
+		long numBlocks = (model.numLabels() + blockSize - 1) / blockSize;
+		return bytes + 4 * numBlocks * model.vectorSize();
+	}
+
+	//trains the model on the training vectors, as configured for main--returns false if training failed
+	public static boolean train(Configuration conf) throws Exception {
 		FileSystem fs = FileSystem.get(conf);
 		
 		TrainNaiveBayesJob trainNBayes = new TrainNaiveBayesJob();
 		trainNBayes.setConf(conf);
 		
-		//path to local disk folders create by CreateVectorMapred class
-		String inputFile = CreateVectorMapred.TRAIN_MAHOUT_SEQFILE_PATH;  
-		String testVectorsFile = CreateVectorMapred.TEST_MAHOUT_SEQFILE_PATH;
-		//Our model will be stored here
-		String outputDirectory = "pa3TainingOutput";
+		//vectors created by CreateVectorMapred class--its output directory, read in place, or a local copy
+		String inputFile = conf.get("trainVectorsPath", CreateVectorMapred.TRAIN_MAHOUT_SEQFILE_PATH);
+		String outputDirectory = conf.get("modelPath", MODEL_DIRECTORY);
 		String tempDirectory = "pa3TrainingTmp";
+		Path labelIndexPath = fs.makeQualified(new Path(conf.get("labelIndexPath", LABEL_INDEX_PATH)));
 		
-		if(train) {
-			fs.delete(new Path(outputDirectory), true);
-			fs.delete(new Path(tempDirectory), true);		
-			
+		fs.delete(new Path(outputDirectory), true);
+		fs.delete(new Path(tempDirectory), true);		
+		
+		String trainer = conf.get("trainer", "mahout");
+		if (trainer.equals("inMemory")) {
+			System.out.println("Training with NBayes in memory...");
+			if (!InMemoryTrainer.train(conf, new Path(inputFile), new Path(outputDirectory), labelIndexPath)) {
+				System.err.println("In-memory training failed.");
+				return false;
+			}
+		} else if (trainer.equals("multiLabel")) {
+			System.out.println("Training with NBayes from multi-label records...");
+			if (!MultiLabelTrainer.train(conf, new Path(inputFile), new Path(outputDirectory), labelIndexPath,
+					new Path(tempDirectory))) {
+				System.err.println("Multi-label training failed.");
+				return false;
+			}
+		} else {
 			System.out.println("Training with NBayes...");
-			trainNBayes.run(new String[] { "--input", inputFile, "--output", outputDirectory, "-el", "--overwrite", "--tempDir", tempDirectory, "-li", "labelIndexes"});
-			System.out.println("Done...");
+			if (trainNBayes.run(new String[] { "--input", inputFile, "--output", outputDirectory, "-el", "--overwrite", "--tempDir", tempDirectory, "-li", labelIndexPath.toString()}) != 0) {
+				System.err.println("Training failed.");
+				return false;
+			}
+			//save the label dictionary with the model
+			LabelDictionary.fromLabelIndex(conf, labelIndexPath).write(fs,
+					new Path(outputDirectory, LabelDictionary.FILE));
 		}
+		System.out.println("Done...");
+		return true;
+	}
+	
+	//scores the test vectors with the model and writes predictions, as configured for main--returns the counts
+	public static EvaluationCounts evaluate(Configuration conf) throws Exception {
+		FileSystem fs = FileSystem.get(conf);
+		String testVectorsFile = conf.get("testVectorsPath", CreateVectorMapred.TEST_MAHOUT_SEQFILE_PATH);
+		String outputDirectory = conf.get("modelPath", MODEL_DIRECTORY);
+		Path labelIndexPath = fs.makeQualified(new Path(conf.get("labelIndexPath", LABEL_INDEX_PATH)));
+		File predictionsFile = new File(conf.get("predictionsPath", "prediction-results.txt"));
+		File metricsFile = new File(conf.get("metricsPath",
+				new File(predictionsFile.getAbsoluteFile().getParentFile(), METRICS_FILE).getPath()));
+		int topK = conf.getInt("topK", 3);
 		
-		// Train the classifier
-		NaiveBayesModel naiveBayesModel = NaiveBayesModel.materialize(new Path(outputDirectory), conf);
-		System.out.println("Features: " + naiveBayesModel.numFeatures());
-		System.out.println("Labels: " + naiveBayesModel.numLabels());
-		
-		//Create the classifier
-		AbstractVectorClassifier classifier = new ComplementaryNaiveBayesClassifier(naiveBayesModel);
-		int numClasses = classifier.numCategories();
-		
-		//list of professions sorted
-		List<String> sortedProfessions;
-		TreeSet<String> professionsSet = new TreeSet<String>();
-		
-		//read from inputFile
-		SequenceFile.Reader reader = new SequenceFile.Reader(fs, new Path(inputFile), conf);
-		Text keyTxt = new Text();
-		System.out.println("Creating professions list...");
-		//add professions to list
-		while (reader.next(keyTxt)) {
-			String[] prof = keyTxt.toString().split("\\/");
-			professionsSet.add(prof[1]);
+		//Create the scorer--memory-mapped compact model, precomputed CNB weight kernel (full or pruned), or Mahout's classifier for cross-checking
+		TopKScorer scorer;
+		LabelDictionary labels;
+		if (conf.get("compactModelPath") != null) {
+			CompactModel compactModel = CompactModel.open(new Path(conf.get("compactModelPath")), conf);
+			System.out.println("Features: " + compactModel.numFeatures());
+			System.out.println("Labels: " + compactModel.numLabels());
+			System.out.println(compactModel.weightType() + " weights: " + compactModel.numEntries());
+			scorer = compactModel;
+			//the compact model carries its own label dictionary
+			labels = compactModel.labels();
+		} else {
+			// Load the trained model
+			ModelWeights modelWeights = ModelWeights.read(new Path(outputDirectory), conf);
+			System.out.println("Features: " + modelWeights.numFeatures());
+			System.out.println("Labels: " + modelWeights.numLabels());
+			String scorerName = conf.get("scorer", "kernel");
+			int blockSize = conf.getInt("prunedBlockSize", PrunedTopKScorer.DEFAULT_BLOCK_SIZE);
+			if (!scorerName.equals("kernel") && !scorerName.equals("pruned") && !scorerName.equals("classifyFull")) {
+				throw new IllegalArgumentException("Unknown scorer '" + scorerName
+						+ "'--expected 'kernel', 'pruned' or 'classifyFull'");
+			}
+			if (!scorerName.equals("classifyFull")) {
+				long bytes = denseWeightBytes(modelWeights, scorerName.equals("pruned") ? blockSize : 0);
+				Runtime runtime = Runtime.getRuntime();
+				long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+				if (bytes > available - available / 4) {
+					System.err.println("Dense weights of the " + scorerName + " scorer do not fit the heap ("
+							+ (bytes == Long.MAX_VALUE ? "over 2^31 entries" : bytes / (1024 * 1024) + " MB") + ", "
+							+ available / (1024 * 1024) + " MB free)--scoring with classifyFull. Set compactModelPath"
+							+ " to a CompactModel file to score this model faster.");
+					scorerName = "classifyFull";
+				}
+			}
+			if (scorerName.equals("classifyFull")) {
+				NaiveBayesModel naiveBayesModel = NaiveBayesModel.materialize(new Path(outputDirectory), conf);
+				scorer = new ClassifierScorer(new ComplementaryNaiveBayesClassifier(naiveBayesModel));
+			} else if (scorerName.equals("pruned")) {
+				scorer = new PrunedTopKScorer(modelWeights, blockSize);
+			} else {
+				scorer = new ComplementaryScoringKernel(modelWeights);
+			}
+			
+			//label ids of the model's professions
+			System.out.println("Loading label dictionary...");
+			labels = readLabels(fs, new Path(outputDirectory), labelIndexPath, conf);
+			System.out.println("Done.");
 		}
-		reader.close();
-		sortedProfessions = new ArrayList<String>(professionsSet);
-		System.out.println("Done.");
 		
 		if(DEBUG){
-			int i=0;
-			for(String profession: sortedProfessions) {
-				System.out.println(i + ": " + profession);
-				i++;
+			for(int i = 0; i < labels.size(); i++) {
+				System.out.println(i + ": " + labels.name(i));
 			}
 		}
 		
 		//test prints
-		System.out.println("Model Labels: " + naiveBayesModel.numLabels());
-		System.out.println("Professions Hash Set size: "+ professionsSet.size() + "\nProfessions List Size: "+ sortedProfessions.size());
+		System.out.println("Model Labels: " + scorer.numLabels());
+		System.out.println("Label Dictionary Size: "+ labels.size());
 		
-		//run classifier
-		SequenceFile.Reader sfReader = new SequenceFile.Reader(fs, new Path(testVectorsFile), conf);
-		ArrayList<PredictionIndexPair> probabilitiesList;
+		//run classifier--streams all part files of the test vectors
+		VectorPartsReader sfReader = new VectorPartsReader(fs, new Path(testVectorsFile), conf,
+				conf.getInt("vectorReadThreads", 4), conf.getInt("scoringQueueSize", 1024));
+		System.out.println("Reading test vectors from " + sfReader.numParts() + " part files...");
+		PrintWriter writer = new PrintWriter(predictionsFile);
+		EvaluationCounts counts;
+		//stage timings of all threads, and progress
+		EvaluationStats stats = new EvaluationStats(conf.getInt("progressInterval", 2000));
+		//accuracy metrics of all threads
+		EvaluationMetrics metrics = new EvaluationMetrics(labels.size(), topK);
 		
+		int scoringThreads = conf.getInt("scoringThreads", 0);
+		if (scoringThreads > 0) {
+			System.out.println("Evaluating with " + scoringThreads + " scoring threads...");
+			PipelinedEvaluator evaluator = new PipelinedEvaluator(scorer, labels, topK, scoringThreads,
+					conf.getInt("scoringQueueSize", 1024));
+			counts = evaluator.run(sfReader, writer, stats, metrics);
+		} else {
+			counts = evaluateSerially(sfReader, writer, scorer, labels, topK, stats, metrics);
+		}
+		sfReader.close();
+		writer.close();
+		stats.report(System.out, counts);
+		metrics.report(System.out);
+		PrintWriter metricsWriter = new PrintWriter(metricsFile, "UTF-8");
+		metrics.writeJson(metricsWriter, labels);
+		metricsWriter.close();
+		System.out.println("Wrote metrics to " + metricsFile);
+		return counts;
+	}
+	
+	/* reads the label dictionary saved with the model--models trained before dictionaries were saved fall back to
+	 * the label index Mahout wrote while training*/
+	public static LabelDictionary readLabels(FileSystem fs, Path modelDirectory, Path labelIndex, Configuration conf)
+			throws IOException {
+		Path dictionaryPath = new Path(modelDirectory, LabelDictionary.FILE);
+		if (fs.exists(dictionaryPath)) {
+			return LabelDictionary.read(fs, dictionaryPath);
+		}
+		if (fs.exists(labelIndex)) {
+			System.out.println("No label dictionary in " + modelDirectory + ", reading label index " + labelIndex);
+			return LabelDictionary.fromLabelIndex(conf, labelIndex);
+		}
+		throw new IOException("No label dictionary in " + modelDirectory + " and no label index at " + labelIndex);
+	}
+	
+	//scores test vectors one at a time on this thread, writes predictions and counts them into metrics
+	private static EvaluationCounts evaluateSerially(VectorPartsReader sfReader, PrintWriter writer,
+			TopKScorer scorer, LabelDictionary labels, int topK, EvaluationStats stats, EvaluationMetrics metrics)
+			throws Exception {
+		ScoringBuffer buffer = scorer.newBuffer(topK);
+		buffer.setTimed(true);
 		Text keyText = new Text();
 		VectorWritable valueVecWritable = new VectorWritable();
+		EvaluationCounts counts = new EvaluationCounts();
 		
-		int correctPredictions = 0;
-		int totalPredictions = 0;
-		// that's the number of test vectors!
-		int expectedVectors = 133417;
-		
-		PrintWriter writer = new PrintWriter(predictionsFile);
-		
+		long start = System.nanoTime();
 		while (sfReader.next(keyText, valueVecWritable)) {
-			probabilitiesList = new ArrayList<PredictionIndexPair>();
+			long decoded = System.nanoTime();
+			stats.recordDecode(decoded - start);
 			String[] articleAndProffInfo = keyText.toString().split(":::");
 			String articleTitle = articleAndProffInfo[0];
-			totalPredictions++;
-			if (totalPredictions % 2000 == 0){
-				System.out.println("Predicted " + (int) (((double)totalPredictions / (double)expectedVectors ) * 100.0) + "%");
-				System.out.print(correctPredictions +" correct predictions so far: ");
-				System.out.printf("%.2f%% accuracy\n", ((double)correctPredictions/totalPredictions) * 100.00);
-			}
-			String[] professions = articleAndProffInfo[1].split(",");
-			List<String> actualProfessions = new ArrayList<String>(Arrays.asList(professions));
 			Vector vec = valueVecWritable.get();
-			Vector prediction = classifier.classifyFull(vec);
-			if(DEBUG)
-				System.out.println("Number of classes (classifier.numCategories() ): "+numClasses);
-			for (int i = 0; i < numClasses; i++) {
-				probabilitiesList.add(new PredictionIndexPair(prediction.get(i), i));
-				if(DEBUG)
-					System.out.println("Adding key: "+prediction.get(i) +", val: "+i+ ", Profession in that index from sorted professions: "+sortedProfessions.get(i));
-			}
-			ArrayList<String> bestThreeProfs = new ArrayList<String>();
-			Collections.sort(probabilitiesList);
-			for (int i = 0; i < 3; i++) {
-				bestThreeProfs.add(sortedProfessions.get(probabilitiesList.get(i).getIndex()));
-			}
-			
-			String entry = articleTitle + " : ";
-			int i =0;
-			for (String profession: bestThreeProfs) {
-				entry += profession + (i==2? "" : ", " );
-				i++;
-			}
-			writer.println(entry);
-			boolean correctPrediction = false;
+			scorer.score(vec, buffer);
+			long scored = System.nanoTime();
+			stats.recordScore(decoded, buffer, scored);
+			writer.println(predictionEntry(articleTitle, buffer, labels));
+			int[] actualLabels = labels.ids(articleAndProffInfo[1].split(","));
+			counts.add(isCorrectPrediction(actualLabels, buffer));
+			metrics.add(actualLabels, buffer);
+			start = System.nanoTime();
+			stats.recordWrite(start - scored);
+			stats.printProgress(counts);
+		}
+		return counts;
+	}
+	
+	//line written to the predictions file for one article--best holds the scored labels, most probable first
+	static String predictionEntry(String articleTitle, ScoringBuffer best, LabelDictionary labels) {
+		String entry = articleTitle + " : ";
+		for (int i = 0; i < best.size(); i++) {
+			entry += labels.name(best.label(i)) + (i==best.size()-1? "" : ", " );
 			if(DEBUG)
-				System.out.print("Actual Professions : ");
-			
-			for (String profession: actualProfessions) {
-				if (DEBUG)
-					System.out.println(profession + " " );
-				
-				if (!correctPrediction && bestThreeProfs.contains(profession)) {
-					correctPrediction = true;
-					correctPredictions++;
+				System.out.println("Rank " + i + ": " + best.score(i) + ", val: " + best.label(i) + ", Profession: " + labels.name(best.label(i)));
+		}
+		return entry;
+	}
+	
+	//prediction is correct if any of the article's actual label ids is among the best labels
+	static boolean isCorrectPrediction(int[] actualLabels, ScoringBuffer best) {
+		for (int actualLabel : actualLabels) {
+			if (DEBUG)
+				System.out.println("Actual label : " + actualLabel);
+			for (int i = 0; i < best.size(); i++) {
+				if (best.label(i) == actualLabel) {
+					return true;
 				}
 			}
 		}
-		sfReader.close();
-		writer.close();
-		System.out.print("Percent correct predictions : ");
-		System.out.printf("%.2f%%\n", ((double)correctPredictions/totalPredictions) * 100.00);
-	    
+		return false;
 	}
 }
@@ -0,0 +1,438 @@
+/* UpdateModelMapred - Keeps the sufficient statistics of the model so a new
+ * batch of articles updates it without rerunning ExportLemmasMapred,
+ * CreateVectorMapred and TrainNaiveBayesJob over every article. The
+ * statistics directory holds:
+ *   documentFrequencies/  lemma -> DF, every lemma of the training set (DF 1 too)
+ *   labelTermFrequencies/ 'profession<TAB>lemma' -> summed lemma counts of the
+ *                         profession's training articles (raw counts, no IDF)
+ *   numDocuments.txt      number of training documents with words
+ *   vocabulary.bin        the Vocabulary (DF > 1) the statistics were counted with
+ *
+ * An update reads only the new articles (and optionally the old versions of
+ * changed or deleted articles, which are subtracted) plus the previous
+ * statistics, in two jobs: the first adds up DFs and writes the new
+ * vocabulary, the second vectorizes new articles against it and adds up the
+ * profession counts. Because counts are kept without IDFs, the model is
+ * rebuilt with the IDFs of the updated DFs, so IDF drift is exact, and
+ * lemmas join the vocabulary as soon as their DF reaches 2. Articles are
+ * only ever checked against the vocabulary of the run that reads them: an
+ * older training article dropped for an out of vocabulary lemma stays out
+ * even if the lemma joins later, until the statistics are rebuilt (a run
+ * without previousStatistics, which is also how they are first built).
+ * Labels of the written model are numbered in profession name order.
+ */
+
+package code.runmahout;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.mahout.classifier.naivebayes.NaiveBayesModel;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+import code.vectorcreate.CacheFiles;
+import code.vectorcreate.ExportLemmasMapred;
+import code.vectorcreate.LabelDictionary;
+import code.vectorcreate.LemmaIndexCursor;
+import code.vectorcreate.LemmaIndexVectorizer;
+import code.vectorcreate.ProfessionsIndex;
+import code.vectorcreate.SampledLog;
+import code.vectorcreate.TrainTestSplit;
+import code.vectorcreate.Vocabulary;
+import code.vectorcreate.VocabularyPruning;
+
+public class UpdateModelMapred {
+	//parts of a statistics directory
+	public static final String DOCUMENT_FREQUENCIES = "documentFrequencies";
+	public static final String TERM_FREQUENCIES = "labelTermFrequencies";
+	public static final String NUM_DOCUMENTS_FILE = "numDocuments.txt";
+	public static final String VOCABULARY_FILE = ExportLemmasMapred.VOCABULARY_FILE;
+	//names files are linked under in each task's working directory
+	private static final String VOCABULARY_CACHE_NAME = "pa3-vocabulary.bin";
+	private static final String PREVIOUS_VOCABULARY_CACHE_NAME = "pa3-previous-vocabulary.bin";
+	private static final String PROFESSIONS_CACHE_NAME = "pa3-professions.bin";
+
+	//NO_WORDS counts records without a lemma index--counted instead of logged, the log only gets a few samples
+	public static enum UpdateModelCounter {
+		ADDED_DOCUMENTS, REMOVED_DOCUMENTS, ADDED_TRAINING_ARTICLES, REMOVED_TRAINING_ARTICLES, REJECTED_ARTICLES,
+		NO_WORDS
+	}
+
+	//outputs lemma, +1 for every lemma of a training document, like ExportLemmasMapper
+	public static class DocumentFrequencyMapper extends Mapper<LongWritable, Text, Text, LongWritable> {
+		private final Text outputKey = new Text();
+		private final LongWritable outputVal = new LongWritable();
+		private final LemmaIndexCursor cursor = new LemmaIndexCursor();
+		private TrainTestSplit split;
+		private Counter noWords;
+		private SampledLog noWordsLog;
+
+		@Override
+		protected void setup(Mapper<LongWritable, Text, Text, LongWritable>.Context context)
+				throws IOException, InterruptedException {
+			super.setup(context);
+			split = TrainTestSplit.fromConf(context.getConfiguration());
+			outputVal.set(sign());
+			noWords = context.getCounter(UpdateModelCounter.NO_WORDS);
+			noWordsLog = SampledLog.fromConf(context.getConfiguration(), System.err);
+		}
+
+		//+1 for added articles, -1 for removed ones
+		protected int sign() {
+			return 1;
+		}
+
+		@Override
+		public void map(LongWritable lineNum, Text docLine, Context context)
+				throws IOException, InterruptedException {
+			byte[] bytes = docLine.getBytes();
+			int length = docLine.getLength();
+			int indexStart = LemmaIndexCursor.indexOf(bytes, 0, length, (byte) '<');
+			if (indexStart == -1) {
+				noWords.increment(1);
+				noWordsLog.log("Document has no words!");
+				return;
+			}
+			if (split != null
+					&& split.isTest(LemmaIndexVectorizer.title(bytes, LemmaIndexVectorizer.titleEnd(bytes, length)))) {
+				//test set article--not part of the training set statistics
+				return;
+			}
+			context.getCounter(sign() > 0 ? UpdateModelCounter.ADDED_DOCUMENTS : UpdateModelCounter.REMOVED_DOCUMENTS)
+					.increment(1);
+			cursor.reset(bytes, indexStart + 1, length);
+			while (cursor.next()) {
+				cursor.lemmaTo(outputKey);
+				context.write(outputKey, outputVal);
+			}
+		}
+	}
+
+	//outputs lemma, -1 for every lemma of a removed training document
+	public static class RemovedDocumentFrequencyMapper extends DocumentFrequencyMapper {
+		@Override
+		protected int sign() {
+			return -1;
+		}
+	}
+
+	/* outputs 'profession<TAB>lemma', count for every lemma of every profession of a training article, if
+	 * CreateVectorMapper would make a training vector of it with the vocabulary of this run*/
+	public static class TermFrequencyMapper extends Mapper<LongWritable, Text, Text, LongWritable> {
+		private final Text outputKey = new Text();
+		private final LongWritable outputVal = new LongWritable();
+		private final LemmaIndexCursor cursor = new LemmaIndexCursor();
+		private TrainTestSplit split;
+		private ProfessionsIndex professions;
+		private LabelDictionary professionLabels;
+		private Vocabulary vocabulary;
+
+		@Override
+		protected void setup(Mapper<LongWritable, Text, Text, LongWritable>.Context context)
+				throws IOException, InterruptedException {
+			super.setup(context);
+			Configuration conf = context.getConfiguration();
+			split = TrainTestSplit.fromConf(conf);
+			//the distributed cache links the files into the task's working directory
+			professions = conf.get("professionsPath") != null
+					? ProfessionsIndex.shared(new File(PROFESSIONS_CACHE_NAME)) : ProfessionsIndex.fromResource();
+			professionLabels = professions.labels();
+			vocabulary = Vocabulary.map(new File(vocabularyCacheName()));
+		}
+
+		//vocabulary the articles were (or are) vectorized with
+		protected String vocabularyCacheName() {
+			return VOCABULARY_CACHE_NAME;
+		}
+
+		protected int sign() {
+			return 1;
+		}
+
+		@Override
+		public void map(LongWritable lineNum, Text lemmaFreqs, Context context)
+				throws IOException, InterruptedException {
+			byte[] bytes = lemmaFreqs.getBytes();
+			int length = lemmaFreqs.getLength();
+			int lastTab = LemmaIndexVectorizer.titleEnd(bytes, length);
+			String articleName = LemmaIndexVectorizer.title(bytes, lastTab);
+			int indexStart = lastTab + 1;
+			int person;
+			if (!LemmaIndexVectorizer.hasWords(bytes, indexStart, length)
+					|| (person = professions.indexOf(articleName)) == -1
+					|| (split != null && split.isTest(articleName))) {
+				//no vector, or a test vector--not counted
+				return;
+			}
+
+			//training set articles with out of vocabulary lemmas are dropped, as CreateVectorMapper does
+			cursor.reset(bytes, indexStart, length);
+			while (cursor.next()) {
+				if (cursor.count() >= 0
+						&& vocabulary.indexOf(cursor.lemmaBytes(), cursor.lemmaStart(), cursor.lemmaLength()) == -1) {
+					context.getCounter(UpdateModelCounter.REJECTED_ARTICLES).increment(1);
+					return;
+				}
+			}
+			context.getCounter(sign() > 0 ? UpdateModelCounter.ADDED_TRAINING_ARTICLES
+					: UpdateModelCounter.REMOVED_TRAINING_ARTICLES).increment(1);
+
+			for (int i = 0; i < professions.labelCount(person); i++) {
+				String profession = professionLabels.name(professions.label(person, i));
+				cursor.reset(bytes, indexStart, length);
+				while (cursor.next()) {
+					if (cursor.count() < 0) {
+						continue;
+					}
+					outputKey.set(profession + "\t"
+							+ Text.decode(cursor.lemmaBytes(), cursor.lemmaStart(), cursor.lemmaLength()));
+					outputVal.set(sign() * (long) cursor.count());
+					context.write(outputKey, outputVal);
+				}
+			}
+		}
+	}
+
+	//subtracts removed articles, checked against the vocabulary they were counted with
+	public static class RemovedTermFrequencyMapper extends TermFrequencyMapper {
+		@Override
+		protected String vocabularyCacheName() {
+			return PREVIOUS_VOCABULARY_CACHE_NAME;
+		}
+
+		@Override
+		protected int sign() {
+			return -1;
+		}
+	}
+
+	//adds up a statistic--statistics that come to 0 (everything counted was removed) are dropped
+	public static class StatisticSumReducer extends Reducer<Text, LongWritable, Text, LongWritable> {
+		private final LongWritable outputVal = new LongWritable();
+
+		@Override
+		public void reduce(Text key, Iterable<LongWritable> values, Context context)
+				throws IOException, InterruptedException {
+			long sum = 0;
+			for (LongWritable value : values) {
+				sum += value.get();
+			}
+			if (sum != 0) {
+				outputVal.set(sum);
+				context.write(key, outputVal);
+			}
+		}
+	}
+
+	//runs one statistics job over added articles, removed articles and the previous statistics
+	private static Job statisticsJob(Configuration conf, String name, Path articles, Path removedArticles,
+			Path previousStatistics, Path output, Class<? extends Mapper<?, ?, ?, ?>> addedMapper,
+			Class<? extends Mapper<?, ?, ?, ?>> removedMapper) throws Exception {
+		Job job = Job.getInstance(conf, name);
+		job.setJarByClass(UpdateModelMapred.class);
+		job.setMapOutputKeyClass(Text.class);
+		job.setMapOutputValueClass(LongWritable.class);
+		//summing is associative, and dropping zero partial sums changes no total
+		job.setCombinerClass(StatisticSumReducer.class);
+		job.setReducerClass(StatisticSumReducer.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(LongWritable.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		MultipleInputs.addInputPath(job, articles, TextInputFormat.class, addedMapper);
+		if (removedArticles != null) {
+			MultipleInputs.addInputPath(job, removedArticles, TextInputFormat.class, removedMapper);
+		}
+		if (previousStatistics != null) {
+			//previous statistics go to the reducers unchanged
+			MultipleInputs.addInputPath(job, previousStatistics, SequenceFileInputFormat.class, Mapper.class);
+		}
+		FileOutputFormat.setOutputPath(job, output);
+		return job;
+	}
+
+	//number of training documents in a statistics directory
+	public static int readNumDocuments(FileSystem fs, Path statistics) throws IOException {
+		BufferedReader input = new BufferedReader(new InputStreamReader(
+				fs.open(new Path(statistics, NUM_DOCUMENTS_FILE)), StandardCharsets.UTF_8));
+		try {
+			return Integer.parseInt(input.readLine().trim());
+		} finally {
+			input.close();
+		}
+	}
+
+	/* writes the vocabulary of the lemmas in the statistics that the pruning options keep, as ExportLemmasMapred
+	 * does--returns number of lemmas*/
+	private static int writeVocabulary(FileSystem fs, Path statistics, int numDocuments, Configuration conf)
+			throws IOException {
+		Vocabulary.Builder builder = new Vocabulary.Builder();
+		VocabularyPruning pruning = VocabularyPruning.fromConf(conf);
+		Text lemma = new Text();
+		LongWritable docFreq = new LongWritable();
+		for (Path part : VectorPartsReader.listParts(fs, new Path(statistics, DOCUMENT_FREQUENCIES))) {
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, conf);
+			while (reader.next(lemma, docFreq)) {
+				//exclude from vocab words that appear in too few documents, as ExportLemmasReducer does
+				if (pruning.meetsMinDF((int) docFreq.get())) {
+					builder.add(lemma.copyBytes(), (int) docFreq.get());
+				}
+			}
+			reader.close();
+		}
+		builder.prune(pruning, numDocuments);
+		OutputStream out = fs.create(new Path(statistics, VOCABULARY_FILE), true);
+		int numLemmas = builder.writeTo(out, numDocuments);
+		out.close();
+		return numLemmas;
+	}
+
+	/* builds the model from the profession counts of the statistics, weighting every count with the IDF of
+	 * its lemma in the statistics' vocabulary--lemmas no longer in the vocabulary are left out*/
+	public static NaiveBayesModel writeModel(FileSystem fs, Path statistics, Path modelDirectory,
+			Path labelIndexPath, Configuration conf) throws IOException {
+		Vocabulary vocabulary = Vocabulary.read(fs, new Path(statistics, VOCABULARY_FILE));
+		TreeMap<String, Vector> labelSums = new TreeMap<String, Vector>();
+		Text key = new Text();
+		LongWritable count = new LongWritable();
+		for (Path part : VectorPartsReader.listParts(fs, new Path(statistics, TERM_FREQUENCIES))) {
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs, part, conf);
+			while (reader.next(key, count)) {
+				byte[] bytes = key.getBytes();
+				int tab = LemmaIndexCursor.indexOf(bytes, 0, key.getLength(), (byte) '\t');
+				int featureIndex = vocabulary.indexOf(bytes, tab + 1, key.getLength() - tab - 1);
+				if (featureIndex == -1) {
+					continue;
+				}
+				String profession = Text.decode(bytes, 0, tab);
+				Vector sum = labelSums.get(profession);
+				if (sum == null) {
+					sum = new RandomAccessSparseVector(vocabulary.size());
+					labelSums.put(profession, sum);
+				}
+				//same TF-IDF as LemmaIndexVectorizer, summed over the profession's articles
+				sum.setQuick(featureIndex, count.get() * (double) vocabulary.idf(featureIndex));
+			}
+			reader.close();
+		}
+		if (labelSums.isEmpty()) {
+			throw new IOException("No training articles counted in " + statistics);
+		}
+		List<String> labelNames = new ArrayList<String>(labelSums.keySet());
+		List<Vector> labelVectors = new ArrayList<Vector>(labelSums.size());
+		for (Map.Entry<String, Vector> entry : labelSums.entrySet()) {
+			labelVectors.add(entry.getValue());
+		}
+		return MultiLabelTrainer.writeModel(conf, labelNames, labelVectors, modelDirectory, labelIndexPath);
+	}
+
+	//controls mapreduce jobs
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		/* optional parameters (-D name=value):
+		 * previousStatistics = STATISTICS DIRECTORY OF THE PREVIOUS RUN--IF NOT SET, <in> IS ALL ARTICLES AND THE
+		 *   STATISTICS ARE BUILT FROM SCRATCH
+		 * removedArticles = ARTICLES TO TAKE OUT OF THE PREVIOUS STATISTICS, IN THE SAME FORMAT AS <in> (OLD
+		 *   VERSIONS OF CHANGED ARTICLES, WHOSE NEW VERSIONS ARE IN <in>, AND DELETED ARTICLES)
+		 * modelPath = DIRECTORY THE UPDATED MODEL IS WRITTEN TO (DEFAULT TrainTestNBayes.MODEL_DIRECTORY)
+		 * labelIndexPath = LABEL INDEX OF THE UPDATED MODEL (DEFAULT TrainTestNBayes.LABEL_INDEX_PATH)
+		 * professionsPath = PATH TO BINARY PROFESSIONS INDEX (DEFAULT: PARSE professions.txt FROM THE JAR)
+		 * testRatio, splitSeed = SPLIT THE ARTICLES (SEE TrainTestSplit)--ONLY TRAINING SET ARTICLES ARE COUNTED.
+		 *   MUST BE THE SAME FOR EVERY RUN OVER THE SAME STATISTICS
+		 * alphaI = SMOOTHING OF THE MODEL (DEFAULT 1)
+		 * minDF, maxDFRatio, maxVocabularySize = VOCABULARY PRUNING (SEE VocabularyPruning), AS IN
+		 *   ExportLemmasMapred
+		 * logSamples, logIntervalMillis = HOW MANY RECORDS WITHOUT WORDS EACH TASK LOGS, SEE SampledLog--ALL OF
+		 *   THEM ARE COUNTED (NO_WORDS)
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 2){
+			System.err.println("Usage: update-model-mapred <new articles> <new statistics>");
+			System.exit(2);
+		}
+		Path articles = new Path(otherArgs[0]);
+		Path statistics = new Path(otherArgs[1]);
+		FileSystem fs = statistics.getFileSystem(conf);
+		Path previousStatistics = conf.get("previousStatistics") == null ? null : new Path(conf.get("previousStatistics"));
+		Path removedArticles = conf.get("removedArticles") == null ? null : new Path(conf.get("removedArticles"));
+		if (removedArticles != null && previousStatistics == null) {
+			System.err.println("\"removedArticles\" requires \"previousStatistics\" to remove them from");
+			System.exit(2);
+		}
+
+		//document frequencies of every lemma
+		Job dfJob = statisticsJob(conf, "Update lemma DFs", articles, removedArticles,
+				previousStatistics == null ? null : new Path(previousStatistics, DOCUMENT_FREQUENCIES),
+				new Path(statistics, DOCUMENT_FREQUENCIES), DocumentFrequencyMapper.class,
+				RemovedDocumentFrequencyMapper.class);
+		if (!dfJob.waitForCompletion(true)) {
+			System.exit(1);
+		}
+		long noWords = dfJob.getCounters().findCounter(UpdateModelCounter.NO_WORDS).getValue();
+		if (noWords > 0) {
+			System.out.println(UpdateModelCounter.NO_WORDS + ": " + noWords);
+		}
+		int numDocuments = (previousStatistics == null ? 0 : readNumDocuments(fs, previousStatistics))
+				+ (int) dfJob.getCounters().findCounter(UpdateModelCounter.ADDED_DOCUMENTS).getValue()
+				- (int) dfJob.getCounters().findCounter(UpdateModelCounter.REMOVED_DOCUMENTS).getValue();
+		PrintWriter numDocumentsOut = new PrintWriter(new OutputStreamWriter(
+				fs.create(new Path(statistics, NUM_DOCUMENTS_FILE), true), StandardCharsets.UTF_8));
+		numDocumentsOut.println(numDocuments);
+		numDocumentsOut.close();
+		int numLemmas = writeVocabulary(fs, statistics, numDocuments, conf);
+		System.out.println("Updated vocabulary has " + numLemmas + " lemmas and " + numDocuments + " documents.");
+
+		//summed lemma counts of every profession
+		Job tfJob = statisticsJob(conf, "Update profession lemma counts", articles, removedArticles,
+				previousStatistics == null ? null : new Path(previousStatistics, TERM_FREQUENCIES),
+				new Path(statistics, TERM_FREQUENCIES), TermFrequencyMapper.class, RemovedTermFrequencyMapper.class);
+		CacheFiles.add(tfJob, new Path(statistics, VOCABULARY_FILE), VOCABULARY_CACHE_NAME, conf);
+		if (removedArticles != null) {
+			CacheFiles.add(tfJob, new Path(previousStatistics, VOCABULARY_FILE), PREVIOUS_VOCABULARY_CACHE_NAME, conf);
+		}
+		if (conf.get("professionsPath") != null) {
+			CacheFiles.add(tfJob, new Path(conf.get("professionsPath")), PROFESSIONS_CACHE_NAME, conf);
+		}
+		if (!tfJob.waitForCompletion(true)) {
+			System.exit(1);
+		}
+		System.out.println("Training articles added: "
+				+ tfJob.getCounters().findCounter(UpdateModelCounter.ADDED_TRAINING_ARTICLES).getValue()
+				+ ", removed: " + tfJob.getCounters().findCounter(UpdateModelCounter.REMOVED_TRAINING_ARTICLES).getValue()
+				+ ", dropped for out of vocabulary lemmas: "
+				+ tfJob.getCounters().findCounter(UpdateModelCounter.REJECTED_ARTICLES).getValue());
+
+		Path modelDirectory = new Path(conf.get("modelPath", TrainTestNBayes.MODEL_DIRECTORY));
+		Path labelIndexPath = new Path(conf.get("labelIndexPath", TrainTestNBayes.LABEL_INDEX_PATH));
+		NaiveBayesModel model = writeModel(fs, statistics, modelDirectory, labelIndexPath, conf);
+		System.out.println("Wrote model " + modelDirectory + " with " + model.numLabels() + " labels and "
+				+ (int) model.numFeatures() + " features.");
+		System.exit(0);
+	}
+}
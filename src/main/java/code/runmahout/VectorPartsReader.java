@@ -0,0 +1,267 @@
+/* VectorPartsReader - Reads Text, VectorWritable records from every part
+ * file of a job output directory (or from a single SequenceFile) as one
+ * stream, so vectors can be read straight from the HDFS output of
+ * CreateVectorMapred instead of from a local copy of one part. Hidden files
+ * (_SUCCESS, .crc files and the like) are skipped. Block files
+ * (VectorBlockWriter) are read too, with their records turned into the
+ * keys and vectors of the SequenceFile format: 'title:::profession1,...'.
+ *
+ * With one read thread, parts are read one after the other on the calling
+ * thread, in name order. With more, that many threads each read whole
+ * parts in parallel, every part into a bounded queue of its own, and the
+ * caller takes the queues in name order--so records come in the same order
+ * as with one thread, however the reads interleave. Not thread-safe: one
+ * caller takes from the stream.
+ */
+
+package code.runmahout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+import code.vectorcreate.VectorBlockReader;
+
+public class VectorPartsReader implements Closeable {
+	//leaves out _SUCCESS, _logs, .crc files...
+	private static final PathFilter VISIBLE_FILES = new PathFilter() {
+		public boolean accept(Path path) {
+			String name = path.getName();
+			return !name.startsWith("_") && !name.startsWith(".");
+		}
+	};
+
+	private final FileSystem fs;
+	private final Configuration conf;
+	private final List<Path> parts;
+
+	//serial reading--index of the next part to open and the part being read
+	private int nextPart;
+	private PartReader current;
+
+	//parallel reading--records of every part, and the part the caller takes from
+	private List<BlockingQueue<VectorRecord>> partRecords;
+	private List<Thread> readThreads;
+	private int takePart;
+	//first failure of any read thread
+	private volatile Throwable failure;
+	private volatile boolean closed;
+
+	//record read by a read thread--a record with a null key marks the end of a part
+	private static class VectorRecord {
+		final String key;
+		final Vector vector;
+
+		VectorRecord(String key, Vector vector) {
+			this.key = key;
+			this.vector = vector;
+		}
+	}
+
+	private static final VectorRecord END_OF_PART = new VectorRecord(null, null);
+
+	//reads the records of one part file, whatever its format
+	private interface PartReader extends Closeable {
+		boolean next(Text key, VectorWritable value) throws IOException;
+	}
+
+	private static class SequenceFilePartReader implements PartReader {
+		private final SequenceFile.Reader reader;
+
+		SequenceFilePartReader(FileSystem fs, Path part, Configuration conf) throws IOException {
+			reader = new SequenceFile.Reader(fs, part, conf);
+		}
+
+		public boolean next(Text key, VectorWritable value) throws IOException {
+			return reader.next(key, value);
+		}
+
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	private static class BlockPartReader implements PartReader {
+		private final VectorBlockReader reader;
+
+		BlockPartReader(FileSystem fs, Path part, Configuration conf) throws IOException {
+			reader = new VectorBlockReader(fs, part, conf, true);
+		}
+
+		//key as CreateVectorMapper writes test vectors, and a new vector, as VectorWritable reads one
+		public boolean next(Text key, VectorWritable value) throws IOException {
+			if (!reader.next()) {
+				return false;
+			}
+			key.set(reader.key());
+			value.set(reader.vector());
+			return true;
+		}
+
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	private static PartReader openPart(FileSystem fs, Path part, Configuration conf) throws IOException {
+		return VectorBlockReader.isBlockFile(part) ? new BlockPartReader(fs, part, conf)
+				: new SequenceFilePartReader(fs, part, conf);
+	}
+
+	//opens every part under path with up to numReadThreads parallel readers (at most one per part)
+	public VectorPartsReader(FileSystem fs, Path path, Configuration conf, int numReadThreads, int queueCapacity)
+			throws IOException {
+		this.fs = fs;
+		this.conf = conf;
+		this.parts = listParts(fs, path);
+		if (parts.isEmpty()) {
+			throw new IOException("No vector files found in " + path);
+		}
+		int threads = Math.min(numReadThreads, parts.size());
+		if (threads > 1) {
+			startReadThreads(threads, queueCapacity);
+		}
+	}
+
+	//path itself if it is a file, otherwise its visible files in name order
+	public static List<Path> listParts(FileSystem fs, Path path) throws IOException {
+		FileStatus[] statuses = fs.listStatus(path, VISIBLE_FILES);
+		if (statuses == null) {
+			throw new IOException(path + " does not exist");
+		}
+		//FileStatus orders by path
+		Arrays.sort(statuses);
+		List<Path> parts = new ArrayList<Path>();
+		for (FileStatus status : statuses) {
+			parts.add(status.getPath());
+		}
+		return parts;
+	}
+
+	public int numParts() {
+		return parts.size();
+	}
+
+	//reads the next record into key and value, like SequenceFile.Reader.next--returns false when all parts are read
+	public boolean next(Text key, VectorWritable value) throws IOException {
+		if (readThreads == null) {
+			return nextSerially(key, value);
+		}
+		try {
+			while (takePart < parts.size()) {
+				VectorRecord record = partRecords.get(takePart).take();
+				if (record == END_OF_PART) {
+					//the parts after a failed one are never read
+					if (failure != null) {
+						throw new IOException("Reading vectors failed", failure);
+					}
+					takePart++;
+					continue;
+				}
+				key.set(record.key);
+				value.set(record.vector);
+				return true;
+			}
+		} catch (InterruptedException ie) {
+			throw new IOException("Interrupted while reading vectors", ie);
+		}
+		return false;
+	}
+
+	private boolean nextSerially(Text key, VectorWritable value) throws IOException {
+		while (true) {
+			if (current == null) {
+				if (nextPart == parts.size()) {
+					return false;
+				}
+				current = openPart(fs, parts.get(nextPart++), conf);
+			}
+			if (current.next(key, value)) {
+				return true;
+			}
+			current.close();
+			current = null;
+		}
+	}
+
+	private void startReadThreads(int numThreads, int queueCapacity) {
+		//every thread fills one queue at a time, so the threads together buffer up to queueCapacity records
+		int partCapacity = Math.max(1, queueCapacity / numThreads);
+		partRecords = new ArrayList<BlockingQueue<VectorRecord>>();
+		for (int i = 0; i < parts.size(); i++) {
+			partRecords.add(new LinkedBlockingQueue<VectorRecord>(partCapacity));
+		}
+		readThreads = new ArrayList<Thread>();
+		final AtomicInteger partCounter = new AtomicInteger();
+		for (int i = 0; i < numThreads; i++) {
+			Thread readThread = new Thread(new Runnable() {
+				public void run() {
+					readParts(partCounter);
+				}
+			}, "vector-part-reader-" + i);
+			readThread.setDaemon(true);
+			readThread.start();
+			readThreads.add(readThread);
+		}
+	}
+
+	/* reads whole parts, in name order, until none are left or one failed. Parts are taken in the order the
+	 * caller takes them, so the part the caller waits on is always being read or done*/
+	private void readParts(AtomicInteger partCounter) {
+		Text key = new Text();
+		//VectorWritable reads every vector into a new Vector, so the vector can be handed off as is
+		VectorWritable value = new VectorWritable();
+		try {
+			int part;
+			while (!closed && failure == null && (part = partCounter.getAndIncrement()) < parts.size()) {
+				BlockingQueue<VectorRecord> records = partRecords.get(part);
+				try {
+					PartReader reader = openPart(fs, parts.get(part), conf);
+					try {
+						while (!closed && reader.next(key, value)) {
+							records.put(new VectorRecord(key.toString(), value.get()));
+						}
+					} finally {
+						reader.close();
+					}
+				} catch (IOException ioe) {
+					if (failure == null) {
+						failure = ioe;
+					}
+				} finally {
+					records.put(END_OF_PART);
+				}
+			}
+		} catch (InterruptedException ie) {
+			//closed while waiting for the caller
+		}
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		if (readThreads != null) {
+			for (Thread readThread : readThreads) {
+				readThread.interrupt();
+			}
+		}
+		if (current != null) {
+			current.close();
+			current = null;
+		}
+	}
+}
@@ -0,0 +1,399 @@
+/* VectorStore - Labeled vectors loaded once into primitive
+ * compressed-sparse-row arrays, for work that goes over the same vectors
+ * many times (CrossValidationSweep). Row r's features are
+ * indices[rowOffsets[r]] to indices[rowOffsets[r + 1] - 1], ascending, with
+ * their values as floats, and its label ids are labels[labelOffsets[r]] to
+ * labels[labelOffsets[r + 1] - 1]. Label ids number the profession names in
+ * name order (see labels()).
+ *
+ * Reads any vectors CreateVectorMapred writes: test vectors keyed
+ * 'title:::profession1,profession2' and multi-label training records give
+ * one row per article with all its professions. Plain training vectors
+ * keyed '/profession/' come one per profession, the records of an article
+ * one after the other with the same vector, and are merged back into one
+ * row with all the professions--so an article is always one row, and
+ * never lands in more than one cross-validation fold. Block files
+ * (vectorFormat=blocks) give one row per article and are read without
+ * their titles, straight from the reader's arrays. Part files are read
+ * in parallel, vectorReadThreads at a time, and rows keep the part order.
+ */
+
+package code.runmahout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.mahout.math.MultiLabelVectorWritable;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+import code.vectorcreate.LabelDictionary;
+import code.vectorcreate.ProfessionsIndex;
+import code.vectorcreate.VectorBlockReader;
+
+public class VectorStore {
+	final int numFeatures;
+	final int[] rowOffsets;
+	final int[] indices;
+	final float[] values;
+	final int[] labelOffsets;
+	final int[] labels;
+	private final LabelDictionary labelNames;
+
+	private VectorStore(int numFeatures, int[] rowOffsets, int[] indices, float[] values, int[] labelOffsets,
+			int[] labels, LabelDictionary labelNames) {
+		this.numFeatures = numFeatures;
+		this.rowOffsets = rowOffsets;
+		this.indices = indices;
+		this.values = values;
+		this.labelOffsets = labelOffsets;
+		this.labels = labels;
+		this.labelNames = labelNames;
+	}
+
+	public int numRows() {
+		return rowOffsets.length - 1;
+	}
+
+	//length of the vectors--features are 0 to numFeatures - 1
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	public int numNonZeros() {
+		return indices.length;
+	}
+
+	//label id to profession name
+	public LabelDictionary labels() {
+		return labelNames;
+	}
+
+	public int rowStart(int row) {
+		return rowOffsets[row];
+	}
+
+	public int rowEnd(int row) {
+		return rowOffsets[row + 1];
+	}
+
+	public int index(int entry) {
+		return indices[entry];
+	}
+
+	public float value(int entry) {
+		return values[entry];
+	}
+
+	public int labelStart(int row) {
+		return labelOffsets[row];
+	}
+
+	public int labelEnd(int row) {
+		return labelOffsets[row + 1];
+	}
+
+	public int label(int i) {
+		return labels[i];
+	}
+
+	//approximate bytes held by the arrays
+	public long sizeInBytes() {
+		return 4L * (rowOffsets.length + indices.length + values.length + labelOffsets.length + labels.length);
+	}
+
+	//rows of one or more part files, with labels numbered by the order the builder first saw them
+	private static class Builder {
+		private int numRows;
+		private int[] rowOffsets = new int[1024];
+		private int[] indices = new int[16384];
+		private float[] values = new float[16384];
+		private int[] labelOffsets = new int[1024];
+		private int[] labels = new int[1024];
+		private int numFeatures;
+		private final Map<String, Integer> labelIds = new HashMap<String, Integer>();
+		private final List<String> labelNames = new ArrayList<String>();
+		//scratch for sorting a row's features
+		private int[] rowIndices = new int[256];
+		private float[] rowValues = new float[256];
+
+		void addRow(Vector vector, String[] rowLabels) {
+			int n = sortFeatures(vector);
+			addRow(vector.size(), rowIndices, rowValues, n, rowLabels);
+		}
+
+		/* adds the single-profession record of a '/profession/' key--to the last row if it holds the same
+		 * vector without that profession, as the records of one article do*/
+		void addProfessionRow(Vector vector, String profession) {
+			int n = sortFeatures(vector);
+			int id = labelId(profession.trim());
+			if (numRows > 0 && lastRowEquals(n) && !lastRowHasLabel(id)) {
+				int labelEnd = labelOffsets[numRows];
+				ensureCapacity(rowOffsets[numRows], labelEnd + 1);
+				labels[labelEnd] = id;
+				labelOffsets[numRows] = labelEnd + 1;
+				return;
+			}
+			addRow(vector.size(), rowIndices, rowValues, n, new String[] { profession });
+		}
+
+		//copies the vector's features into the scratch arrays, ascending--returns their number
+		private int sortFeatures(Vector vector) {
+			int nonZeros = vector.getNumNondefaultElements();
+			if (rowIndices.length < nonZeros) {
+				rowIndices = new int[Math.max(nonZeros, 2 * rowIndices.length)];
+				rowValues = new float[rowIndices.length];
+			}
+			int n = 0;
+			for (Vector.Element e : vector.nonZeroes()) {
+				rowIndices[n++] = e.index();
+			}
+			Arrays.sort(rowIndices, 0, n);
+			for (int i = 0; i < n; i++) {
+				rowValues[i] = (float) vector.getQuick(rowIndices[i]);
+			}
+			return n;
+		}
+
+		//true if the last row holds the n features of the scratch arrays
+		private boolean lastRowEquals(int n) {
+			int start = rowOffsets[numRows - 1];
+			if (rowOffsets[numRows] - start != n) {
+				return false;
+			}
+			for (int i = 0; i < n; i++) {
+				if (indices[start + i] != rowIndices[i] || values[start + i] != rowValues[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean lastRowHasLabel(int id) {
+			for (int i = labelOffsets[numRows - 1]; i < labelOffsets[numRows]; i++) {
+				if (labels[i] == id) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		//adds a row of n ascending features
+		void addRow(int cardinality, int[] rowIndices, float[] rowValues, int n, String[] rowLabels) {
+			numFeatures = Math.max(numFeatures, cardinality);
+			int start = rowOffsets[numRows];
+			int labelStart = labelOffsets[numRows];
+			ensureCapacity(start + n, labelStart + rowLabels.length);
+			System.arraycopy(rowIndices, 0, indices, start, n);
+			System.arraycopy(rowValues, 0, values, start, n);
+			for (int i = 0; i < rowLabels.length; i++) {
+				labels[labelStart + i] = labelId(rowLabels[i].trim());
+			}
+			numRows++;
+			rowOffsets[numRows] = start + n;
+			labelOffsets[numRows] = labelStart + rowLabels.length;
+		}
+
+		private int labelId(String name) {
+			Integer id = labelIds.get(name);
+			if (id == null) {
+				id = labelNames.size();
+				labelIds.put(name, id);
+				labelNames.add(name);
+			}
+			return id;
+		}
+
+		private void ensureCapacity(int entries, int labelEntries) {
+			if (rowOffsets.length < numRows + 2) {
+				rowOffsets = Arrays.copyOf(rowOffsets, 2 * rowOffsets.length);
+				labelOffsets = Arrays.copyOf(labelOffsets, 2 * labelOffsets.length);
+			}
+			if (indices.length < entries) {
+				int capacity = Math.max(entries, 2 * indices.length);
+				indices = Arrays.copyOf(indices, capacity);
+				values = Arrays.copyOf(values, capacity);
+			}
+			if (labels.length < labelEntries) {
+				labels = Arrays.copyOf(labels, Math.max(labelEntries, 2 * labels.length));
+			}
+		}
+	}
+
+	//state shared by the loading threads
+	private static class Loader {
+		private final FileSystem fs;
+		private final Configuration conf;
+		private final List<Path> parts;
+		//one builder per part, filled in by whichever thread reads the part
+		private final Builder[] builders;
+		private final AtomicInteger nextPart = new AtomicInteger();
+		//professions of multi-label record label ids--loaded with the first multi-label part
+		private LabelDictionary professionLabels;
+
+		Loader(FileSystem fs, Configuration conf, List<Path> parts) {
+			this.fs = fs;
+			this.conf = conf;
+			this.parts = parts;
+			this.builders = new Builder[parts.size()];
+		}
+
+		synchronized LabelDictionary professionLabels() throws IOException {
+			if (professionLabels == null) {
+				professionLabels = ProfessionsIndex.load(conf).labels();
+			}
+			return professionLabels;
+		}
+	}
+
+	//reads vectors from part files, one builder per part
+	private static class PartLoader implements Runnable {
+		private final Loader loader;
+		private Throwable failure;
+
+		PartLoader(Loader loader) {
+			this.loader = loader;
+		}
+
+		public void run() {
+			try {
+				int part;
+				while ((part = loader.nextPart.getAndIncrement()) < loader.parts.size()) {
+					loader.builders[part] = readPart(loader.parts.get(part));
+				}
+			} catch (Throwable e) {
+				failure = e;
+			}
+		}
+
+		private Builder readPart(Path part) throws IOException {
+			Builder builder = new Builder();
+			if (VectorBlockReader.isBlockFile(part)) {
+				VectorBlockReader reader = new VectorBlockReader(loader.fs, part, loader.conf, false);
+				try {
+					while (reader.next()) {
+						builder.addRow(reader.cardinality(), reader.indices(), reader.values(), reader.numNonZeros(),
+								reader.labelNames());
+					}
+				} finally {
+					reader.close();
+				}
+				return builder;
+			}
+			SequenceFile.Reader reader = new SequenceFile.Reader(loader.fs, part, loader.conf);
+			try {
+				Text key = new Text();
+				Writable value = (Writable) ReflectionUtils.newInstance(reader.getValueClass(), loader.conf);
+				if (value instanceof MultiLabelVectorWritable) {
+					MultiLabelVectorWritable record = (MultiLabelVectorWritable) value;
+					//multi-label records hold professions index label ids
+					LabelDictionary professionLabels = loader.professionLabels();
+					while (reader.next(key, record)) {
+						int[] ids = record.getLabels();
+						String[] names = new String[ids.length];
+						for (int i = 0; i < ids.length; i++) {
+							names[i] = professionLabels.name(ids[i]);
+						}
+						builder.addRow(record.getVector(), names);
+					}
+				} else {
+					VectorWritable vectorWritable = (VectorWritable) value;
+					while (reader.next(key, vectorWritable)) {
+						String keyString = key.toString();
+						int separator = keyString.indexOf(":::");
+						if (separator != -1) {
+							builder.addRow(vectorWritable.get(), keyString.substring(separator + 3).split(","));
+						} else {
+							builder.addProfessionRow(vectorWritable.get(), keyString.split("/")[1]);
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+			return builder;
+		}
+	}
+
+	//loads every vector in path (file or directory of part files)
+	public static VectorStore load(FileSystem fs, Path path, Configuration conf) throws IOException, InterruptedException {
+		Loader loader = new Loader(fs, conf, VectorPartsReader.listParts(fs, path));
+		int numThreads = Math.max(1, Math.min(conf.getInt("vectorReadThreads", 4), loader.parts.size()));
+		List<PartLoader> partLoaders = new ArrayList<PartLoader>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < numThreads; i++) {
+			PartLoader partLoader = new PartLoader(loader);
+			Thread thread = new Thread(partLoader, "vector-store-loader-" + i);
+			partLoaders.add(partLoader);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (PartLoader partLoader : partLoaders) {
+			if (partLoader.failure != null) {
+				throw new IOException("Reading vectors from " + path + " failed", partLoader.failure);
+			}
+		}
+		return concatenate(loader.builders);
+	}
+
+	//rows of all builders in order, label ids renumbered in profession name order
+	private static VectorStore concatenate(Builder[] builders) {
+		TreeSet<String> names = new TreeSet<String>();
+		int numRows = 0;
+		int numEntries = 0;
+		int numLabelEntries = 0;
+		int numFeatures = 0;
+		for (Builder builder : builders) {
+			names.addAll(builder.labelNames);
+			numRows += builder.numRows;
+			numEntries += builder.rowOffsets[builder.numRows];
+			numLabelEntries += builder.labelOffsets[builder.numRows];
+			numFeatures = Math.max(numFeatures, builder.numFeatures);
+		}
+		LabelDictionary labelNames = new LabelDictionary(new ArrayList<String>(names));
+
+		int[] rowOffsets = new int[numRows + 1];
+		int[] indices = new int[numEntries];
+		float[] values = new float[numEntries];
+		int[] labelOffsets = new int[numRows + 1];
+		int[] labels = new int[numLabelEntries];
+		int row = 0;
+		for (Builder builder : builders) {
+			int[] globalIds = new int[builder.labelNames.size()];
+			for (int i = 0; i < globalIds.length; i++) {
+				globalIds[i] = labelNames.id(builder.labelNames.get(i));
+			}
+			int entryBase = rowOffsets[row];
+			int labelBase = labelOffsets[row];
+			int entries = builder.rowOffsets[builder.numRows];
+			int labelEntries = builder.labelOffsets[builder.numRows];
+			System.arraycopy(builder.indices, 0, indices, entryBase, entries);
+			System.arraycopy(builder.values, 0, values, entryBase, entries);
+			for (int i = 0; i < labelEntries; i++) {
+				labels[labelBase + i] = globalIds[builder.labels[i]];
+			}
+			for (int r = 1; r <= builder.numRows; r++) {
+				rowOffsets[row + r] = entryBase + builder.rowOffsets[r];
+				labelOffsets[row + r] = labelBase + builder.labelOffsets[r];
+			}
+			row += builder.numRows;
+		}
+		return new VectorStore(numFeatures, rowOffsets, indices, values, labelOffsets, labels, labelNames);
+	}
+}
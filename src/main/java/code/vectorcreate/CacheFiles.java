@@ -0,0 +1,27 @@
+/* CacheFiles - Ships side files (vocabulary, professions index...) to the
+ * tasks of a job through the distributed cache. Each file is linked into
+ * every task's working directory under a fixed name, so mappers open it
+ * as a local file (new File(cacheName)) whatever file system it came from.
+ */
+
+package code.vectorcreate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+
+public class CacheFiles {
+	//links file into the working directory of every task of job under cacheName
+	public static void add(Job job, Path file, String cacheName, Configuration conf) throws IOException {
+		URI uri = file.getFileSystem(conf).makeQualified(file).toUri();
+		try {
+			job.addCacheFile(new URI(uri.toString() + "#" + cacheName));
+		} catch (URISyntaxException use) {
+			throw new IOException("Cannot link " + file + " as " + cacheName, use);
+		}
+	}
+}
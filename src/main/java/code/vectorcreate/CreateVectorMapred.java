@@ -6,32 +6,60 @@
  * (training and test set vectors are built one run at a time,
  * they are formatted differently, and they require different 
  * command parameters). Original data comes from Wikipedia articles. 
+ * A 'split' run builds both in one scan of the input instead: every
+ * article goes to the training or the test set by a hash of its title
+ * (TrainTestSplit), and the two vector sets are written through
+ * MultipleOutputs to the train/ and test/ subdirectories of the output.
+ * With vectorFormat=blocks, both sets are written as one multi-label record
+ * per article into columnar block files (VectorBlockOutputFormat) instead
+ * of SequenceFiles. Compressed SequenceFile output (vectorCodec) is
+ * block-compressed.
+ *
+ * With vectorizer=hashing, no vocabulary is needed, so the ExportLemmasMapred
+ * pass goes away: lemmas are hashed to hashFeatures features (FeatureHasher)
+ * and the IDFs come from DFs counted in this same job. Every mapper counts
+ * the DFs of the hashed features over its training articles in an int array
+ * and sends the TF vectors of its articles on to the reducers. At the end of
+ * the task it sends its DFs too, one copy per reducer under a negative key,
+ * so HashedPartitioner hands every reducer its copy and, sorting first, the
+ * copies of all mappers reach the reducer before any article. The reducer
+ * sums them up, turns its articles' TF vectors into TF-IDF vectors and
+ * writes them out like the mappers of a vocabulary run do.
  */
 
 package code.vectorcreate;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
-import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.MultiLabelVectorWritable;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 
@@ -40,24 +68,80 @@ public class CreateVectorMapred{
 	//Paths to store vector in local disk. TrainTestNBayes class that run mahout reads from local disk
 	public static final String TRAIN_MAHOUT_SEQFILE_PATH = "pa3TrainVectors/trainvectors";
 	public static final String TEST_MAHOUT_SEQFILE_PATH = "pa3TestVectors/testvectors";
+	//name the binary vocabulary is linked under in each task's working directory
+	private static final String VOCABULARY_CACHE_NAME = "pa3-vocabulary.bin";
+	//name the binary professions index is linked under in each task's working directory
+	private static final String PROFESSIONS_CACHE_NAME = "pa3-professions.bin";
+	//named outputs, and output subdirectories, of a split run
+	public static final String TRAIN_OUTPUT = "train";
+	public static final String TEST_OUTPUT = "test";
 	
-	public static class CreateVectorMapper extends Mapper<LongWritable, Text, Text, VectorWritable> {
-		private static final String PROFESSIONS_FILE = "professions.txt";
-		private Map<String, List<String>> professionsMap;
-		//these maps map lemmas to length 2 information arrays
-		private Map<String, int[]> trainingLemmaInfoMap;
-		//length of all feature vectors
-		private int numTotalFeatures;
+	//vectorFormat value that writes block files instead of SequenceFiles
+	public static final String BLOCK_FORMAT = "blocks";
+	//vectorizer value that hashes lemmas to features instead of looking them up in a vocabulary
+	public static final String HASHING_VECTORIZER = "hashing";
+	
+	//articles vectorized into each set
+	public static enum CreateVectorCounter { TRAIN_ARTICLES, TEST_ARTICLES }
+	//skipped records and lemmas--counted instead of logged, the log only gets a few samples of each (SampledLog)
+	public static enum CreateVectorEvent { MALFORMED_LINES, NO_WORDS, NO_PROFESSIONS, UNKNOWN_TRAIN_LEMMAS,
+		DROPPED_TRAIN_ARTICLES, UNKNOWN_TEST_LEMMAS, MALFORMED_COUNTS }
+	
+	public static class CreateVectorMapper extends Mapper<LongWritable, Text, Writable, Writable>
+			implements LemmaIndexVectorizer.Listener {
+		//people and the label ids of their professions
+		private ProfessionsIndex professions;
+		//label id to profession name
+		private LabelDictionary professionLabels;
+		//training set vocabulary--maps lemma bytes to feature index and precomputed IDF
+		private Vocabulary vocabulary;
+		//build TF-IDF vectors against the vocabulary--training set drops articles with unknown lemmas
+		//unless skipUnknownTrainLemmas is set
+		private LemmaIndexVectorizer trainVectorizer;
+		private LemmaIndexVectorizer testVectorizer;
+		//set for a hashing run only--builds TF vectors, the reducers turn them into TF-IDF vectors
+		private FeatureHasher hasher;
+		//DFs of the hashed features over this task's training articles, and the number of those articles
+		private int[] docFreqs;
+		private int trainingDocuments;
+		//keys of the articles sent to the reducers--task id in the high half, running count in the low half
+		private long nextRecordKey;
 		//these fields set by extra arguments in user's command
 		boolean isTestSet;
+		//set for a split run only--decides the set of each article
+		private TrainTestSplit split;
+		//writes the vectors in the output format of the run--not set in a hashing run, the reducers write them
+		private VectorOutput output;
+		//set of the article being vectorized
+		private boolean articleInTestSet;
 		private String trainingLemmasFile;
+		private String vocabularyFile;
+		private String professionsFile;
 		private int numDocuments;
+		//output objects, reused across records
+		private final LongWritable recordKey = new LongWritable();
+		private final HashedRecord hashedRecord = new HashedRecord();
+		//counters and sampled logs of skipped records and lemmas
+		private Counter malformedLines;
+		private Counter noWords;
+		private Counter noProfessions;
+		private Counter unknownTrainLemmas;
+		private Counter droppedTrainArticles;
+		private Counter unknownTestLemmas;
+		private Counter malformedCounts;
+		private SampledLog malformedLineLog;
+		private SampledLog noWordsLog;
+		private SampledLog noProfessionsLog;
+		private SampledLog unknownTrainLemmaLog;
+		private SampledLog unknownTestLemmaLog;
+		private SampledLog malformedCountLog;
 		
 		//parses files and builds relevant data structures prior to map function
 		@Override
-		protected void setup(Mapper<LongWritable, Text, Text, VectorWritable>.Context context)
+		protected void setup(Mapper<LongWritable, Text, Writable, Writable>.Context context)
 				throws IOException, InterruptedException {
 			super.setup(context);
+			initEvents(context);
 			
 			//sets fields based on extra arguments entered in command--returns false upon error
 			 if (!setFieldsBasedOnParameters(context)) {
@@ -65,25 +149,88 @@ public class CreateVectorMapred{
 				 return;
 			 }
 			
-			//parses professions file and builds map from names to lists of professions--returns false upon error
-			if (!parseProfessionsFile()) {
+			//loads index of people and their professions--returns false upon error
+			if (!loadProfessions()) {
 				System.err.println("Something went wrong with building the profession list.");
 				return;
 			}
 			
-			/* builds map of training set lemmas--each lemma is mapped to array containing vector index and 
-			 * document frequency. Returns null upon error*/
-			if ( (trainingLemmaInfoMap = buildLemmaInfoMap()) == null ) {
-				System.err.println("Something went wrong with building the lemma info map");
+			Configuration conf = context.getConfiguration();
+			if (conf.get("vectorizer", "").equals(HASHING_VECTORIZER)) {
+				//no vocabulary--the IDFs are only known once the reducers have all DFs
+				hasher = new FeatureHasher(conf.getInt("hashFeatures", FeatureHasher.DEFAULT_FEATURES),
+						conf.getBoolean("hashSigned", true), TermWeighting.fromConf(conf));
+				docFreqs = new int[hasher.numFeatures()];
+				nextRecordKey = (long) context.getTaskAttemptID().getTaskID().getId() << 32;
 				return;
 			}
+			/* loads training set vocabulary--memory-maps the binary vocabulary shipped through the distributed
+			 * cache if there is one, otherwise builds it from the text DF file. Returns null upon error*/
+			if ( (vocabulary = loadVocabulary()) == null ) {
+				System.err.println("Something went wrong with loading the vocabulary");
+				return;
+			}
+			//a selected vocabulary (SelectFeaturesMapred) leaves out lemmas on purpose, so they are skipped instead
+			TermWeighting weighting = TermWeighting.fromConf(conf);
+			trainVectorizer = new LemmaIndexVectorizer(vocabulary, conf.getBoolean("skipUnknownTrainLemmas", false),
+					weighting);
+			testVectorizer = new LemmaIndexVectorizer(vocabulary, true, weighting);
+			output = VectorOutput.fromConf(context, professionLabels);
 		}
 		
-		/* builds map of lemmas to length 2 info arrays--cell 0 stores lemma's vector index and cell 1 stores lemma's 
-		 * document frequency*/
-		private Map<String, int[]> buildLemmaInfoMap() {
-			
-			Map<String, int[]> lemmaInfoMap = new HashMap<String, int[]>();
+		//looks the event counters up once and sets up their sampled logs
+		private void initEvents(Context context) {
+			malformedLines = context.getCounter(CreateVectorEvent.MALFORMED_LINES);
+			noWords = context.getCounter(CreateVectorEvent.NO_WORDS);
+			noProfessions = context.getCounter(CreateVectorEvent.NO_PROFESSIONS);
+			unknownTrainLemmas = context.getCounter(CreateVectorEvent.UNKNOWN_TRAIN_LEMMAS);
+			droppedTrainArticles = context.getCounter(CreateVectorEvent.DROPPED_TRAIN_ARTICLES);
+			unknownTestLemmas = context.getCounter(CreateVectorEvent.UNKNOWN_TEST_LEMMAS);
+			malformedCounts = context.getCounter(CreateVectorEvent.MALFORMED_COUNTS);
+			Configuration conf = context.getConfiguration();
+			malformedLineLog = SampledLog.fromConf(conf, System.err);
+			noWordsLog = SampledLog.fromConf(conf, System.err);
+			noProfessionsLog = SampledLog.fromConf(conf, System.out);
+			unknownTrainLemmaLog = SampledLog.fromConf(conf, System.err);
+			unknownTestLemmaLog = SampledLog.fromConf(conf, System.out);
+			malformedCountLog = SampledLog.fromConf(conf, System.err);
+		}
+		
+		//in a hashing run, sends a copy of the task's DFs to every reducer
+		@Override
+		protected void cleanup(Mapper<LongWritable, Text, Writable, Writable>.Context context)
+				throws IOException, InterruptedException {
+			if (output != null) {
+				output.close();
+			}
+			if (hasher != null) {
+				hashedRecord.setDocFreqs(trainingDocuments, docFreqs);
+				for (int partition = 0; partition < context.getNumReduceTasks(); partition++) {
+					recordKey.set(-1 - partition);
+					context.write(recordKey, hashedRecord);
+				}
+			}
+			super.cleanup(context);
+		}
+		
+		//loads training set vocabulary, preferring the binary vocabulary file--returns null upon error
+		private Vocabulary loadVocabulary() {
+			if (vocabularyFile != null) {
+				try {
+					//the distributed cache links the file into the task's working directory
+					return Vocabulary.shared(new File(VOCABULARY_CACHE_NAME));
+				} catch(IOException ioe){
+					System.err.println("Error while mapping vocabulary " + vocabularyFile);
+					ioe.printStackTrace();
+					return null;
+				}
+			}
+			return buildVocabulary();
+		}
+		
+		//builds vocabulary from text file of lemma, document frequency pairs--returns null upon error
+		private Vocabulary buildVocabulary() {
+			Vocabulary.Builder builder = new Vocabulary.Builder();
 			//HDFS path--this file stores lemma, document frequency pairs
 			Path filePath=new Path("hdfs:" + trainingLemmasFile); //should look like "hdfs:/path/to/file"
 			//Hadoop FileSystem class
@@ -93,35 +240,19 @@ public class CreateVectorMapred{
 				fs = FileSystem.get(new Configuration());
 				BufferedReader input = new BufferedReader(new InputStreamReader(fs.open(filePath), StandardCharsets.UTF_8));
 				
-				//index that represents where lemma will be stored in feature vector--each lemma gets unique integer
-				int featureIndex = -1;
-				
 				while(input.ready()){
 					//split key and value by tab
 					String[] lineContents = input.readLine().split("\\t");
-					String lemma = lineContents[0];
-										
-					//if somehow identical lemmas have been read in from file, skips all entries after the first
-					if (lemmaInfoMap.containsKey(lemma)) {
-						System.err.println("Vocab has non-unique lemmas: " + lemma);
-						continue;
-					}
-					
-					int docFreq = Integer.valueOf(lineContents[1]);
-					featureIndex++;
-					
-					lemmaInfoMap.put(lemma, new int[] {featureIndex, docFreq});
-					
+					builder.add(lineContents[0], Integer.valueOf(lineContents[1]));
 				}
 				input.close();
 				
-				//sets total size for all feature vectors
-				numTotalFeatures = lemmaInfoMap.size();
-				
+				//lemmas are indexed in sorted order, the order ExportLemmasMapred writes them in
+				Vocabulary builtVocabulary = builder.build(numDocuments);
 				System.out.println("Okay, parsed "+ trainingLemmasFile + " with " 
-						+ lemmaInfoMap.size() + " number of lemmas.");
+						+ builtVocabulary.size() + " number of lemmas.");
 								
-				return lemmaInfoMap;
+				return builtVocabulary;
 				
 			} catch(IOException ioe){
 				System.err.println("Error while reading from file " + trainingLemmasFile);
@@ -130,43 +261,14 @@ public class CreateVectorMapred{
 			}
 		}
 
-		//parses professions file and builds map from names to lists of professions--returns false upon error
-		private boolean parseProfessionsFile() {
-			InputStreamReader isr;
-			// this HashMap will hold the peoples' names
-			professionsMap = new HashMap<String, List<String>>();
-			InputStream is = this.getClass().getClassLoader().getResourceAsStream(PROFESSIONS_FILE);
-			
-			if (is == null){
-				System.err.println("Error while getting resource from "+ PROFESSIONS_FILE);
-				return false;
-			}
-			// read from within the JAR
-			isr = new InputStreamReader(is, StandardCharsets.UTF_8);
-			BufferedReader input = new BufferedReader(isr);
-			String line, name, professions;
-			List<String> professionsList;
-			//for figuring out average number of lemmas per article
-			try {
-				while(input.ready()){
-					line = input.readLine();
-					int indexToSplit = line.lastIndexOf(':');
-					name = line.substring(0, indexToSplit).trim();
-					professions = line.substring(indexToSplit+1).trim();
-					professionsList = new ArrayList<String>();
-					for(String prof : professions.split(",")){
-						professionsList.add(prof.trim());
-					}
-					professionsMap.put(name, professionsList);
-				}
-				input.close();
-			} catch(IOException ioe){
-				System.err.println("Error while reading from file " + PROFESSIONS_FILE);
-				ioe.printStackTrace();
+		//loads index of people and their professions--returns false upon error
+		private boolean loadProfessions() {
+			if ((professions = CreateVectorMapred.loadProfessions(professionsFile)) == null) {
 				return false;
 			}
-			System.out.println("Okay, parsed "+ PROFESSIONS_FILE + " with "
-					+ professionsMap.size() + " number of professions.");
+			professionLabels = professions.labels();
+			System.out.println("Okay, loaded professions of " + professions.size() + " people with "
+					+ professionLabels.size() + " professions.");
 			return true;
 		}
 
@@ -177,15 +279,29 @@ public class CreateVectorMapred{
 				isTestSet = false;
 			} else if (context.getConfiguration().get("type").equals("test")) {
 				isTestSet = true;
+			} else if (context.getConfiguration().get("type").equals("split")) {
+				if ((split = TrainTestSplit.fromConf(context.getConfiguration())) == null) {
+					System.err.println("\"split\" run requires \"" + TrainTestSplit.TEST_RATIO + "\" parameter");
+					return false;
+				}
 			} else {
-				System.err.println("\"type\" parameter must be 'train' or 'test'");
+				System.err.println("\"type\" parameter must be 'train', 'test' or 'split'");
 				return false;
 			}
-			//training set lemmas
+			//training set lemmas--binary vocabulary if given, otherwise text DF file
 			trainingLemmasFile = context.getConfiguration().get("trainingLemmasPath");
+			vocabularyFile = context.getConfiguration().get("vocabularyPath");
+			professionsFile = context.getConfiguration().get("professionsPath");
+			boolean hashing = context.getConfiguration().get("vectorizer", "").equals(HASHING_VECTORIZER);
+			if (hashing && isTestSet) {
+				System.err.println("hashing vectorizer needs the DFs of the training set--use a 'split' run");
+				return false;
+			}
 			try {
-				//number of documents in set (training or test) for which vectors are being built
-				numDocuments = Integer.parseInt(context.getConfiguration().get("numTrainingDocs"));
+				//number of documents in set (training or test) for which vectors are being built--not
+				//needed with a binary vocabulary, which already has its IDFs computed, or when hashing
+				if (vocabularyFile == null && !hashing)
+					numDocuments = Integer.parseInt(context.getConfiguration().get("numTrainingDocs"));
 			}
 			catch (NumberFormatException nfe){
 				System.err.println("Wrong number!");
@@ -194,10 +310,18 @@ public class CreateVectorMapred{
 			}
 			
 			System.out.println("==========Configuration==========");
-			if(isTestSet)	System.out.println("Type: Test");
-			else			System.out.println("Type: Train");
-			System.out.println("Training lemmas path: " + trainingLemmasFile);
-			System.out.println("Number of documents: " + numDocuments);
+			if(split != null)	System.out.println("Type: Split, test ratio " + context.getConfiguration().get(TrainTestSplit.TEST_RATIO));
+			else if(isTestSet)	System.out.println("Type: Test");
+			else				System.out.println("Type: Train");
+			if(hashing){
+				System.out.println("Hashing vectorizer: " + context.getConfiguration().getInt("hashFeatures",
+						FeatureHasher.DEFAULT_FEATURES) + " features");
+			}else if(vocabularyFile != null){
+				System.out.println("Vocabulary path: " + vocabularyFile);
+			}else{
+				System.out.println("Training lemmas path: " + trainingLemmasFile);
+				System.out.println("Number of documents: " + numDocuments);
+			}
 			System.out.println("=================================");
 			
 			return true;
@@ -210,94 +334,371 @@ public class CreateVectorMapred{
 		public void map(LongWritable lineNum, Text lemmaFreqs, Context context)
 				throws IOException, InterruptedException {
 			
-			//estimate 100 features with non-zero values per article, for purposes of optimization
-			Vector vector = new RandomAccessSparseVector(numTotalFeatures, 100);
-			
-			//separate article title from lemma index by tab--array should be size 2
-			String[] allContent = lemmaFreqs.toString().split("\\t");
-			if(allContent.length < 2){
-				System.err.println("Something went wrong with splitting lemmaFreqs in map. "  + lemmaFreqs.toString());
-			}
-						
-			//just in case article name contains a tab, reconstruct it:
-			String articleName = "";
-			for (int i = 0; i < allContent.length - 1; i++) {
-				articleName += allContent[i] + "\t";
-			}
-			articleName = articleName.trim();
+			//separate article title from lemma index by the last tab (article name could contain a tab)
+			byte[] bytes = lemmaFreqs.getBytes();
+			int length = lemmaFreqs.getLength();
+			int lastTab = LemmaIndexVectorizer.titleEnd(bytes, length);
+			if(lastTab == -1){
+				malformedLines.increment(1);
+				if (malformedLineLog.sample()) {
+					malformedLineLog.print("Something went wrong with splitting lemmaFreqs in map. "  + lemmaFreqs.toString());
+				}
+			}
 			
-			String entireLemmaIndex = allContent[allContent.length - 1];
-			List<String> professions;
+			String articleName = LemmaIndexVectorizer.title(bytes, lastTab);
+			int indexStart = lastTab + 1;
+			int person;
 			
-			if(entireLemmaIndex.indexOf('<') == -1){
-				System.err.println("Document has no words!");
-			} else if ((professions = professionsMap.get(articleName)) == null) {
+			if(!LemmaIndexVectorizer.hasWords(bytes, indexStart, length)){
+				noWords.increment(1);
+				noWordsLog.log("Document has no words!");
+				return;
+			}
+			articleInTestSet = split != null ? split.isTest(articleName) : isTestSet;
+			Vector hashedVector = null;
+			if (hasher != null) {
+				//every training article with words counts towards the DFs, professions or not, as in ExportLemmasMapred
+				hashedVector = hasher.vectorize(bytes, indexStart, length, this);
+				if (!articleInTestSet) {
+					FeatureHasher.countDocFreqs(hashedVector, docFreqs);
+					trainingDocuments++;
+				}
+			}
+			if ((person = professions.indexOf(articleName)) == -1) {
 				/* do nothing--article has no associated professions. We exclude articles with no professions
 				 * not only for training vectors, but also for test vectors, since without associated professions
 				 * we have no way to test predictions for that vector*/
-				System.out.println("Article: " + articleName + " does not have any associated professions");
-			} else {								
-				//output objects
-				VectorWritable vectorWritable = new VectorWritable();
-				Text professionText = new Text();
-				
-				//adds one entry to vector per iteration
-				for (String lemmaFreq: entireLemmaIndex.split(">,")){
-					//string now lemma and count separated by comma
-					String lemmaFreqCleaned = lemmaFreq.replaceAll(">|<", "");
-					
-					//use last comma as delimiter, since lemma could contain comma
-					int lastCommaIndex = lemmaFreqCleaned.lastIndexOf(',');
-					String lemma = lemmaFreqCleaned.substring(0, lastCommaIndex);
-					int termFreq = Integer.valueOf(lemmaFreqCleaned.substring(lastCommaIndex + 1));
-					
-					//gets array that stores feature index and doc frequency
-					int[] lemmaInfo = trainingLemmaInfoMap.get(lemma);
-					
-					if (lemmaInfo == null) {
-						if (!isTestSet) {
-							System.err.println("Lemma " + lemma + " did not map to an info array!");
-							return;
-						} else {
-							//for test set, we simply exclude all out of vocabulary lemmas
-							System.out.println("(MAP) Lemma " + lemma + " not in vocabulary, we can skip");
-							continue;
-						}	
+				noProfessions.increment(1);
+				if (noProfessionsLog.sample()) {
+					noProfessionsLog.print("Article: " + articleName + " does not have any associated professions");
+				}
+			} else if (hasher != null) {
+				//on to a reducer, which multiplies in the IDFs once it has the DFs of all mappers
+				hashedRecord.setArticle(articleName, articleInTestSet, labels(person), hashedVector);
+				recordKey.set(nextRecordKey++);
+				context.write(recordKey, hashedRecord);
+			} else {
+				//training set articles with out of vocabulary lemmas are dropped, test set ones just skip them
+				LemmaIndexVectorizer vectorizer = articleInTestSet ? testVectorizer : trainVectorizer;
+				Vector vector = vectorizer.vectorize(bytes, indexStart, length, this);
+				if (vector == null) {
+					droppedTrainArticles.increment(1);
+					return;
+				}
+				output.write(articleName, articleInTestSet, labels(person), vector);
+			}
+		}
+		
+		//label ids of the professions of person
+		private int[] labels(int person) {
+			int[] labels = new int[professions.labelCount(person)];
+			for (int i = 0; i < labels.length; i++) {
+				labels[i] = professions.label(person, i);
+			}
+			return labels;
+		}
+		
+		//lemma left out of a vector because it is not in the vocabulary
+		public void unknownLemma(LemmaIndexCursor cursor) throws IOException {
+			if (!articleInTestSet) {
+				unknownTrainLemmas.increment(1);
+				if (unknownTrainLemmaLog.sample()) {
+					unknownTrainLemmaLog.print("Lemma " + LemmaIndexVectorizer.lemma(cursor) + " did not map to an info array!");
+				}
+			} else {
+				unknownTestLemmas.increment(1);
+				if (unknownTestLemmaLog.sample()) {
+					unknownTestLemmaLog.print("(MAP) Lemma " + LemmaIndexVectorizer.lemma(cursor) + " not in vocabulary, we can skip");
+				}
+			}
+		}
+		
+		//lemma left out of a vector because its count is malformed
+		public void malformedCount(LemmaIndexCursor cursor) throws IOException {
+			malformedCounts.increment(1);
+			if (malformedCountLog.sample()) {
+				malformedCountLog.print("Lemma " + LemmaIndexVectorizer.lemma(cursor) + " has a malformed count, skipping it");
+			}
+		}
+	}
+	
+	/* loads index of people and their professions--memory-maps the binary index shipped through the
+	 * distributed cache if there is one, otherwise parses professions.txt from the JAR. Returns null upon error*/
+	private static ProfessionsIndex loadProfessions(String professionsFile) {
+		try {
+			if (professionsFile != null) {
+				//the distributed cache links the file into the task's working directory
+				return ProfessionsIndex.shared(new File(PROFESSIONS_CACHE_NAME));
+			}
+			return ProfessionsIndex.fromResource();
+		} catch(IOException ioe){
+			System.err.println("Error while loading professions");
+			ioe.printStackTrace();
+			return null;
+		}
+	}
+	
+	//writes article vectors in the output format of the run--for the mappers, or the reducers of a hashing run
+	static class VectorOutput {
+		private final TaskInputOutputContext<?, ?, Writable, Writable> context;
+		//label id to profession name
+		private final LabelDictionary professionLabels;
+		//set for a split run only
+		private final MultipleOutputs<Writable, Writable> multipleOutputs;
+		//write one multi-label record per training article instead of one record per profession
+		private final boolean multiLabel;
+		//write block files--every article, training or test, as one title-keyed multi-label record
+		private final boolean blockFormat;
+		private final Counter trainArticles;
+		private final Counter testArticles;
+		//output objects, reused across records
+		private final VectorWritable vectorWritable = new VectorWritable();
+		private final Text professionText = new Text();
+		private final MultiLabelVectorWritable multiLabelWritable = new MultiLabelVectorWritable();
+		private final Text articleText = new Text();
+		
+		private VectorOutput(TaskInputOutputContext<?, ?, Writable, Writable> context, LabelDictionary professionLabels,
+				boolean splitRun, boolean multiLabel, boolean blockFormat) {
+			this.context = context;
+			this.professionLabels = professionLabels;
+			this.multipleOutputs = splitRun ? new MultipleOutputs<Writable, Writable>(context) : null;
+			this.multiLabel = multiLabel;
+			this.blockFormat = blockFormat;
+			trainArticles = context.getCounter(CreateVectorCounter.TRAIN_ARTICLES);
+			testArticles = context.getCounter(CreateVectorCounter.TEST_ARTICLES);
+		}
+		
+		//output of the run the configuration of context describes
+		static VectorOutput fromConf(TaskInputOutputContext<?, ?, Writable, Writable> context,
+				LabelDictionary professionLabels) {
+			Configuration conf = context.getConfiguration();
+			return new VectorOutput(context, professionLabels, conf.get("type", "").equals("split"),
+					conf.getBoolean("multiLabel", false), conf.get("vectorFormat", "").equals(BLOCK_FORMAT));
+		}
+		
+		/* writes the vector of an article of the test or training set whose professions have the label ids labels.
+		 * For a training set article, key is profession embedded in forward slashes, for a test set article it
+		 * includes article name and all associated professions*/
+		void write(String articleName, boolean test, int[] labels, Vector vector)
+				throws IOException, InterruptedException {
+			/* if test set run, key is of format 'articleName:::profession1,profession2...professionN'--The
+			 * idea is to couple the article name with its professions to make evaluation convenient*/
+			if(test && !blockFormat){
+				String professionsString = "";
+				for (int i = 0; i < labels.length; i++) {
+					if (i == 0) {
+						professionsString += ":::";
 					}
-					int featureIndex = lemmaInfo[0];
-					int docFreq = lemmaInfo[1];
-					//calculates TF-IDF and sets result to vector
-					double idf = Math.log10((double)numDocuments / docFreq);
-					double tfIDF = termFreq * idf;
-					vector.set(featureIndex, tfIDF);
-						
+					professionsString += professionLabels.name(labels[i]) + (i== labels.length-1? "" : ",");
 				}
-				//sets vector to vectorWritable
+				//test set run output
 				vectorWritable.set(vector);
-				
-				/* if test set run, key is of format 'articleName:::profession1,profession2...professionN'--The
-				 * idea is to couple the article name with its professions to make evaluation convenient*/
-				if(isTestSet){
-					String professionsString = "";
-					int i=0;
-					for (String profession : professions) {
-						if (i == 0) {
-							professionsString += ":::";
-						}
-						professionsString += profession + (i== professions.size()-1? "" : ",");
-						i++;
+				write(TEST_OUTPUT, new Text(articleName + professionsString), vectorWritable);
+				testArticles.increment(1);
+			}else if(multiLabel || blockFormat){
+				//one record per document, keyed by article name, holding the label ids of all its professions
+				multiLabelWritable.setVector(vector);
+				multiLabelWritable.setLabels(labels);
+				articleText.set(articleName);
+				write(test ? TEST_OUTPUT : TRAIN_OUTPUT, articleText, multiLabelWritable);
+				(test ? testArticles : trainArticles).increment(1);
+			}else{
+				//if training, for each document we output one vector per profession
+				vectorWritable.set(vector);
+				for (int label : labels) {
+					professionText.set("/" + professionLabels.name(label) + "/");
+					//training set run output
+					write(TRAIN_OUTPUT, professionText, vectorWritable);
+				}
+				trainArticles.increment(1);
+			}
+		}
+		
+		//writes key and value to the job output, or to the named output of a split run
+		private void write(String namedOutput, Writable key, Writable value) throws IOException, InterruptedException {
+			if (multipleOutputs != null) {
+				multipleOutputs.write(namedOutput, key, value, namedOutput + "/part");
+			} else {
+				context.write(key, value);
+			}
+		}
+		
+		void close() throws IOException, InterruptedException {
+			if (multipleOutputs != null) {
+				multipleOutputs.close();
+			}
+		}
+	}
+	
+	//map output of a hashing run--the TF vector of an article on its way to get its IDFs, or the DFs of a task
+	public static class HashedRecord implements Writable {
+		private boolean isDocFreqs;
+		//DFs: training articles of the task, and DF of every feature
+		private int articles;
+		private int[] docFreqs;
+		//article: title, set, label ids of its professions and TF vector
+		private final Text title = new Text();
+		private boolean test;
+		private int[] labels;
+		private Vector vector;
+		
+		void setDocFreqs(int articles, int[] docFreqs) {
+			isDocFreqs = true;
+			this.articles = articles;
+			this.docFreqs = docFreqs;
+		}
+		
+		void setArticle(String title, boolean test, int[] labels, Vector vector) {
+			isDocFreqs = false;
+			this.title.set(title);
+			this.test = test;
+			this.labels = labels;
+			this.vector = vector;
+		}
+		
+		//adds the DFs into sums--returns the number of articles they were counted over
+		int addDocFreqsTo(int[] sums) {
+			if (sums.length != docFreqs.length) {
+				throw new IllegalArgumentException("DFs of " + docFreqs.length + " features do not add up with DFs of "
+						+ sums.length + " features");
+			}
+			for (int feature = 0; feature < sums.length; feature++) {
+				sums[feature] += docFreqs[feature];
+			}
+			return articles;
+		}
+		
+		@Override
+		public void write(DataOutput out) throws IOException {
+			out.writeBoolean(isDocFreqs);
+			if (isDocFreqs) {
+				//sparse--features by their distance to the previous non-zero one
+				int nonZero = 0;
+				for (int docFreq : docFreqs) {
+					nonZero += docFreq != 0 ? 1 : 0;
+				}
+				WritableUtils.writeVInt(out, articles);
+				WritableUtils.writeVInt(out, docFreqs.length);
+				WritableUtils.writeVInt(out, nonZero);
+				int previous = -1;
+				for (int feature = 0; feature < docFreqs.length; feature++) {
+					if (docFreqs[feature] != 0) {
+						WritableUtils.writeVInt(out, feature - previous);
+						WritableUtils.writeVInt(out, docFreqs[feature]);
+						previous = feature;
 					}
-					//test set run output
-					context.write(new Text(articleName + professionsString), vectorWritable);
-				}else{
-					//if training, for each document we output one vector per profession
-					for (String profession : professions) {
-						professionText.set("/" + profession + "/");
-						//training set run output
-						context.write(professionText, vectorWritable);
+				}
+			} else {
+				title.write(out);
+				out.writeBoolean(test);
+				WritableUtils.writeVInt(out, labels.length);
+				for (int label : labels) {
+					WritableUtils.writeVInt(out, label);
+				}
+				VectorWritable.writeVector(out, vector);
+			}
+		}
+		
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			isDocFreqs = in.readBoolean();
+			if (isDocFreqs) {
+				articles = WritableUtils.readVInt(in);
+				docFreqs = new int[WritableUtils.readVInt(in)];
+				int nonZero = WritableUtils.readVInt(in);
+				int feature = -1;
+				for (int i = 0; i < nonZero; i++) {
+					feature += WritableUtils.readVInt(in);
+					docFreqs[feature] = WritableUtils.readVInt(in);
+				}
+			} else {
+				title.readFields(in);
+				test = in.readBoolean();
+				labels = new int[WritableUtils.readVInt(in)];
+				for (int i = 0; i < labels.length; i++) {
+					labels[i] = WritableUtils.readVInt(in);
+				}
+				vector = VectorWritable.readVector(in);
+			}
+		}
+	}
+	
+	//partitions articles by their key, and DF copies by the reducer they were copied for
+	public static class HashedPartitioner extends Partitioner<LongWritable, HashedRecord> {
+		@Override
+		public int getPartition(LongWritable key, HashedRecord record, int numPartitions) {
+			long k = key.get();
+			return (int) (k < 0 ? (-1 - k) % numPartitions : k % numPartitions);
+		}
+	}
+	
+	//sums the DFs of all mappers, then writes its articles' vectors with the IDFs multiplied in
+	public static class HashedIdfReducer extends Reducer<LongWritable, HashedRecord, Writable, Writable> {
+		private int[] docFreqs;
+		private int numDocuments;
+		//IDFs of the features, computed once all DFs are summed--before the first article
+		private float[] idfs;
+		private VectorOutput output;
+		//vectors are L2 normalized here, once their IDFs are in
+		private boolean l2Normalize;
+		private final SparseVectorBuffer buffer = new SparseVectorBuffer();
+		
+		@Override
+		protected void setup(Reducer<LongWritable, HashedRecord, Writable, Writable>.Context context)
+				throws IOException, InterruptedException {
+			super.setup(context);
+			Configuration conf = context.getConfiguration();
+			ProfessionsIndex professions = loadProfessions(conf.get("professionsPath"));
+			if (professions == null) {
+				System.err.println("Something went wrong with building the profession list.");
+				return;
+			}
+			docFreqs = new int[conf.getInt("hashFeatures", FeatureHasher.DEFAULT_FEATURES)];
+			l2Normalize = TermWeighting.fromConf(conf).l2Normalize();
+			output = VectorOutput.fromConf(context, professions.labels());
+		}
+		
+		@Override
+		public void reduce(LongWritable key, Iterable<HashedRecord> records, Context context)
+				throws IOException, InterruptedException {
+			if (key.get() < 0) {
+				//DF copies of every mapper for this reducer, all under the one key that sorts first
+				for (HashedRecord record : records) {
+					numDocuments += record.addDocFreqsTo(docFreqs);
+				}
+				return;
+			}
+			if (idfs == null) {
+				idfs = new float[docFreqs.length];
+				for (int feature = 0; feature < idfs.length; feature++) {
+					idfs[feature] = docFreqs[feature] == 0 ? 0 : FeatureHasher.idf(docFreqs[feature], numDocuments);
+				}
+				System.out.println("Okay, summed DFs of " + numDocuments + " training articles.");
+			}
+			for (HashedRecord record : records) {
+				Vector termFreqs = record.vector;
+				buffer.clear();
+				for (Vector.Element element : termFreqs.nonZeroes()) {
+					//features of no training article are left out, like out of vocabulary lemmas of test articles
+					if (docFreqs[element.index()] > 0) {
+						buffer.add(element.index(), element.get() * (double) idfs[element.index()]);
 					}
 				}
+				buffer.sortByIndex(false);
+				if (l2Normalize) {
+					buffer.scaleToUnitLength();
+				}
+				output.write(record.title.toString(), record.test, record.labels, buffer.toVector(termFreqs.size()));
+			}
+		}
+		
+		@Override
+		protected void cleanup(Reducer<LongWritable, HashedRecord, Writable, Writable>.Context context)
+				throws IOException, InterruptedException {
+			if (output != null) {
+				output.close();
 			}
+			super.cleanup(context);
 		}
 	}
 	
@@ -305,31 +706,144 @@ public class CreateVectorMapred{
 	public static void main(String[] args) throws Exception {
 		Configuration conf = new Configuration();
 		/* command requires additional parameters as follows:
-		 * type = 'train' or 'test'
+		 * type = 'train', 'test' or 'split' (BOTH SETS IN ONE RUN, INTO <out>/train AND <out>/test)
+		 * testRatio = FRACTION OF ARTICLES IN THE TEST SET (split RUN ONLY, SEE TrainTestSplit)
 		 * trainingLemmasPath = PATH TO TRAINING SET LEMMAS/IDFs (hdfs:/ + PATH = complete path)
 		 * numTrainingDocs = NUMBER OF DOCUMENTS IN THE TRAINING SET  
+		 * or, in place of the two above:
+		 * vocabularyPath = PATH TO BINARY VOCABULARY WRITTEN BY ExportLemmasMapred (IDFs precomputed)
+		 * optional:
+		 * professionsPath = PATH TO BINARY PROFESSIONS INDEX WRITTEN BY ProfessionsIndex (DEFAULT: PARSE
+		 *   professions.txt FROM THE JAR)
+		 * multiLabel = 'true' TO WRITE ONE MultiLabelVectorWritable (VECTOR + PROFESSION LABEL IDS) PER TRAINING
+		 *   ARTICLE INSTEAD OF ONE VECTOR PER PROFESSION--TRAIN WITH TrainTestNBayes -D trainer=multiLabel
+		 * copyToLocal = 'true' TO ALSO COPY ALL OUTPUT PARTS TO THE LOCAL TRAIN/TEST VECTORS PATH
+		 *   (DEFAULT false--TrainTestNBayes reads the output directory in place)
+		 * vectorFormat = 'blocks' TO WRITE COLUMNAR BLOCK FILES (VectorBlockOutputFormat, ONE MULTI-LABEL RECORD PER
+		 *   ARTICLE IN BOTH SETS) INSTEAD OF SequenceFiles--COLUMNS ARE COMPRESSED WITH THE OUTPUT CODEC IF
+		 *   mapreduce.output.fileoutputformat.compress=true. BLOCK FILES ARE READ BY TrainTestNBayes EVALUATION,
+		 *   ITS inMemory TRAINER, ScoreVectorsMapred, CrossValidationSweep AND CompactModel--NOT BY THE mahout
+		 *   OR multiLabel TRAINERS, WHICH NEED SequenceFiles
+		 * skipUnknownTrainLemmas = 'true' TO LEAVE OUT LEMMAS OF TRAINING ARTICLES THAT ARE NOT IN THE VOCABULARY
+		 *   INSTEAD OF DROPPING THOSE ARTICLES--NEEDED WITH A VOCABULARY WRITTEN BY SelectFeaturesMapred
+		 * vectorizer = 'hashing' TO HASH LEMMAS TO FEATURES (FeatureHasher) INSTEAD OF USING A VOCABULARY--NO
+		 *   trainingLemmasPath, numTrainingDocs OR vocabularyPath NEEDED, THE DFs ARE COUNTED IN THIS JOB, WHICH
+		 *   GETS A REDUCE PHASE FOR IT (mapreduce.job.reduces REDUCERS). 'train' OR 'split' RUNS ONLY
+		 * hashFeatures = NUMBER OF HASHED FEATURES (DEFAULT 262144)
+		 * hashSigned = 'false' TO ADD UP THE COUNTS OF COLLIDING LEMMAS INSTEAD OF THEIR SIGNED COUNTS (DEFAULT true)
+		 * logTF = 'true' FOR 1 + ln(TF) IN PLACE OF RAW TERM FREQUENCIES, l2Normalize = 'true' TO SCALE EVERY VECTOR
+		 *   TO UNIT LENGTH (SEE TermWeighting)--BOTH SETS, AND ClassificationServer, MUST BE GIVEN THE SAME OPTIONS
+		 * combineSplitSize = TARGET SIZE OF COMBINED INPUT SPLITS (128m, 1g...)--MANY SMALL INPUT FILES GO TO ONE
+		 *   MAP TASK INSTEAD OF ONE EACH (SEE LemmaIndexInput). bzip2 COMPRESSED INPUT IS SPLIT EITHER WAY
+		 * vectorCodec = 'snappy', 'lz4', 'deflate', 'gzip', 'bzip2' OR A CompressionCodec CLASS TO COMPRESS THE
+		 *   VECTORS WITH--SequenceFiles ARE BLOCK-COMPRESSED (SNAPPY AND LZ4 NEED THE NATIVE HADOOP LIBRARY).
+		 *   mapreduce.output.fileoutputformat.compress=true ALONE BLOCK-COMPRESSES WITH THE DEFAULT CODEC
+		 * logSamples, logIntervalMillis = HOW MANY SKIPPED RECORDS AND LEMMAS EACH TASK LOGS, SEE SampledLog--ALL OF
+		 *   THEM ARE COUNTED IN THE CreateVectorEvent COUNTERS
 		 */
 		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
 		if (otherArgs.length != 2){
 			System.err.println("Usage: create-vector-mapred <in> <out>");
 			System.exit(2);
 		}
+		System.exit(run(conf, otherArgs[0], otherArgs[1]) ? 0 : 1);
+	}
+	
+	//runs the job over in, writing vectors to out--returns false if the job failed
+	public static boolean run(Configuration conf, String in, String out) throws Exception {
 		Job job = Job.getInstance(conf, "Create Mahout vector");
 		job.setJarByClass(CreateVectorMapred.class);
 		job.setMapperClass(CreateVectorMapper.class);
+		boolean splitRun = conf.get("type", "").equals("split");
+		if (conf.get("vectorizer", "").equals(HASHING_VECTORIZER)) {
+			if (!splitRun && !conf.get("type", "").equals("train")) {
+				System.err.println("hashing vectorizer needs the DFs of the training set--use a 'split' run");
+				return false;
+			}
+			//articles and DFs go through the reducers, which write the vectors, one part-r-* file each
+			job.setMapOutputKeyClass(LongWritable.class);
+			job.setMapOutputValueClass(HashedRecord.class);
+			job.setPartitionerClass(HashedPartitioner.class);
+			job.setReducerClass(HashedIdfReducer.class);
+		} else {
+			//map-only--vectors are written straight from the mappers, one part-m-* file per split
+			job.setNumReduceTasks(0);
+		}
 		job.setOutputKeyClass(Text.class);
-		job.setOutputValueClass(VectorWritable.class);
-		job.setOutputFormatClass(SequenceFileOutputFormat.class);
-		FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
-		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
+		boolean blockFormat = conf.get("vectorFormat", "").equals(BLOCK_FORMAT);
+		//multi-label training records are a different value class than plain vectors
+		Class<? extends Writable> trainValueClass = conf.getBoolean("multiLabel", false) || blockFormat
+				? MultiLabelVectorWritable.class : VectorWritable.class;
+		Class<? extends Writable> testValueClass = blockFormat ? MultiLabelVectorWritable.class : VectorWritable.class;
+		@SuppressWarnings("rawtypes")
+		Class<? extends OutputFormat> outputFormat = blockFormat
+				? VectorBlockOutputFormat.class : SequenceFileOutputFormat.class;
+		job.setOutputValueClass(conf.get("type", "").equals("train") ? trainValueClass : testValueClass);
+		if (splitRun) {
+			MultipleOutputs.addNamedOutput(job, TRAIN_OUTPUT, outputFormat, Text.class, trainValueClass);
+			MultipleOutputs.addNamedOutput(job, TEST_OUTPUT, outputFormat, Text.class, testValueClass);
+			//nothing goes to the default output, so do not create empty part files for it
+			LazyOutputFormat.setOutputFormatClass(job, outputFormat);
+		} else {
+			job.setOutputFormatClass(outputFormat);
+		}
+		if (conf.get("vocabularyPath") != null) {
+			//ship binary vocabulary to every task, linked into its working directory
+			CacheFiles.add(job, new Path(conf.get("vocabularyPath")), VOCABULARY_CACHE_NAME, conf);
+		}
+		if (conf.get("professionsPath") != null) {
+			//ship binary professions index to every task, linked into its working directory
+			CacheFiles.add(job, new Path(conf.get("professionsPath")), PROFESSIONS_CACHE_NAME, conf);
+		}
+		LemmaIndexInput.setInput(job, in);
+		FileOutputFormat.setOutputPath(job, new Path(out));
+		if (conf.get("vectorCodec") != null) {
+			Class<? extends CompressionCodec> codec =
+					new CompressionCodecFactory(conf).getCodecClassByName(conf.get("vectorCodec"));
+			if (codec == null) {
+				System.err.println("Unknown compression codec " + conf.get("vectorCodec"));
+				return false;
+			}
+			FileOutputFormat.setCompressOutput(job, true);
+			FileOutputFormat.setOutputCompressorClass(job, codec);
+		}
+		if (FileOutputFormat.getCompressOutput(job) && conf.get(FileOutputFormat.COMPRESS_TYPE) == null) {
+			//compress runs of vectors together--vectors compressed one by one (RECORD) barely shrink
+			SequenceFileOutputFormat.setOutputCompressionType(job, CompressionType.BLOCK);
+		}
 		boolean finishedOK = job.waitForCompletion(true);
-		// copy the HDFS file containing vectors to a local file, since Mahout reads from local!
-		FileSystem fs = FileSystem.newInstance(conf);
-		if (conf.get("type").equals("train"))
-			fs.copyToLocalFile(new Path(otherArgs[1], "part-r-00000"), new Path(TRAIN_MAHOUT_SEQFILE_PATH));
-		else if (conf.get("type").equals("test"))
-			fs.copyToLocalFile(new Path(otherArgs[1], "part-r-00000"), new Path(TEST_MAHOUT_SEQFILE_PATH));
-		fs.close();
-		System.exit( finishedOK? 0 : 1); 
+		// optionally copy the whole HDFS output directory (every part) to local disk
+		if (finishedOK && conf.getBoolean("copyToLocal", false)) {
+			FileSystem fs = FileSystem.newInstance(conf);
+			if (splitRun) {
+				copyToLocal(fs, new Path(out, TRAIN_OUTPUT), new Path(TRAIN_MAHOUT_SEQFILE_PATH), conf);
+				copyToLocal(fs, new Path(out, TEST_OUTPUT), new Path(TEST_MAHOUT_SEQFILE_PATH), conf);
+			} else {
+				Path localPath = new Path(conf.get("type").equals("train") ? TRAIN_MAHOUT_SEQFILE_PATH : TEST_MAHOUT_SEQFILE_PATH);
+				copyToLocal(fs, new Path(out), localPath, conf);
+			}
+			fs.close();
+		}
+		if (finishedOK) {
+			for (CreateVectorEvent event : CreateVectorEvent.values()) {
+				long count = job.getCounters().findCounter(event).getValue();
+				if (count > 0) {
+					System.out.println(event + ": " + count);
+				}
+			}
+		}
+		if (finishedOK && splitRun) {
+			System.out.println("Training set articles: "
+					+ job.getCounters().findCounter(CreateVectorCounter.TRAIN_ARTICLES).getValue());
+			System.out.println("Test set articles: "
+					+ job.getCounters().findCounter(CreateVectorCounter.TEST_ARTICLES).getValue());
+		}
+		return finishedOK;
+	}
+	
+	//replaces localPath with a copy of the HDFS output directory
+	private static void copyToLocal(FileSystem fs, Path outputDir, Path localPath, Configuration conf) throws IOException {
+		FileSystem.getLocal(conf).delete(localPath, true);
+		fs.copyToLocalFile(outputDir, localPath);
 	}
 }
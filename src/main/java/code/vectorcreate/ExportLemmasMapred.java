@@ -3,101 +3,298 @@
  * pairs, and outputs a file of lemma, documentFrequency pairs. The output not
  * only gives us document frequencies for every lemma, but also defines
  * our vocabulary. Note that we exclude from output all lemmas that have
- * a document frequency of 1, on the assumption that these lemmas are
- * mostly erroneous/junk lemmas.
+ * a document frequency below minDF (DEFAULT 2), on the assumption that
+ * these lemmas are mostly erroneous/junk lemmas. Once the job is done, the
+ * lemma, DF pairs are also written as a binary Vocabulary (vocabulary.bin
+ * in the output directory) with precomputed IDFs, which CreateVectorMapred
+ * memory-maps instead of parsing the text output. The binary vocabulary is
+ * further pruned by maxDFRatio and maxVocabularySize if they are set (see
+ * VocabularyPruning), so with those the text output holds more lemmas than
+ * the vocabulary. If testRatio is set, only articles TrainTestSplit puts in
+ * the training set are counted, so the vocabulary matches a 'split' run of
+ * CreateVectorMapred over the same input.
+ *
+ * Mappers count lemmas in a LemmaCountMap and write one (lemma, DF) pair
+ * per distinct lemma when the map fills up (lemmaCountMapBytes) or the heap
+ * runs low, and once more at the end of the task, instead of a (lemma, 1)
+ * pair per lemma of every article, which cuts the map output that has to be
+ * sorted, spilled and shuffled down to a fraction.
  */
 
 package code.vectorcreate;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.LineReader;
 
 public class ExportLemmasMapred {
+	//name of the binary vocabulary written next to the text output
+	public static final String VOCABULARY_FILE = "vocabulary.bin";
+	
+	/* DOCUMENTS counts documents that have words, used as the IDF document count unless numTrainingDocs is
+	 * given. LEMMA_MAP_FLUSHES counts the times mappers wrote out their lemma counts, LEMMAS_BELOW_MIN_DF the
+	 * lemmas the reducers dropped, NO_WORDS the skipped records without a lemma index--counted instead of
+	 * logged, the log only gets a few samples (SampledLog)*/
+	public static enum ExportLemmasCounter { DOCUMENTS, LEMMA_MAP_FLUSHES, LEMMAS_BELOW_MIN_DF, NO_WORDS }
+	
+	//DEFAULT bytes of lemma counts a mapper holds before writing them out
+	private static final long DEFAULT_LEMMA_MAP_BYTES = 32L << 20;
+	//share of the maximum heap in use at which a mapper writes out its lemma counts early
+	private static final double HEAP_PRESSURE = 0.9;
+	//documents between two heap checks
+	private static final int HEAP_CHECK_INTERVAL = 1000;
 	
 	public static class ExportLemmasMapper extends Mapper<LongWritable, Text, Text, IntWritable> {
-		Text outputKey;
-		IntWritable outputVal;
+		private final Text outputKey = new Text();
+		private final IntWritable outputVal = new IntWritable(1);
+		//walks the lemma index in place--reused across records
+		private final LemmaIndexCursor cursor = new LemmaIndexCursor();
+		//only set if the input is split into training and test set
+		private TrainTestSplit split;
+		//DFs counted since the last flush--null if in-mapper counting is off (lemmaCountMapBytes=0)
+		private LemmaCountMap counts;
+		private int documentsSinceHeapCheck;
+		private Counter flushes;
+		private Counter documents;
+		private Counter noWords;
+		private SampledLog noWordsLog;
+		
+		@Override
+		protected void setup(Mapper<LongWritable, Text, Text, IntWritable>.Context context)
+				throws IOException, InterruptedException {
+			super.setup(context);
+			split = TrainTestSplit.fromConf(context.getConfiguration());
+			long mapBytes = context.getConfiguration().getLong("lemmaCountMapBytes", DEFAULT_LEMMA_MAP_BYTES);
+			if (mapBytes > 0) {
+				counts = new LemmaCountMap(mapBytes);
+			}
+			flushes = context.getCounter(ExportLemmasCounter.LEMMA_MAP_FLUSHES);
+			documents = context.getCounter(ExportLemmasCounter.DOCUMENTS);
+			noWords = context.getCounter(ExportLemmasCounter.NO_WORDS);
+			noWordsLog = SampledLog.fromConf(context.getConfiguration(), System.err);
+		}
 		
-		//outputs lemma, count=1 pairs
+		//counts lemmas of the document, writing out the counts if the map is full--or outputs lemma, 1 pairs
 		@Override
 		public void map(LongWritable lineNum, Text docLine, Context context)
 				throws IOException, InterruptedException {
-			//get the string with lemmas and their frequencies discarding the title
-			String docLineStr = docLine.toString();
-			if( docLineStr.indexOf('<') == -1){
-				System.err.println("Document has no words!");
+			//lemmas and their frequencies start after the first '<', which also discards the title
+			byte[] bytes = docLine.getBytes();
+			int length = docLine.getLength();
+			int indexStart = LemmaIndexCursor.indexOf(bytes, 0, length, (byte) '<');
+			if (indexStart == -1){
+				noWords.increment(1);
+				noWordsLog.log("Document has no words!");
+			}else if (split != null && split.isTest(title(bytes, length))){
+				//test set article--not part of the training set vocabulary
 			}else{
-				outputKey = new Text();
-				outputVal = new IntWritable();
-				String lemmaFreqsStr = docLineStr.substring(docLineStr.indexOf('<')+1);
-				// single pass in the lemma-frequencies line by splitting with ">,".
-				for (String lemmaFreq: lemmaFreqsStr.split(">,")){
-					String lemmaFreqCleaned = lemmaFreq.replaceAll(">|<", "");
-					String lemma = lemmaFreqCleaned.substring(0, lemmaFreqCleaned.lastIndexOf(','));
-					outputKey.set(lemma);
-					outputVal.set(1);
-					context.write(outputKey, outputVal);
+				// single pass over the lemma-frequencies bytes, one <lemma,count> entry at a time
+				documents.increment(1);
+				cursor.reset(bytes, indexStart + 1, length);
+				if (counts == null){
+					while (cursor.next()){
+						cursor.lemmaTo(outputKey);
+						context.write(outputKey, outputVal);
+					}
+					return;
 				}
+				while (cursor.next()){
+					counts.add(cursor.lemmaBytes(), cursor.lemmaStart(), cursor.lemmaLength(), 1);
+				}
+				if (counts.full() || heapPressure()){
+					flush(context);
+				}
+			}
+		}
+		
+		//true every HEAP_CHECK_INTERVAL documents if the heap is nearly used up
+		private boolean heapPressure() {
+			if (++documentsSinceHeapCheck < HEAP_CHECK_INTERVAL) {
+				return false;
+			}
+			documentsSinceHeapCheck = 0;
+			Runtime runtime = Runtime.getRuntime();
+			return runtime.totalMemory() - runtime.freeMemory() > HEAP_PRESSURE * runtime.maxMemory();
+		}
+		
+		//outputs lemma, DF pairs of the counted documents and empties the map
+		private void flush(Context context) throws IOException, InterruptedException {
+			for (int i = 0; i < counts.size(); i++) {
+				counts.lemmaTo(i, outputKey);
+				outputVal.set(counts.count(i));
+				context.write(outputKey, outputVal);
+			}
+			counts.clear();
+			flushes.increment(1);
+		}
+		
+		@Override
+		protected void cleanup(Mapper<LongWritable, Text, Text, IntWritable>.Context context)
+				throws IOException, InterruptedException {
+			if (counts != null && counts.size() > 0) {
+				flush(context);
+			}
+			super.cleanup(context);
+		}
+		
+		//article title, the way CreateVectorMapper reads it
+		private static String title(byte[] bytes, int length) throws IOException {
+			return LemmaIndexVectorizer.title(bytes, LemmaIndexVectorizer.titleEnd(bytes, length));
+		}
+	}
+	
+	/* sums partial DFs without dropping any lemma--a lemma with a partial DF of 1 in one spill may well have
+	 * a DF above 1 over the whole input, so the combiner must leave pruning to the reducer*/
+	public static class ExportLemmasCombiner extends Reducer <Text, IntWritable, Text, IntWritable> {
+		private final IntWritable outVal = new IntWritable();
+		
+		@Override
+		public void reduce(Text lemma, Iterable<IntWritable> DFs, Context context)
+				throws IOException, InterruptedException {
+			int df=0;
+			for(IntWritable dfWritable : DFs){
+				df+=dfWritable.get();
 			}
+			outVal.set(df);
+			context.write(lemma, outVal);
 		}
 	}
 	
 	//outputs lemma, documentFrequency pairs
 	public static class ExportLemmasReducer extends Reducer <Text, IntWritable, Text, IntWritable> {
+		private final IntWritable outVal = new IntWritable();
+		private VocabularyPruning pruning;
+		private Counter belowMinDF;
+		
+		@Override
+		protected void setup(Reducer<Text, IntWritable, Text, IntWritable>.Context context)
+				throws IOException, InterruptedException {
+			super.setup(context);
+			pruning = VocabularyPruning.fromConf(context.getConfiguration());
+			belowMinDF = context.getCounter(ExportLemmasCounter.LEMMAS_BELOW_MIN_DF);
+		}
+		
 		@Override
 		public void reduce(Text lemma, Iterable<IntWritable> DFs, Context context)
 				throws IOException, InterruptedException {
-			Text outKey;
-			IntWritable outVal;
-			
-			outKey = new Text();
-			outVal = new IntWritable();
-			outKey.set(lemma);
 			int df=0;
 			for(IntWritable dfWritable : DFs){
 				df+=dfWritable.get();
 			}
 			outVal.set(df);
 			
-			if(df != 1) {context.write(outKey, outVal);}
-			else {} //exclude from vocab words that appear in only one document
-			
+			if(pruning.meetsMinDF(df)) {context.write(lemma, outVal);}
+			else {belowMinDF.increment(1);} //exclude from vocab words that appear in too few documents
 		}
 	}
 	
+	/* reads the lemma, DF pairs from every part file in dfDir and writes those pruning keeps as a binary
+	 * vocabulary with precomputed IDFs--returns number of lemmas written*/
+	public static int writeVocabulary(FileSystem fs, Path dfDir, Path vocabularyPath, int numDocuments,
+			VocabularyPruning pruning) throws IOException {
+		Vocabulary.Builder builder = new Vocabulary.Builder();
+		Text line = new Text();
+		for (FileStatus status : fs.listStatus(dfDir)) {
+			if (!status.getPath().getName().startsWith("part-")) {
+				continue;
+			}
+			FSDataInputStream in = fs.open(status.getPath());
+			LineReader reader = new LineReader(in);
+			while (reader.readLine(line) > 0) {
+				//split key and value by tab
+				byte[] bytes = line.getBytes();
+				int tab = LemmaIndexCursor.lastIndexOf(bytes, 0, line.getLength(), (byte) '\t');
+				if (tab == -1) {
+					System.err.println("Malformed DF line: " + line);
+					continue;
+				}
+				int docFreq = Integer.parseInt(Text.decode(bytes, tab + 1, line.getLength() - tab - 1).trim());
+				builder.add(Arrays.copyOf(bytes, tab), docFreq);
+			}
+			reader.close();
+		}
+		int pruned = builder.prune(pruning, numDocuments);
+		if (pruned > 0) {
+			System.out.println("Pruned " + pruned + " lemmas from the vocabulary (" + pruning + ").");
+		}
+		OutputStream out = fs.create(vocabularyPath, true);
+		int numLemmas = builder.writeTo(out, numDocuments);
+		out.close();
+		return numLemmas;
+	}
+	
 	//runs mapreduce job
 	public static void main(String[] args) throws Exception{
 
 		Configuration conf = new Configuration();
+		/* optional parameter:
+		 * numTrainingDocs = NUMBER OF DOCUMENTS IN THE TRAINING SET, used for the IDFs in the binary
+		 * vocabulary. Defaults to the number of documents with words that the job saw
+		 * testRatio = FRACTION OF ARTICLES HELD OUT AS TEST SET (SEE TrainTestSplit)--if set, only
+		 * training set articles are counted
+		 * minDF, maxDFRatio, maxVocabularySize = VOCABULARY PRUNING (SEE VocabularyPruning)--by
+		 * default only lemmas that appear in a single document are dropped
+		 * lemmaCountMapBytes = BYTES OF LEMMA COUNTS A MAPPER HOLDS BEFORE WRITING THEM OUT (DEFAULT 32 MB),
+		 * 0 to write a lemma, 1 pair per lemma of every article instead
+		 * combineSplitSize = TARGET SIZE OF COMBINED INPUT SPLITS (128m, 1g...)--MANY SMALL INPUT FILES GO TO ONE
+		 * MAP TASK INSTEAD OF ONE EACH (SEE LemmaIndexInput). bzip2 COMPRESSED INPUT IS SPLIT EITHER WAY
+		 * logSamples, logIntervalMillis = HOW MANY RECORDS WITHOUT WORDS EACH TASK LOGS, SEE SampledLog--ALL OF
+		 * THEM ARE COUNTED (NO_WORDS)
+		 */
 		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
 		
 		if (otherArgs.length != 2){
 			System.err.println("Usage: export-lemmas-df-mapred <in> <out>");
 			System.exit(2);
 		}
-		
+		System.exit(run(conf, otherArgs[0], otherArgs[1]) ? 0 : 1);
+	}
+	
+	//runs the job over in and writes the DFs and the binary vocabulary to out--returns false if the job failed
+	public static boolean run(Configuration conf, String in, String out) throws Exception {
 		Job job = Job.getInstance(conf, "Export lemmas and DFs");
 		job.setJarByClass(ExportLemmasMapred.class);
 		job.setMapperClass(ExportLemmasMapper.class);
 		job.setMapOutputKeyClass(Text.class);
 		job.setMapOutputValueClass(IntWritable.class);
-		job.setCombinerClass(ExportLemmasReducer.class);
+		job.setCombinerClass(ExportLemmasCombiner.class);
 		job.setReducerClass(ExportLemmasReducer.class);
 		job.setOutputKeyClass(Text.class);
 		job.setOutputValueClass(IntWritable.class);		
-		FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
-		FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
-		System.exit(job.waitForCompletion(true) ? 0 : 1);
+		LemmaIndexInput.setInput(job, in);
+		FileOutputFormat.setOutputPath(job, new Path(out));
+		if (!job.waitForCompletion(true)) {
+			return false;
+		}
+		
+		long noWords = job.getCounters().findCounter(ExportLemmasCounter.NO_WORDS).getValue();
+		if (noWords > 0) {
+			System.out.println(ExportLemmasCounter.NO_WORDS + ": " + noWords);
+		}
+		int numDocuments = conf.getInt("numTrainingDocs",
+				(int) job.getCounters().findCounter(ExportLemmasCounter.DOCUMENTS).getValue());
+		Path vocabularyPath = new Path(out, VOCABULARY_FILE);
+		FileSystem fs = vocabularyPath.getFileSystem(conf);
+		int numLemmas = writeVocabulary(fs, new Path(out), vocabularyPath, numDocuments,
+				VocabularyPruning.fromConf(conf));
+		System.out.println("Wrote vocabulary " + vocabularyPath + " with " + numLemmas + " lemmas and "
+				+ numDocuments + " documents.");
+		return true;
 	}
 }
@@ -0,0 +1,97 @@
+/* FeatureHasher - Turns the lemma index of one article into a term
+ * frequency vector of a fixed number of features without a vocabulary:
+ * every lemma goes to the feature a hash of its bytes picks. The hash is
+ * MurmurHash64A of the UTF-8 bytes with a fixed seed, so a lemma maps to
+ * the same feature in every task, JVM and run, and vectors built by
+ * different jobs agree as long as they have the same numFeatures. The
+ * lowest bit of the hash is the lemma's sign and the rest picks its
+ * feature. With signed hashing, lemmas of one article that collide add up
+ * with their signs, so on average collisions cancel out instead of piling
+ * up on a feature--and since Naive Bayes needs non-negative weights, the
+ * feature value is the absolute value of the sum. Unsigned hashing simply
+ * adds up the counts of colliding lemmas. Term frequencies are weighted by
+ * TermWeighting.tf() once colliding lemmas are added up.
+ *
+ * The vectors hold term frequencies only--IDFs need the DFs of the hashed
+ * features over the whole training set, which CreateVectorMapred counts
+ * per task (countDocFreqs()) and sums in the same job, which is also where
+ * vectors get L2 normalized. One instance per thread: it reuses a
+ * LemmaIndexCursor and a SparseVectorBuffer between calls.
+ */
+
+package code.vectorcreate;
+
+import java.io.IOException;
+
+import org.apache.mahout.math.MurmurHash;
+import org.apache.mahout.math.Vector;
+
+public class FeatureHasher {
+	public static final int DEFAULT_FEATURES = 1 << 18;
+	//seed of the lemma hash--changing it changes the feature of every lemma
+	private static final int SEED = 0x5eed;
+
+	private final int numFeatures;
+	private final boolean signed;
+	private final TermWeighting weighting;
+	private final LemmaIndexCursor cursor = new LemmaIndexCursor();
+	//(feature, signed count) pairs of the article being vectorized
+	private final SparseVectorBuffer buffer = new SparseVectorBuffer();
+
+	public FeatureHasher(int numFeatures, boolean signed, TermWeighting weighting) {
+		if (numFeatures <= 0) {
+			throw new IllegalArgumentException("Number of hashed features must be positive: " + numFeatures);
+		}
+		this.numFeatures = numFeatures;
+		this.signed = signed;
+		this.weighting = weighting;
+	}
+
+	//length of all feature vectors
+	public int numFeatures() {
+		return numFeatures;
+	}
+
+	//64 bit hash of the lemma in bytes[start, start + length)
+	static long hash(byte[] bytes, int start, int length) {
+		return MurmurHash.hash64A(bytes, start, length, SEED);
+	}
+
+	/* builds the hashed TF vector of the lemma index in bytes[start, end)--never null, lemmas with malformed
+	 * counts are left out*/
+	public Vector vectorize(byte[] bytes, int start, int end, LemmaIndexVectorizer.Listener listener)
+			throws IOException {
+		buffer.clear();
+		cursor.reset(bytes, start, end);
+		while (cursor.next()) {
+			int termFreq = cursor.count();
+			if (termFreq < 0) {
+				listener.malformedCount(cursor);
+				continue;
+			}
+			long hash = hash(cursor.lemmaBytes(), cursor.lemmaStart(), cursor.lemmaLength());
+			int feature = (int) ((hash >>> 1) % numFeatures);
+			double value = signed && (hash & 1) != 0 ? -termFreq : termFreq;
+			buffer.add(feature, value);
+		}
+		int features = buffer.sortByIndex(true);
+		for (int i = 0; i < features; i++) {
+			buffer.setValue(i, weighting.tf(Math.abs(buffer.value(i))));
+		}
+		return buffer.toVector(numFeatures);
+	}
+
+	//adds one to the DF of every feature vector has a value for
+	public static void countDocFreqs(Vector vector, int[] docFreqs) {
+		for (Vector.Element element : vector.nonZeroes()) {
+			if (element.get() != 0) {
+				docFreqs[element.index()]++;
+			}
+		}
+	}
+
+	//IDF of a feature found in docFreq of numDocuments documents, rounded like Vocabulary's IDFs
+	public static float idf(int docFreq, int numDocuments) {
+		return (float) Math.log10((double) numDocuments / docFreq);
+	}
+}
@@ -0,0 +1,102 @@
+/* LabelDictionary - Two-way mapping between profession names and integer
+ * label ids. A model's dictionary is saved next to it (labels.txt in the
+ * model directory, one profession per line, line number = label id), so
+ * whatever scores with the model turns label ids back into professions
+ * without scanning the training vectors, and turns the actual professions
+ * of a test article into label ids once instead of comparing strings.
+ */
+
+package code.vectorcreate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.classifier.naivebayes.BayesUtils;
+
+public class LabelDictionary {
+	//file the dictionary is saved as inside a model directory
+	public static final String FILE = "labels.txt";
+
+	private final List<String> names;
+	private final Map<String, Integer> ids;
+
+	//label id of every name is its index in names
+	public LabelDictionary(List<String> names) {
+		this.names = Collections.unmodifiableList(new ArrayList<String>(names));
+		this.ids = new HashMap<String, Integer>();
+		for (int id = 0; id < names.size(); id++) {
+			if (ids.put(names.get(id), id) != null) {
+				throw new IllegalArgumentException("Label " + names.get(id) + " appears twice");
+			}
+		}
+	}
+
+	//dictionary of a label index written by Mahout's TrainNaiveBayesJob (-li)
+	public static LabelDictionary fromLabelIndex(Configuration conf, Path labelIndex) {
+		Map<Integer, String> labelIndexMap = BayesUtils.readLabelIndex(conf, labelIndex);
+		List<String> names = new ArrayList<String>(labelIndexMap.size());
+		for (int id = 0; id < labelIndexMap.size(); id++) {
+			names.add(labelIndexMap.get(id));
+		}
+		return new LabelDictionary(names);
+	}
+
+	public static LabelDictionary read(FileSystem fs, Path path) throws IOException {
+		BufferedReader input = new BufferedReader(new InputStreamReader(fs.open(path), StandardCharsets.UTF_8));
+		List<String> names = new ArrayList<String>();
+		String line;
+		while ((line = input.readLine()) != null) {
+			names.add(line);
+		}
+		input.close();
+		return new LabelDictionary(names);
+	}
+
+	public void write(FileSystem fs, Path path) throws IOException {
+		PrintWriter output = new PrintWriter(new OutputStreamWriter(fs.create(path, true), StandardCharsets.UTF_8));
+		for (String name : names) {
+			output.println(name);
+		}
+		output.close();
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	public String name(int id) {
+		return names.get(id);
+	}
+
+	//label id of name, or -1 if it is not a label
+	public int id(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	//label ids of names, -1 for names that are not labels
+	public int[] ids(String[] names) {
+		int[] labelIds = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			labelIds[i] = id(names[i].trim());
+		}
+		return labelIds;
+	}
+
+	//names in label id order
+	public List<String> names() {
+		return names;
+	}
+}
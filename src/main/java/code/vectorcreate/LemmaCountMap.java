@@ -0,0 +1,128 @@
+/* LemmaCountMap - Counts lemmas in primitive arrays, for mappers that
+ * aggregate their (lemma, count) pairs in memory instead of writing one
+ * pair per lemma occurrence. Lemma bytes are copied once into a byte arena
+ * and entries are found by open addressing on their hash, so counting a
+ * lemma that is already in the map allocates nothing. The map is bounded:
+ * once its entries take up maxBytes, full() returns true and the mapper
+ * writes them out and clears it (its arrays, grown by doubling, stay
+ * within a few times that).
+ */
+
+package code.vectorcreate;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+public class LemmaCountMap {
+	//bytes the entries may take up, lemma bytes plus their share of the tables
+	private final long maxBytes;
+	//table and per entry array bytes of one entry--the table is kept at most half full
+	private static final int ENTRY_BYTES = 2 * 4 + 4 + 4 + 4;
+
+	//open addressing table of entry number + 1, 0 for an empty slot--its length is a power of two
+	private int[] table;
+	//per entry: hash, start in the arena, count--entry i's lemma is arena[starts[i], starts[i + 1])
+	private int[] hashes;
+	private int[] starts;
+	private int[] counts;
+	private byte[] arena;
+	private int size;
+
+	public LemmaCountMap(long maxBytes) {
+		this.maxBytes = maxBytes;
+		table = new int[1 << 12];
+		hashes = new int[1 << 11];
+		starts = new int[(1 << 11) + 1];
+		counts = new int[1 << 11];
+		arena = new byte[1 << 16];
+	}
+
+	//adds count to the lemma bytes[start, start + length)
+	public void add(byte[] bytes, int start, int length, int count) {
+		int hash = mix(WritableComparator.hashBytes(bytes, start, length));
+		int mask = table.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			int entry = table[slot] - 1;
+			if (entry == -1) {
+				table[slot] = insert(hash, bytes, start, length, count) + 1;
+				if (2 * size > table.length) {
+					rehash();
+				}
+				return;
+			}
+			if (hashes[entry] == hash && WritableComparator.compareBytes(arena, starts[entry],
+					starts[entry + 1] - starts[entry], bytes, start, length) == 0) {
+				counts[entry] += count;
+				return;
+			}
+		}
+	}
+
+	//appends a new entry--returns its number
+	private int insert(int hash, byte[] bytes, int start, int length, int count) {
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, 2 * size);
+			starts = Arrays.copyOf(starts, 2 * size + 1);
+			counts = Arrays.copyOf(counts, 2 * size);
+		}
+		int arenaLength = starts[size];
+		if (arenaLength + length > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(arenaLength + length, 2 * arena.length));
+		}
+		System.arraycopy(bytes, start, arena, arenaLength, length);
+		hashes[size] = hash;
+		counts[size] = count;
+		starts[size + 1] = arenaLength + length;
+		return size++;
+	}
+
+	private void rehash() {
+		table = new int[2 * table.length];
+		int mask = table.length - 1;
+		for (int entry = 0; entry < size; entry++) {
+			int slot = hashes[entry] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = entry + 1;
+		}
+	}
+
+	//spreads the bits of Text's multiplicative hash, whose low bits alone cluster badly
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	//number of distinct lemmas
+	public int size() {
+		return size;
+	}
+
+	//bytes taken up by the entries
+	public long bytes() {
+		return starts[size] + (long) ENTRY_BYTES * size;
+	}
+
+	//true once the map has grown to its bound and should be written out
+	public boolean full() {
+		return bytes() >= maxBytes;
+	}
+
+	//sets key to the lemma of entry, 0 <= entry < size()
+	public void lemmaTo(int entry, Text key) {
+		key.set(arena, starts[entry], starts[entry + 1] - starts[entry]);
+	}
+
+	public int count(int entry) {
+		return counts[entry];
+	}
+
+	//empties the map, keeping its arrays for the next round of counting
+	public void clear() {
+		Arrays.fill(table, 0);
+		size = 0;
+	}
+}
@@ -0,0 +1,185 @@
+/* LemmaIndexCursor - Walks the <lemma,count> entries of a lemma index
+ * (as produced by part 1 of the assignment) directly over the bytes that
+ * back a Hadoop Text. One cursor is meant to be reused for every record a
+ * mapper sees, so parsing an article creates no Strings, no regexes and no
+ * boxed integers. Entries are delimited the same way the old
+ * split(">,")/replaceAll(">|<", "") code delimited them: an entry ends at
+ * ">,", angle brackets are not part of the lemma or the count, and the LAST
+ * comma of an entry separates the lemma from its count (lemmas may contain
+ * commas themselves).
+ */
+
+package code.vectorcreate;
+
+import org.apache.hadoop.io.Text;
+
+public class LemmaIndexCursor {
+	//bytes being walked, and the window of them that holds the lemma index
+	private byte[] bytes;
+	private int position;
+	private int end;
+
+	//current entry--lemma bytes live either in the walked array or, if brackets had to be dropped, in scratch
+	private byte[] lemmaBytes;
+	private int lemmaStart;
+	private int lemmaLength;
+	private int count;
+
+	//only used for the rare lemma that has '<' or '>' in its middle
+	private byte[] scratch = new byte[64];
+
+	//points cursor at bytes[start, end)--the window should hold nothing but the lemma index
+	public void reset(byte[] bytes, int start, int end) {
+		this.bytes = bytes;
+		this.position = start;
+		this.end = end;
+		this.lemmaBytes = bytes;
+		this.lemmaStart = start;
+		this.lemmaLength = 0;
+		this.count = -1;
+	}
+
+	/* advances to the next <lemma,count> entry--returns false once the index is exhausted. Entries without
+	 * any comma (e.g. the empty piece after a trailing ">,") carry no lemma and are skipped*/
+	public boolean next() {
+		while (position < end) {
+			int pieceStart = position;
+			int pieceEnd = indexOfDelimiter(bytes, position, end);
+			if (pieceEnd == -1) {
+				pieceEnd = end;
+				position = end;
+			} else {
+				position = pieceEnd + 2;
+			}
+
+			//use last comma as delimiter, since lemma could contain comma
+			int lastComma = lastIndexOf(bytes, pieceStart, pieceEnd, (byte) ',');
+			if (lastComma == -1) {
+				continue;
+			}
+			setLemma(pieceStart, lastComma);
+			count = parseCount(bytes, lastComma + 1, pieceEnd);
+			return true;
+		}
+		return false;
+	}
+
+	//array holding the current lemma's UTF-8 bytes--only valid until the next call to next()
+	public byte[] lemmaBytes() {
+		return lemmaBytes;
+	}
+
+	public int lemmaStart() {
+		return lemmaStart;
+	}
+
+	public int lemmaLength() {
+		return lemmaLength;
+	}
+
+	//count of the current lemma, or -1 if the count was not a well formed integer
+	public int count() {
+		return count;
+	}
+
+	//copies current lemma into a reusable Text (no new objects once the Text has grown large enough)
+	public void lemmaTo(Text text) {
+		text.set(lemmaBytes, lemmaStart, lemmaLength);
+	}
+
+	//drops angle brackets from bytes[from, to) and records where the cleaned lemma lives
+	private void setLemma(int from, int to) {
+		//every entry normally starts with '<', which is the only bracket it has
+		if (from < to && bytes[from] == '<') {
+			from++;
+		}
+		if (indexOfBracket(bytes, from, to) == -1) {
+			lemmaBytes = bytes;
+			lemmaStart = from;
+			lemmaLength = to - from;
+			return;
+		}
+		if (scratch.length < to - from) {
+			scratch = new byte[Math.max(to - from, scratch.length * 2)];
+		}
+		int length = 0;
+		for (int i = from; i < to; i++) {
+			if (bytes[i] != '<' && bytes[i] != '>') {
+				scratch[length++] = bytes[i];
+			}
+		}
+		lemmaBytes = scratch;
+		lemmaStart = 0;
+		lemmaLength = length;
+	}
+
+	//parses a (possibly signed) decimal integer in bytes[from, to), ignoring angle brackets--returns -1 if malformed
+	private static int parseCount(byte[] bytes, int from, int to) {
+		long value = 0;
+		boolean negative = false;
+		boolean sawDigit = false;
+		boolean sawSign = false;
+		for (int i = from; i < to; i++) {
+			byte b = bytes[i];
+			if (b == '<' || b == '>') {
+				continue;
+			}
+			if (b >= '0' && b <= '9') {
+				value = value * 10 + (b - '0');
+				if (value > Integer.MAX_VALUE + 1L) {
+					return -1;
+				}
+				sawDigit = true;
+			} else if ((b == '-' || b == '+') && !sawDigit && !sawSign) {
+				negative = (b == '-');
+				sawSign = true;
+			} else {
+				return -1;
+			}
+		}
+		//negative counts are as meaningless to us as malformed ones
+		if (!sawDigit || negative) {
+			return -1;
+		}
+		return value > Integer.MAX_VALUE ? -1 : (int) value;
+	}
+
+	//index of the '>' of the next ">," in bytes[from, to), or -1
+	private static int indexOfDelimiter(byte[] bytes, int from, int to) {
+		for (int i = from; i < to - 1; i++) {
+			if (bytes[i] == '>' && bytes[i + 1] == ',') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOfBracket(byte[] bytes, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (bytes[i] == '<' || bytes[i] == '>') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	//first index of b in bytes[from, to), or -1
+	public static int indexOf(byte[] bytes, int from, int to, byte b) {
+		for (int i = from; i < to; i++) {
+			if (bytes[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	//last index of b in bytes[from, to), or -1
+	public static int lastIndexOf(byte[] bytes, int from, int to, byte b) {
+		for (int i = to - 1; i >= from; i--) {
+			if (bytes[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
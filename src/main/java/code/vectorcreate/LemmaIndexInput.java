@@ -0,0 +1,44 @@
+/* LemmaIndexInput - Sets up the input of the jobs that read part 1's lemma
+ * index files (ExportLemmasMapred, SelectFeaturesMapred and
+ * CreateVectorMapred). Part 1 leaves many files of very uneven size, and
+ * by default every file is at least one split, so the jobs start a map
+ * task for every small file and wait on the few that got a large one.
+ * With combineSplitSize set, the input is read through
+ * CombineTextInputFormat instead, which packs whole small files and blocks
+ * of large files into splits of up to that many bytes, preferring blocks
+ * of the same node, then of the same rack.
+ *
+ * Compressed input is read through the codec of each file's extension
+ * either way. bzip2 files (a SplittableCompressionCodec) are split at
+ * block boundaries like uncompressed ones, while a file of any other codec
+ * (gzip, deflate, snappy...) is always one split--so part 1's output is
+ * best compressed with bzip2, which keeps large files spread over several
+ * map tasks while the jobs read a fraction of the bytes.
+ */
+
+package code.vectorcreate;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.CombineTextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+public class LemmaIndexInput {
+	//target size of combined splits--no combining if not set
+	public static final String COMBINE_SPLIT_SIZE = "combineSplitSize";
+
+	//adds in as the input of job--as combined splits if the job's configuration sets combineSplitSize
+	public static void setInput(Job job, String in) throws IOException {
+		Configuration conf = job.getConfiguration();
+		FileInputFormat.addInputPath(job, new Path(in));
+		//takes sizes like 128m or 1g
+		long splitSize = conf.getLongBytes(COMBINE_SPLIT_SIZE, 0);
+		if (splitSize > 0) {
+			job.setInputFormatClass(CombineTextInputFormat.class);
+			CombineTextInputFormat.setMaxInputSplitSize(job, splitSize);
+		}
+	}
+}
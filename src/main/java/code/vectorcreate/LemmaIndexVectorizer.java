@@ -0,0 +1,119 @@
+/* LemmaIndexVectorizer - Turns the lemma index of one article into a
+ * TF-IDF feature vector against the training set Vocabulary. This is the
+ * vectorization CreateVectorMapper does for every record, pulled out so
+ * that anything else that has to vectorize articles the same way (like
+ * the online classification server) reuses it rather than copying it.
+ * Vectors are SequentialAccessSparseVectors, built through a
+ * SparseVectorBuffer, with term frequencies weighted and vectors
+ * normalized as TermWeighting says.
+ * One instance per thread: it reuses a LemmaIndexCursor and a
+ * SparseVectorBuffer between calls. The Vocabulary itself is read-only and
+ * can be shared.
+ */
+
+package code.vectorcreate;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.mahout.math.Vector;
+
+public class LemmaIndexVectorizer {
+	//told about lemmas the vectorizer had to leave out of a vector
+	public interface Listener {
+		//lemma at the cursor is not in the vocabulary
+		void unknownLemma(LemmaIndexCursor cursor) throws IOException;
+
+		//lemma at the cursor has a count that is not a well formed integer
+		void malformedCount(LemmaIndexCursor cursor) throws IOException;
+	}
+
+	//listener that ignores everything
+	public static final Listener SILENT = new Listener() {
+		public void unknownLemma(LemmaIndexCursor cursor) {
+		}
+
+		public void malformedCount(LemmaIndexCursor cursor) {
+		}
+	};
+
+	private final Vocabulary vocabulary;
+	//if false, a single out of vocabulary lemma rejects the whole article (training set behaviour)
+	private final boolean skipUnknownLemmas;
+	private final TermWeighting weighting;
+	private final LemmaIndexCursor cursor = new LemmaIndexCursor();
+	//(feature index, TF-IDF) pairs of the article being vectorized
+	private final SparseVectorBuffer buffer = new SparseVectorBuffer();
+
+	//vectorizer of raw TF-IDFs
+	public LemmaIndexVectorizer(Vocabulary vocabulary, boolean skipUnknownLemmas) {
+		this(vocabulary, skipUnknownLemmas, TermWeighting.RAW);
+	}
+
+	public LemmaIndexVectorizer(Vocabulary vocabulary, boolean skipUnknownLemmas, TermWeighting weighting) {
+		this.vocabulary = vocabulary;
+		this.skipUnknownLemmas = skipUnknownLemmas;
+		this.weighting = weighting;
+	}
+
+	//length of all feature vectors
+	public int numFeatures() {
+		return vocabulary.size();
+	}
+
+	/* builds the TF-IDF vector of the lemma index in bytes[start, end)--returns null if the article has to be
+	 * rejected because of an out of vocabulary lemma*/
+	public Vector vectorize(byte[] bytes, int start, int end, Listener listener) throws IOException {
+		//adds one (feature index, TF-IDF) pair to the buffer per iteration
+		buffer.clear();
+		cursor.reset(bytes, start, end);
+		while (cursor.next()) {
+			int termFreq = cursor.count();
+			//looks lemma up by its bytes, no String needed
+			int featureIndex = vocabulary.indexOf(cursor.lemmaBytes(), cursor.lemmaStart(), cursor.lemmaLength());
+
+			if (termFreq < 0) {
+				listener.malformedCount(cursor);
+				continue;
+			}
+			if (featureIndex == -1) {
+				listener.unknownLemma(cursor);
+				if (!skipUnknownLemmas) {
+					return null;
+				}
+				//otherwise we simply exclude all out of vocabulary lemmas
+				continue;
+			}
+			//calculates TF-IDF with the precomputed IDF
+			double tfIDF = weighting.tf(termFreq) * (double) vocabulary.idf(featureIndex);
+			buffer.add(featureIndex, tfIDF);
+		}
+		//a lemma listed twice keeps its last count
+		buffer.sortByIndex(false);
+		if (weighting.l2Normalize()) {
+			buffer.scaleToUnitLength();
+		}
+		return buffer.toVector(vocabulary.size());
+	}
+
+	//index of the tab that separates article title from lemma index in a line, or -1 if there is none
+	public static int titleEnd(byte[] bytes, int length) {
+		//article name could contain a tab, so the last tab is the separator
+		return LemmaIndexCursor.lastIndexOf(bytes, 0, length, (byte) '\t');
+	}
+
+	//article title of a line whose title ends at titleEnd
+	public static String title(byte[] bytes, int titleEnd) throws IOException {
+		return titleEnd == -1 ? "" : Text.decode(bytes, 0, titleEnd).trim();
+	}
+
+	//true if bytes[start, end) holds at least one lemma entry
+	public static boolean hasWords(byte[] bytes, int start, int end) {
+		return LemmaIndexCursor.indexOf(bytes, start, end, (byte) '<') != -1;
+	}
+
+	//lemma at the cursor as a String--only meant for messages
+	public static String lemma(LemmaIndexCursor cursor) throws IOException {
+		return Text.decode(cursor.lemmaBytes(), cursor.lemmaStart(), cursor.lemmaLength());
+	}
+}
@@ -0,0 +1,79 @@
+/* MappedFiles - Loads the bytes of the binary side files (Vocabulary,
+ * ProfessionsIndex, CompactModel) into a ByteBuffer, memory-mapped from a
+ * local file or read onto the heap from any file system. A Shared keeps
+ * the object parsed from one mapping per JVM, so that reused task JVMs
+ * skip loading the same file again.
+ */
+
+package code.vectorcreate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+public class MappedFiles {
+	//turns the bytes of a file into the object they hold
+	public interface Parser<T> {
+		T parse(ByteBuffer buffer) throws IOException;
+	}
+
+	//memory-maps a local file, read-only
+	public static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			//the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	//reads a file from any file system onto the heap
+	public static ByteBuffer read(FileSystem fs, Path path) throws IOException {
+		InputStream in = fs.open(path);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			IOUtils.copyBytes(in, bytes, 64 * 1024, false);
+			return ByteBuffer.wrap(bytes.toByteArray());
+		} finally {
+			in.close();
+		}
+	}
+
+	//the object parsed from the file of one kind this JVM mapped last
+	public static class Shared<T> {
+		//what the file is, for the log
+		private final String description;
+		private final Parser<T> parser;
+		private T value;
+		private String key;
+
+		public Shared(String description, Parser<T> parser) {
+			this.description = description;
+			this.parser = parser;
+		}
+
+		/* returns the object of file, mapping and parsing it only if this JVM has not already mapped the same
+		 * file (same path, size and modification time)*/
+		public synchronized T get(File file) throws IOException {
+			String fileKey = file.getCanonicalPath() + ":" + file.length() + ":" + file.lastModified();
+			if (value == null || !fileKey.equals(key)) {
+				value = parser.parse(map(file));
+				key = fileKey;
+				System.out.println("Mapped " + description + " " + file + " (" + file.length() + " bytes).");
+			} else {
+				System.out.println("Reusing " + description + " already mapped by this JVM: " + file);
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/* ProfessionsIndex - Compact binary form of professions.txt, the list of
+ * people and their professions. Every distinct profession gets a label id
+ * (its position in sorted order), and every person's professions are kept
+ * as a run of label ids in one shared int array, so looking a person up
+ * allocates nothing and the whole index is a handful of arrays instead of
+ * one HashMap entry, ArrayList and set of Strings per person.
+ *
+ * File layout (all big-endian):
+ *   int magic, int version, int numNames, int numLabels, int numLabelIds
+ *   int[numNames + 1]  offsets of each name within the name bytes
+ *   int[numNames + 1]  offsets of each name's label ids within the label ids
+ *   int[numLabelIds]   label ids, in the order professions.txt lists them
+ *   int[numLabels + 1] offsets of each label within the label bytes
+ *   byte[]             names, sorted by their UTF-8 bytes, concatenated
+ *   byte[]             profession names, sorted, concatenated
+ *
+ * Like Vocabulary, the file is memory-mapped, and shared() keeps one
+ * mapping per JVM.
+ */
+
+package code.vectorcreate;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableComparator;
+
+public class ProfessionsIndex {
+	private static final int MAGIC = 0x50413350; //"PA3P"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 20;
+	//resource the professions file is read from when no binary index is given
+	public static final String PROFESSIONS_FILE = "professions.txt";
+
+	//index mapped by this JVM, kept so reused task JVMs can skip reloading it
+	private static final MappedFiles.Shared<ProfessionsIndex> SHARED = new MappedFiles.Shared<ProfessionsIndex>(
+			"professions index", new MappedFiles.Parser<ProfessionsIndex>() {
+				public ProfessionsIndex parse(ByteBuffer buffer) throws IOException {
+					return new ProfessionsIndex(buffer);
+				}
+			});
+
+	private final ByteBuffer buffer;
+	private final int numNames;
+	private final int numLabels;
+	//absolute buffer positions of each section
+	private final int nameOffsetsStart;
+	private final int labelRunsStart;
+	private final int labelIdsStart;
+	private final int labelOffsetsStart;
+	private final int namesStart;
+	private final int labelNamesStart;
+	//label names, decoded once
+	private final LabelDictionary labels;
+
+	private ProfessionsIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a professions index file (bad magic number or version)");
+		}
+		numNames = buffer.getInt(8);
+		numLabels = buffer.getInt(12);
+		int numLabelIds = buffer.getInt(16);
+		nameOffsetsStart = HEADER_BYTES;
+		labelRunsStart = nameOffsetsStart + 4 * (numNames + 1);
+		labelIdsStart = labelRunsStart + 4 * (numNames + 1);
+		labelOffsetsStart = labelIdsStart + 4 * numLabelIds;
+		namesStart = labelOffsetsStart + 4 * (numLabels + 1);
+		labelNamesStart = namesStart + buffer.getInt(nameOffsetsStart + 4 * numNames);
+
+		List<String> labelNames = new ArrayList<String>(numLabels);
+		for (int label = 0; label < numLabels; label++) {
+			int from = buffer.getInt(labelOffsetsStart + 4 * label);
+			int to = buffer.getInt(labelOffsetsStart + 4 * (label + 1));
+			labelNames.add(decode(labelNamesStart + from, to - from));
+		}
+		labels = new LabelDictionary(labelNames);
+	}
+
+	//memory-maps a professions index file
+	public static ProfessionsIndex map(File file) throws IOException {
+		return new ProfessionsIndex(MappedFiles.map(file));
+	}
+
+	/* returns the JVM-wide index for file, mapping it only if this JVM has not already mapped the same file
+	 * (same path, size and modification time)*/
+	public static ProfessionsIndex shared(File file) throws IOException {
+		return SHARED.get(file);
+	}
+
+	//reads a professions index file from any file system onto the heap
+	public static ProfessionsIndex read(FileSystem fs, Path path) throws IOException {
+		return new ProfessionsIndex(MappedFiles.read(fs, path));
+	}
+
+	//builds the index of the professions file bundled in the JAR
+	public static ProfessionsIndex fromResource() throws IOException {
+		InputStream is = ProfessionsIndex.class.getClassLoader().getResourceAsStream(PROFESSIONS_FILE);
+		if (is == null) {
+			throw new IOException("Error while getting resource from " + PROFESSIONS_FILE);
+		}
+		// read from within the JAR
+		Builder builder = new Builder();
+		builder.parse(is);
+		return builder.build();
+	}
+
+	/* the index given by the professionsPath parameter (binary index, read onto the heap), or the index of the
+	 * professions file bundled in the JAR*/
+	public static ProfessionsIndex load(Configuration conf) throws IOException {
+		String professionsPath = conf.get("professionsPath");
+		if (professionsPath == null) {
+			return fromResource();
+		}
+		Path path = new Path(professionsPath);
+		return read(path.getFileSystem(conf), path);
+	}
+
+	//number of people
+	public int size() {
+		return numNames;
+	}
+
+	//every profession, label id = position
+	public LabelDictionary labels() {
+		return labels;
+	}
+
+	//index of the person with this name, or -1 if there is none
+	public int indexOf(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = numNames - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareName(mid, bytes);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	public String name(int person) {
+		int from = buffer.getInt(nameOffsetsStart + 4 * person);
+		int to = buffer.getInt(nameOffsetsStart + 4 * (person + 1));
+		return decode(namesStart + from, to - from);
+	}
+
+	//number of professions of person
+	public int labelCount(int person) {
+		return buffer.getInt(labelRunsStart + 4 * (person + 1)) - buffer.getInt(labelRunsStart + 4 * person);
+	}
+
+	//i-th profession of person, as label id
+	public int label(int person, int i) {
+		return buffer.getInt(labelIdsStart + 4 * (buffer.getInt(labelRunsStart + 4 * person) + i));
+	}
+
+	private String decode(int position, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(position + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	//compares stored name against the given bytes as unsigned bytes
+	private int compareName(int person, byte[] bytes) {
+		int from = namesStart + buffer.getInt(nameOffsetsStart + 4 * person);
+		int storedLength = namesStart + buffer.getInt(nameOffsetsStart + 4 * (person + 1)) - from;
+		int n = Math.min(storedLength, bytes.length);
+		for (int i = 0; i < n; i++) {
+			int a = buffer.get(from + i) & 0xff;
+			int b = bytes[i] & 0xff;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return storedLength - bytes.length;
+	}
+
+	//collects people and their professions and writes them out as a professions index
+	public static class Builder {
+		//name bytes to professions--a later entry for the same name replaces the earlier one
+		private final TreeMap<byte[], List<String>> people = new TreeMap<byte[], List<String>>(new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return WritableComparator.compareBytes(a, 0, a.length, b, 0, b.length);
+			}
+		});
+
+		public void add(String name, List<String> professions) {
+			people.put(name.getBytes(StandardCharsets.UTF_8), professions);
+		}
+
+		//adds every 'name : profession1, profession2...' line of a professions file
+		public void parse(InputStream is) throws IOException {
+			BufferedReader input = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+			String line;
+			while ((line = input.readLine()) != null) {
+				int indexToSplit = line.lastIndexOf(':');
+				if (indexToSplit == -1) {
+					continue;
+				}
+				List<String> professionsList = new ArrayList<String>();
+				for (String prof : line.substring(indexToSplit + 1).trim().split(",")) {
+					professionsList.add(prof.trim());
+				}
+				add(line.substring(0, indexToSplit).trim(), professionsList);
+			}
+			input.close();
+		}
+
+		//writes the index file--returns number of people written
+		public int writeTo(OutputStream stream) throws IOException {
+			//label ids are positions in the sorted list of all professions
+			TreeMap<String, Integer> labelIds = new TreeMap<String, Integer>(new Comparator<String>() {
+				public int compare(String a, String b) {
+					byte[] x = a.getBytes(StandardCharsets.UTF_8);
+					byte[] y = b.getBytes(StandardCharsets.UTF_8);
+					return WritableComparator.compareBytes(x, 0, x.length, y, 0, y.length);
+				}
+			});
+			int numLabelIds = 0;
+			for (List<String> professions : people.values()) {
+				for (String profession : professions) {
+					labelIds.put(profession, 0);
+				}
+				numLabelIds += professions.size();
+			}
+			List<byte[]> labelNames = new ArrayList<byte[]>();
+			for (String profession : labelIds.keySet()) {
+				labelIds.put(profession, labelNames.size());
+				labelNames.add(profession.getBytes(StandardCharsets.UTF_8));
+			}
+
+			DataOutputStream out = new DataOutputStream(stream);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(people.size());
+			out.writeInt(labelNames.size());
+			out.writeInt(numLabelIds);
+			writeOffsets(out, new ArrayList<byte[]>(people.keySet()));
+			int run = 0;
+			for (List<String> professions : people.values()) {
+				out.writeInt(run);
+				run += professions.size();
+			}
+			out.writeInt(run);
+			for (List<String> professions : people.values()) {
+				for (String profession : professions) {
+					out.writeInt(labelIds.get(profession));
+				}
+			}
+			writeOffsets(out, labelNames);
+			for (byte[] name : people.keySet()) {
+				out.write(name);
+			}
+			for (byte[] labelName : labelNames) {
+				out.write(labelName);
+			}
+			out.flush();
+			return people.size();
+		}
+
+		private static void writeOffsets(DataOutputStream out, List<byte[]> values) throws IOException {
+			int offset = 0;
+			for (byte[] value : values) {
+				out.writeInt(offset);
+				offset += value.length;
+			}
+			out.writeInt(offset);
+		}
+
+		//builds the index on the heap instead of writing it to a file
+		public ProfessionsIndex build() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			writeTo(bytes);
+			return new ProfessionsIndex(ByteBuffer.wrap(bytes.toByteArray()));
+		}
+	}
+
+	//writes the binary index of a professions file, to be passed to jobs as professionsPath
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: professions-index <professions.txt> <out professions.bin>");
+			System.exit(2);
+		}
+		Configuration conf = new Configuration();
+		Path in = new Path(args[0]);
+		Path out = new Path(args[1]);
+		Builder builder = new Builder();
+		builder.parse(in.getFileSystem(conf).open(in));
+		FileSystem fs = out.getFileSystem(conf);
+		OutputStream stream = fs.create(out, true);
+		int numNames = builder.writeTo(stream);
+		stream.close();
+		System.out.println("Wrote professions index " + out + " with " + numNames + " names.");
+	}
+}
@@ -0,0 +1,59 @@
+/* SampledLog - Rate-limited logging of events that can happen once per
+ * record, like an out-of-vocabulary lemma. The first `samples` events are
+ * printed, after that at most one every `intervalMillis`, tagged with how
+ * many events there have been so far. The events themselves are meant to be
+ * counted with Hadoop counters; the log only keeps a few examples of each.
+ */
+
+package code.vectorcreate;
+
+import java.io.PrintStream;
+
+import org.apache.hadoop.conf.Configuration;
+
+public class SampledLog {
+	private final PrintStream out;
+	private final int samples;
+	private final long intervalMillis;
+	private long events;
+	private long lastPrintMillis;
+
+	public SampledLog(PrintStream out, int samples, long intervalMillis) {
+		this.out = out;
+		this.samples = samples;
+		this.intervalMillis = intervalMillis;
+	}
+
+	/* log of the limits set in conf:
+	 * logSamples = EVENTS OF EACH KIND PRINTED BEFORE RATE LIMITING (DEFAULT 10)
+	 * logIntervalMillis = MINIMUM TIME BETWEEN TWO PRINTED EVENTS OF ONE KIND AFTER THAT (DEFAULT 60000)*/
+	public static SampledLog fromConf(Configuration conf, PrintStream out) {
+		return new SampledLog(out, conf.getInt("logSamples", 10), conf.getLong("logIntervalMillis", 60000));
+	}
+
+	//true if the next event should be printed--counts the event either way
+	public boolean sample() {
+		events++;
+		if (events <= samples) {
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		if (now - lastPrintMillis >= intervalMillis) {
+			lastPrintMillis = now;
+			return true;
+		}
+		return false;
+	}
+
+	//counts an event and prints message if it is sampled
+	public void log(String message) {
+		if (sample()) {
+			print(message);
+		}
+	}
+
+	//prints message as a sampled event, tagged with the event count past the first samples
+	public void print(String message) {
+		out.println(events <= samples ? message : message + " (event " + events + ", further events sampled)");
+	}
+}
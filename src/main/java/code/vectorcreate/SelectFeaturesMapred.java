@@ -0,0 +1,486 @@
+/* SelectFeaturesMapred - This class runs a mapreduce job that picks, for
+ * every profession, the lemmas that tell the most about it, and writes the
+ * union of those lemmas as smaller vocabularies for CreateVectorMapred.
+ * It takes as input the same file of articleName, lemmaIndex<lemma, count>
+ * pairs as ExportLemmasMapred, plus the vocabulary ExportLemmasMapred wrote
+ * (vocabularyPath). Every training set article with professions is joined
+ * with its professions' label ids, and the job counts, for every lemma of
+ * the vocabulary and every profession, the articles that have both. From
+ * those counts, the lemma's DF among the articles, the number of articles
+ * of the profession and the number of articles, the reducer scores every
+ * lemma, profession pair by chi-square or mutual information (featureScore)
+ * and keeps the best lemmas of each profession.
+ *
+ * Map output keys are (feature index << 32 | slot) longs, where slot 0 holds
+ * the lemma's DF and slot label id + 1 its DF within the profession. The
+ * profession and overall article counts go out under negative feature
+ * indices, one copy per reducer, so FeaturePartitioner hands every reducer
+ * its copy and, sorting first, they reach the reducer before any lemma.
+ * Mappers aggregate their counts in memory, like ExportLemmasMapper does.
+ *
+ * Output: <out>/part-r-* lines of profession, feature index, score and lemma
+ * for the best lemmas of each profession, and for every N in
+ * featuresPerLabel a vocabulary <out>/vocabulary-N.bin of the lemmas in
+ * the top N of any profession. The vocabularies keep the DFs and document
+ * count of the full vocabulary, so IDFs do not change. Build vectors with
+ * CreateVectorMapred -D vocabularyPath=<out>/vocabulary-N.bin
+ * -D skipUnknownTrainLemmas=true, since with a selected vocabulary nearly
+ * every training article has lemmas outside it.
+ */
+
+package code.vectorcreate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.mahout.math.list.LongArrayList;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+
+public class SelectFeaturesMapred {
+	//scores featureScore can be set to
+	public static final String CHI_SQUARE = "chi2";
+	public static final String MUTUAL_INFORMATION = "mi";
+	//names the vocabulary and professions index are linked under in each task's working directory
+	private static final String VOCABULARY_CACHE_NAME = "pa3-vocabulary.bin";
+	private static final String PROFESSIONS_CACHE_NAME = "pa3-professions.bin";
+	//DEFAULT number of distinct keys a mapper counts before writing them out
+	private static final int DEFAULT_MAP_ENTRIES = 1 << 20;
+
+	//articles the statistics were counted over
+	public static enum SelectFeaturesCounter { ARTICLES, MAP_FLUSHES }
+
+	//map output key of the count of feature in slot (0 for its DF, label id + 1 for its DF within the label)
+	static long key(int feature, int slot) {
+		return ((long) feature << 32) | slot;
+	}
+
+	static int feature(long key) {
+		return (int) (key >> 32);
+	}
+
+	static int slot(long key) {
+		return (int) key;
+	}
+
+	//vocabulary linked into the task's working directory
+	private static Vocabulary sharedVocabulary() throws IOException {
+		return Vocabulary.shared(new File(VOCABULARY_CACHE_NAME));
+	}
+
+	//professions index linked into the task's working directory, or the one bundled in the JAR
+	private static ProfessionsIndex professions(Configuration conf) throws IOException {
+		if (conf.get("professionsPath") != null) {
+			return ProfessionsIndex.shared(new File(PROFESSIONS_CACHE_NAME));
+		}
+		return ProfessionsIndex.fromResource();
+	}
+
+	//outputs lemma, profession article counts, and the profession and overall article counts at the end
+	public static class SelectFeaturesMapper extends Mapper<LongWritable, Text, LongWritable, IntWritable> {
+		private final LongWritable outputKey = new LongWritable();
+		private final IntWritable outputVal = new IntWritable();
+		private final LemmaIndexCursor cursor = new LemmaIndexCursor();
+		private final LongArrayList keys = new LongArrayList();
+		private Vocabulary vocabulary;
+		private ProfessionsIndex professions;
+		//only set if the input is split into training and test set
+		private TrainTestSplit split;
+		//counts since the last flush, written out once they hold maxEntries keys
+		private OpenLongIntHashMap counts;
+		private int maxEntries;
+		//articles per label id, and articles
+		private int[] labelArticles;
+		private int articles;
+
+		@Override
+		protected void setup(Mapper<LongWritable, Text, LongWritable, IntWritable>.Context context)
+				throws IOException, InterruptedException {
+			super.setup(context);
+			Configuration conf = context.getConfiguration();
+			vocabulary = sharedVocabulary();
+			professions = professions(conf);
+			split = TrainTestSplit.fromConf(conf);
+			maxEntries = conf.getInt("selectionMapEntries", DEFAULT_MAP_ENTRIES);
+			counts = new OpenLongIntHashMap(maxEntries);
+			labelArticles = new int[professions.labels().size()];
+		}
+
+		@Override
+		public void map(LongWritable lineNum, Text docLine, Context context)
+				throws IOException, InterruptedException {
+			byte[] bytes = docLine.getBytes();
+			int length = docLine.getLength();
+			int lastTab = LemmaIndexVectorizer.titleEnd(bytes, length);
+			String articleName = LemmaIndexVectorizer.title(bytes, lastTab);
+			int person;
+			if (lastTab == -1 || !LemmaIndexVectorizer.hasWords(bytes, lastTab + 1, length)
+					|| (person = professions.indexOf(articleName)) == -1
+					|| (split != null && split.isTest(articleName))) {
+				//no words, no professions or a test set article--not part of the statistics, as in CreateVectorMapper
+				return;
+			}
+			int numLabels = professions.labelCount(person);
+			for (int i = 0; i < numLabels; i++) {
+				labelArticles[professions.label(person, i)]++;
+			}
+			articles++;
+			context.getCounter(SelectFeaturesCounter.ARTICLES).increment(1);
+
+			cursor.reset(bytes, lastTab + 1, length);
+			while (cursor.next()) {
+				int feature = vocabulary.indexOf(cursor.lemmaBytes(), cursor.lemmaStart(), cursor.lemmaLength());
+				if (feature == -1) {
+					continue;
+				}
+				counts.adjustOrPutValue(key(feature, 0), 1, 1);
+				for (int i = 0; i < numLabels; i++) {
+					counts.adjustOrPutValue(key(feature, professions.label(person, i) + 1), 1, 1);
+				}
+			}
+			if (counts.size() >= maxEntries) {
+				flush(context);
+			}
+		}
+
+		private void flush(Context context) throws IOException, InterruptedException {
+			counts.keys(keys);
+			for (int i = 0; i < keys.size(); i++) {
+				outputKey.set(keys.getQuick(i));
+				outputVal.set(counts.get(keys.getQuick(i)));
+				context.write(outputKey, outputVal);
+			}
+			counts.clear();
+			context.getCounter(SelectFeaturesCounter.MAP_FLUSHES).increment(1);
+		}
+
+		//writes out the remaining counts, and a copy of the article counts for every reducer
+		@Override
+		protected void cleanup(Mapper<LongWritable, Text, LongWritable, IntWritable>.Context context)
+				throws IOException, InterruptedException {
+			flush(context);
+			for (int partition = 0; partition < context.getNumReduceTasks(); partition++) {
+				outputKey.set(key(-1 - partition, 0));
+				outputVal.set(articles);
+				context.write(outputKey, outputVal);
+				for (int label = 0; label < labelArticles.length; label++) {
+					if (labelArticles[label] > 0) {
+						outputKey.set(key(-1 - partition, label + 1));
+						outputVal.set(labelArticles[label]);
+						context.write(outputKey, outputVal);
+					}
+				}
+			}
+			super.cleanup(context);
+		}
+	}
+
+	//partitions lemma counts by feature index, and article counts by the reducer they were copied for
+	public static class FeaturePartitioner extends Partitioner<LongWritable, IntWritable> {
+		@Override
+		public int getPartition(LongWritable key, IntWritable count, int numPartitions) {
+			int feature = feature(key.get());
+			return feature < 0 ? (-1 - feature) % numPartitions : feature % numPartitions;
+		}
+	}
+
+	//sums partial counts
+	public static class SumCombiner extends Reducer<LongWritable, IntWritable, LongWritable, IntWritable> {
+		private final IntWritable outputVal = new IntWritable();
+
+		@Override
+		public void reduce(LongWritable key, Iterable<IntWritable> counts, Context context)
+				throws IOException, InterruptedException {
+			int sum = 0;
+			for (IntWritable count : counts) {
+				sum += count.get();
+			}
+			outputVal.set(sum);
+			context.write(key, outputVal);
+		}
+	}
+
+	//lemma of a profession's top list
+	private static class ScoredFeature {
+		final int feature;
+		final double score;
+
+		ScoredFeature(int feature, double score) {
+			this.feature = feature;
+			this.score = score;
+		}
+	}
+
+	//lowest score first, so the head of a top list is the feature to replace
+	private static final Comparator<ScoredFeature> BY_SCORE = new Comparator<ScoredFeature>() {
+		public int compare(ScoredFeature a, ScoredFeature b) {
+			if (a.score != b.score) {
+				return a.score < b.score ? -1 : 1;
+			}
+			//ties go to the lower feature index, which is kept
+			return b.feature - a.feature;
+		}
+	};
+
+	//scores every lemma, profession pair of its partition and outputs the best lemmas of every profession
+	public static class SelectFeaturesReducer extends Reducer<LongWritable, IntWritable, Text, Text> {
+		private final Text outputKey = new Text();
+		private final Text outputVal = new Text();
+		private Vocabulary vocabulary;
+		private LabelDictionary labels;
+		private boolean mutualInformation;
+		private int featuresPerLabel;
+		//article counts, which come first
+		private long articles;
+		private long[] labelArticles;
+		//DF of the feature whose profession counts are coming in
+		private long featureArticles;
+		private List<PriorityQueue<ScoredFeature>> topLists;
+
+		@Override
+		protected void setup(Reducer<LongWritable, IntWritable, Text, Text>.Context context)
+				throws IOException, InterruptedException {
+			super.setup(context);
+			Configuration conf = context.getConfiguration();
+			vocabulary = sharedVocabulary();
+			labels = professions(conf).labels();
+			mutualInformation = conf.get("featureScore", CHI_SQUARE).equals(MUTUAL_INFORMATION);
+			featuresPerLabel = maxFeaturesPerLabel(conf);
+			labelArticles = new long[labels.size()];
+			topLists = new ArrayList<PriorityQueue<ScoredFeature>>(labels.size());
+			for (int label = 0; label < labels.size(); label++) {
+				topLists.add(new PriorityQueue<ScoredFeature>(featuresPerLabel + 1, BY_SCORE));
+			}
+		}
+
+		@Override
+		public void reduce(LongWritable key, Iterable<IntWritable> counts, Context context)
+				throws IOException, InterruptedException {
+			long sum = 0;
+			for (IntWritable count : counts) {
+				sum += count.get();
+			}
+			int feature = feature(key.get());
+			int slot = slot(key.get());
+			if (feature < 0) {
+				if (slot == 0) {
+					articles += sum;
+				} else {
+					labelArticles[slot - 1] += sum;
+				}
+			} else if (slot == 0) {
+				featureArticles = sum;
+			} else {
+				double score = score(sum, featureArticles, labelArticles[slot - 1], articles);
+				if (score > 0) {
+					offer(topLists.get(slot - 1), new ScoredFeature(feature, score));
+				}
+			}
+		}
+
+		private void offer(PriorityQueue<ScoredFeature> topList, ScoredFeature candidate) {
+			if (topList.size() < featuresPerLabel) {
+				topList.add(candidate);
+			} else if (BY_SCORE.compare(candidate, topList.peek()) > 0) {
+				topList.poll();
+				topList.add(candidate);
+			}
+		}
+
+		/* chi-square or mutual information of a lemma and a profession from the 2x2 table of articles with
+		 * and without either--0 unless the lemma appears with the profession more often than by chance, since
+		 * only lemmas that point to a profession help tell it apart*/
+		private double score(long both, long withFeature, long withLabel, long all) {
+			double n11 = both;
+			double n10 = withFeature - both;
+			double n01 = withLabel - both;
+			double n00 = all - withFeature - withLabel + both;
+			if (n11 * n00 <= n10 * n01) {
+				return 0;
+			}
+			if (!mutualInformation) {
+				double difference = n11 * n00 - n10 * n01;
+				return all * difference * difference / ((n11 + n01) * (n11 + n10) * (n10 + n00) * (n01 + n00));
+			}
+			return (information(n11, n11 + n10, n11 + n01, all) + information(n10, n11 + n10, n10 + n00, all)
+					+ information(n01, n01 + n00, n11 + n01, all) + information(n00, n01 + n00, n10 + n00, all));
+		}
+
+		//one cell's term of the mutual information, in bits
+		private static double information(double cell, double row, double column, double all) {
+			return cell == 0 ? 0 : cell / all * Math.log(all * cell / (row * column)) / Math.log(2);
+		}
+
+		//outputs profession, feature index \t score \t lemma lines, best lemma first
+		@Override
+		protected void cleanup(Reducer<LongWritable, IntWritable, Text, Text>.Context context)
+				throws IOException, InterruptedException {
+			for (int label = 0; label < labels.size(); label++) {
+				List<ScoredFeature> top = new ArrayList<ScoredFeature>(topLists.get(label));
+				Collections.sort(top, Collections.reverseOrder(BY_SCORE));
+				outputKey.set(labels.name(label));
+				for (ScoredFeature scored : top) {
+					outputVal.set(scored.feature + "\t" + scored.score + "\t" + vocabulary.lemma(scored.feature));
+					context.write(outputKey, outputVal);
+				}
+			}
+			super.cleanup(context);
+		}
+	}
+
+	//vocabulary sizes to select, from featuresPerLabel
+	static int[] featuresPerLabel(Configuration conf) {
+		String[] values = conf.getStrings("featuresPerLabel", "100", "1000", "10000");
+		int[] sizes = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			sizes[i] = Integer.parseInt(values[i].trim());
+		}
+		return sizes;
+	}
+
+	static int maxFeaturesPerLabel(Configuration conf) {
+		int max = 0;
+		for (int n : featuresPerLabel(conf)) {
+			max = Math.max(max, n);
+		}
+		return max;
+	}
+
+	/* writes the vocabulary of every lemma of vocabulary that is among the first n lemmas of any profession's
+	 * top list--returns number of lemmas written*/
+	public static int writeVocabulary(FileSystem fs, Vocabulary vocabulary, List<List<Integer>> topLists, int n,
+			Path vocabularyPath) throws IOException {
+		BitSet selected = new BitSet(vocabulary.size());
+		for (List<Integer> topList : topLists) {
+			for (int i = 0; i < Math.min(n, topList.size()); i++) {
+				selected.set(topList.get(i));
+			}
+		}
+		Vocabulary.Builder builder = new Vocabulary.Builder();
+		for (int feature = selected.nextSetBit(0); feature >= 0; feature = selected.nextSetBit(feature + 1)) {
+			builder.add(vocabulary.lemma(feature), vocabulary.docFreq(feature));
+		}
+		OutputStream out = fs.create(vocabularyPath, true);
+		int numLemmas = builder.writeTo(out, vocabulary.numDocuments());
+		out.close();
+		return numLemmas;
+	}
+
+	/* reads every profession's top list (feature indices, best first) from the part files in dir--each
+	 * reducer scored a share of the lemmas, so the lists of all parts are merged by score*/
+	public static List<List<Integer>> readTopLists(FileSystem fs, Path dir, LabelDictionary labels, int n)
+			throws IOException {
+		List<List<ScoredFeature>> scored = new ArrayList<List<ScoredFeature>>(labels.size());
+		for (int label = 0; label < labels.size(); label++) {
+			scored.add(new ArrayList<ScoredFeature>());
+		}
+		for (FileStatus status : fs.listStatus(dir)) {
+			if (!status.getPath().getName().startsWith("part-")) {
+				continue;
+			}
+			BufferedReader input = new BufferedReader(new InputStreamReader(fs.open(status.getPath()),
+					StandardCharsets.UTF_8));
+			String line;
+			while ((line = input.readLine()) != null) {
+				//lemma goes last, it could contain a tab
+				String[] fields = line.split("\t", 4);
+				scored.get(labels.id(fields[0])).add(
+						new ScoredFeature(Integer.parseInt(fields[1]), Double.parseDouble(fields[2])));
+			}
+			input.close();
+		}
+		List<List<Integer>> topLists = new ArrayList<List<Integer>>(labels.size());
+		for (List<ScoredFeature> candidates : scored) {
+			Collections.sort(candidates, Collections.reverseOrder(BY_SCORE));
+			List<Integer> topList = new ArrayList<Integer>(Math.min(n, candidates.size()));
+			for (int i = 0; i < Math.min(n, candidates.size()); i++) {
+				topList.add(candidates.get(i).feature);
+			}
+			topLists.add(topList);
+		}
+		return topLists;
+	}
+
+	//runs mapreduce job
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		/* command requires additional parameter:
+		 * vocabularyPath = PATH TO BINARY VOCABULARY WRITTEN BY ExportLemmasMapred--ONLY ITS LEMMAS ARE SCORED
+		 * optional parameters (-D name=value):
+		 * featureScore = 'chi2' (DEFAULT) OR 'mi' (MUTUAL INFORMATION)
+		 * featuresPerLabel = COMMA SEPARATED LIST OF N, LEMMAS KEPT PER PROFESSION--ONE VOCABULARY
+		 *   vocabulary-N.bin IS WRITTEN PER N (DEFAULT 100,1000,10000)
+		 * professionsPath = PATH TO BINARY PROFESSIONS INDEX (DEFAULT: PARSE professions.txt FROM THE JAR)
+		 * testRatio, splitSeed = SPLIT THE ARTICLES (SEE TrainTestSplit)--ONLY TRAINING SET ARTICLES ARE COUNTED.
+		 *   MUST MATCH THE ExportLemmasMapred RUN
+		 * selectionMapEntries = COUNTS A MAPPER HOLDS BEFORE WRITING THEM OUT (DEFAULT 1048576)
+		 * combineSplitSize = TARGET SIZE OF COMBINED INPUT SPLITS (128m, 1g...), SEE LemmaIndexInput
+		 */
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (otherArgs.length != 2 || conf.get("vocabularyPath") == null) {
+			System.err.println("Usage: select-features-mapred -D vocabularyPath=<vocabulary> <in> <out>");
+			System.exit(2);
+		}
+		System.exit(run(conf, otherArgs[0], otherArgs[1]) ? 0 : 1);
+	}
+
+	//runs the job over in and writes the top lists and the selected vocabularies to out--returns false if the job failed
+	public static boolean run(Configuration conf, String in, String out) throws Exception {
+		Job job = Job.getInstance(conf, "Select features");
+		job.setJarByClass(SelectFeaturesMapred.class);
+		job.setMapperClass(SelectFeaturesMapper.class);
+		job.setMapOutputKeyClass(LongWritable.class);
+		job.setMapOutputValueClass(IntWritable.class);
+		job.setPartitionerClass(FeaturePartitioner.class);
+		job.setCombinerClass(SumCombiner.class);
+		job.setReducerClass(SelectFeaturesReducer.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Text.class);
+		Path vocabularyPath = new Path(conf.get("vocabularyPath"));
+		CacheFiles.add(job, vocabularyPath, VOCABULARY_CACHE_NAME, conf);
+		if (conf.get("professionsPath") != null) {
+			CacheFiles.add(job, new Path(conf.get("professionsPath")), PROFESSIONS_CACHE_NAME, conf);
+		}
+		LemmaIndexInput.setInput(job, in);
+		FileOutputFormat.setOutputPath(job, new Path(out));
+		if (!job.waitForCompletion(true)) {
+			return false;
+		}
+
+		FileSystem fs = vocabularyPath.getFileSystem(conf);
+		Vocabulary vocabulary = Vocabulary.read(fs, vocabularyPath);
+		LabelDictionary labels = ProfessionsIndex.load(conf).labels();
+		List<List<Integer>> topLists = readTopLists(fs, new Path(out), labels, maxFeaturesPerLabel(conf));
+		System.out.println("Scored " + vocabulary.size() + " lemmas by " + conf.get("featureScore", CHI_SQUARE)
+				+ " over " + job.getCounters().findCounter(SelectFeaturesCounter.ARTICLES).getValue() + " articles.");
+		for (int n : featuresPerLabel(conf)) {
+			Path selectedPath = new Path(out, "vocabulary-" + n + ".bin");
+			int numLemmas = writeVocabulary(fs, vocabulary, topLists, n, selectedPath);
+			System.out.println("Wrote vocabulary " + selectedPath + " with the top " + n + " lemmas per profession, "
+					+ numLemmas + " lemmas.");
+		}
+		return true;
+	}
+}
@@ -0,0 +1,119 @@
+/* SparseVectorBuffer - Gathers the (feature index, value) pairs of one
+ * vector in primitive arrays that are reused from vector to vector, sorts
+ * them by feature index once, and copies them into a
+ * SequentialAccessSparseVector. Building a RandomAccessSparseVector
+ * instead hashes every pair into an open-addressing map on the way in, and
+ * VectorWritable walks that map in hash order and writes every index in
+ * full; a sequential vector is written in index order with delta-encoded
+ * indices, and whoever reads it back (the trainers, the scorers) gets its
+ * features in order too. One instance per thread.
+ */
+
+package code.vectorcreate;
+
+import java.util.Arrays;
+
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+public class SparseVectorBuffer {
+	//pairs in the order they were added, as index << 32 | position in values
+	private long[] keys = new long[128];
+	private double[] values = new double[128];
+	//pairs sorted by index, one per index--filled by sortByIndex()
+	private int[] sortedIndices = new int[128];
+	private double[] sortedValues = new double[128];
+	private int size;
+	private boolean sorted;
+
+	//empties the buffer for the next vector
+	public void clear() {
+		size = 0;
+		sorted = false;
+	}
+
+	public void add(int index, double value) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * size);
+			values = Arrays.copyOf(values, 2 * size);
+		}
+		keys[size] = (long) index << 32 | size;
+		values[size++] = value;
+		sorted = false;
+	}
+
+	/* sorts the pairs by index and merges the pairs of an index added more than once--into the sum of their
+	 * values if sumDuplicates is set, otherwise into the last value added. Returns the number of indices.
+	 * Call it once per vector, after the last add()*/
+	public int sortByIndex(boolean sumDuplicates) {
+		Arrays.sort(keys, 0, size);
+		if (sortedIndices.length < keys.length) {
+			sortedIndices = new int[keys.length];
+			sortedValues = new double[keys.length];
+		}
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			int index = (int) (keys[i] >>> 32);
+			double value = values[(int) keys[i]];
+			if (n > 0 && sortedIndices[n - 1] == index) {
+				//ties are in the order they were added, so a later pair overwrites an earlier one
+				sortedValues[n - 1] = sumDuplicates ? sortedValues[n - 1] + value : value;
+			} else {
+				sortedIndices[n] = index;
+				sortedValues[n++] = value;
+			}
+		}
+		size = n;
+		sorted = true;
+		return n;
+	}
+
+	//index of the i-th pair in index order--only valid after sortByIndex()
+	public int index(int i) {
+		return sortedIndices[i];
+	}
+
+	//value of the i-th pair in index order--only valid after sortByIndex()
+	public double value(int i) {
+		return sortedValues[i];
+	}
+
+	public void setValue(int i, double value) {
+		sortedValues[i] = value;
+	}
+
+	//divides every value by the L2 norm of all values, if it is not 0
+	public void scaleToUnitLength() {
+		checkSorted();
+		double sumOfSquares = 0;
+		for (int i = 0; i < size; i++) {
+			sumOfSquares += sortedValues[i] * sortedValues[i];
+		}
+		if (sumOfSquares == 0) {
+			return;
+		}
+		double norm = Math.sqrt(sumOfSquares);
+		for (int i = 0; i < size; i++) {
+			setValue(i, sortedValues[i] / norm);
+		}
+	}
+
+	//new vector of the sorted pairs, zeros left out
+	public Vector toVector(int cardinality) {
+		checkSorted();
+		Vector vector = new SequentialAccessSparseVector(cardinality, size);
+		for (int i = 0; i < size; i++) {
+			//indices ascend, so every pair is appended to the end of the vector's arrays
+			if (sortedValues[i] != 0) {
+				vector.setQuick(sortedIndices[i], sortedValues[i]);
+			}
+		}
+		return vector;
+	}
+
+	private void checkSorted() {
+		if (!sorted) {
+			throw new IllegalStateException("Pairs were added since the buffer was last sorted");
+		}
+	}
+}
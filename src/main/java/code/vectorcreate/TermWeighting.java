@@ -0,0 +1,53 @@
+/* TermWeighting - How the term frequencies of a TF-IDF vector are weighted
+ * and whether the vector is normalized, set up from the job configuration.
+ * With logTF=true a term frequency counts as 1 + ln(TF) instead of TF, so
+ * a lemma an article mentions 50 times weighs about 5 times what one
+ * mentioned once does, not 50 times. With l2Normalize=true every vector is
+ * scaled to unit L2 length, so long articles do not outweigh short ones in
+ * training. Both are off by default. Training set, test set and the
+ * articles ClassificationServer vectorizes must all be weighted the same
+ * way, so every one of them has to be given the same options.
+ */
+
+package code.vectorcreate;
+
+import org.apache.hadoop.conf.Configuration;
+
+public class TermWeighting {
+	public static final String LOG_TF = "logTF";
+	public static final String L2_NORMALIZE = "l2Normalize";
+
+	//raw term frequencies, no normalization
+	public static final TermWeighting RAW = new TermWeighting(false, false);
+
+	private final boolean logTF;
+	private final boolean l2Normalize;
+
+	public TermWeighting(boolean logTF, boolean l2Normalize) {
+		this.logTF = logTF;
+		this.l2Normalize = l2Normalize;
+	}
+
+	//weighting configured by logTF and l2Normalize
+	public static TermWeighting fromConf(Configuration conf) {
+		return new TermWeighting(conf.getBoolean(LOG_TF, false), conf.getBoolean(L2_NORMALIZE, false));
+	}
+
+	//weight of a lemma counted termFreq times in an article
+	public double tf(double termFreq) {
+		if (!logTF) {
+			return termFreq;
+		}
+		return termFreq > 0 ? 1 + Math.log(termFreq) : 0;
+	}
+
+	//true if vectors are scaled to unit length once their TF-IDFs are known
+	public boolean l2Normalize() {
+		return l2Normalize;
+	}
+
+	@Override
+	public String toString() {
+		return (logTF ? "log TF" : "raw TF") + (l2Normalize ? ", L2 normalized" : "");
+	}
+}
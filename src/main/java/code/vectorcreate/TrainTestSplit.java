@@ -0,0 +1,52 @@
+/* TrainTestSplit - Decides whether an article belongs to the training set
+ * or the test set from a Murmur hash of its title, so every job that sees
+ * the same article (ExportLemmasMapred counting training set DFs,
+ * CreateVectorMapred writing train and test vectors) puts it on the same
+ * side without sharing any state, and a rerun reproduces the same split.
+ * Set up from the job configuration:
+ * testRatio = FRACTION OF ARTICLES IN THE TEST SET (0 to 1)
+ * splitSeed = HASH SEED, CHANGE IT FOR A DIFFERENT SPLIT OF THE SAME RATIO (DEFAULT 0)
+ */
+
+package code.vectorcreate;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.hash.Hash;
+import org.apache.hadoop.util.hash.MurmurHash;
+
+public class TrainTestSplit {
+	public static final String TEST_RATIO = "testRatio";
+	public static final String SPLIT_SEED = "splitSeed";
+	//ratio resolution--titles hash into this many buckets
+	private static final int BUCKETS = 10000;
+
+	private final Hash hash = MurmurHash.getInstance();
+	private final int testBuckets;
+	private final int seed;
+
+	public TrainTestSplit(double testRatio, int seed) {
+		if (testRatio < 0 || testRatio > 1) {
+			throw new IllegalArgumentException("Test ratio must be between 0 and 1: " + testRatio);
+		}
+		this.testBuckets = (int) Math.round(testRatio * BUCKETS);
+		this.seed = seed;
+	}
+
+	//split configured by testRatio and splitSeed--null if no testRatio is set
+	public static TrainTestSplit fromConf(Configuration conf) {
+		String testRatio = conf.get(TEST_RATIO);
+		if (testRatio == null) {
+			return null;
+		}
+		return new TrainTestSplit(Double.parseDouble(testRatio), conf.getInt(SPLIT_SEED, 0));
+	}
+
+	//true if the article with this (trimmed) title is in the test set
+	public boolean isTest(String articleTitle) {
+		byte[] bytes = articleTitle.getBytes(StandardCharsets.UTF_8);
+		int bucket = (hash.hash(bytes, bytes.length, seed) & Integer.MAX_VALUE) % BUCKETS;
+		return bucket < testBuckets;
+	}
+}
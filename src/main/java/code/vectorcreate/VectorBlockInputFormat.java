@@ -0,0 +1,83 @@
+/* VectorBlockInputFormat - Reads the block files VectorBlockOutputFormat
+ * writes (part-*.vblocks) as the (Text, VectorWritable) records of the
+ * SequenceFile format, so a job over test vectors takes either format:
+ * the key is 'title:::profession1,profession2...', as CreateVectorMapper
+ * writes test vectors, and the value the document's vector. Block files
+ * are not split--a file is one split, read by one task.
+ */
+
+package code.vectorcreate;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.mahout.math.VectorWritable;
+
+public class VectorBlockInputFormat extends FileInputFormat<Text, VectorWritable> {
+	//blocks hold no sync markers, so a reader can only start at the header
+	@Override
+	protected boolean isSplitable(JobContext context, Path file) {
+		return false;
+	}
+
+	@Override
+	public RecordReader<Text, VectorWritable> createRecordReader(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		return new VectorBlockRecordReader();
+	}
+
+	public static class VectorBlockRecordReader extends RecordReader<Text, VectorWritable> {
+		private VectorBlockReader reader;
+		private long length;
+		private final Text key = new Text();
+		private final VectorWritable value = new VectorWritable();
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+			FileSplit fileSplit = (FileSplit) split;
+			Path file = fileSplit.getPath();
+			length = fileSplit.getLength();
+			reader = new VectorBlockReader(file.getFileSystem(context.getConfiguration()), file,
+					context.getConfiguration(), true);
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException, InterruptedException {
+			if (!reader.next()) {
+				return false;
+			}
+			key.set(reader.key());
+			value.set(reader.vector());
+			return true;
+		}
+
+		@Override
+		public Text getCurrentKey() {
+			return key;
+		}
+
+		@Override
+		public VectorWritable getCurrentValue() {
+			return value;
+		}
+
+		@Override
+		public float getProgress() throws IOException {
+			return length == 0 ? 1 : Math.min(1, (float) reader.position() / length);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+	}
+}
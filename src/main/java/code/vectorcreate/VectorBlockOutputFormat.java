@@ -0,0 +1,51 @@
+/* VectorBlockOutputFormat - Writes (article title, MultiLabelVectorWritable)
+ * records into one VectorBlockWriter block file per task, named
+ * part-*.vblocks. The label ids of the records are professions index label
+ * ids, so the index (professionsPath, or professions.txt from the JAR) is
+ * loaded for the label names of the file header. Columns are compressed
+ * with the job's output codec if output compression is on
+ * (mapreduce.output.fileoutputformat.compress). Block size is set with
+ * vectorBlockBytes (raw bytes, DEFAULT 1 MB).
+ */
+
+package code.vectorcreate;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.mahout.math.MultiLabelVectorWritable;
+
+public class VectorBlockOutputFormat extends FileOutputFormat<Text, MultiLabelVectorWritable> {
+	@Override
+	public RecordWriter<Text, MultiLabelVectorWritable> getRecordWriter(TaskAttemptContext job)
+			throws IOException, InterruptedException {
+		Configuration conf = job.getConfiguration();
+		CompressionCodec codec = null;
+		if (getCompressOutput(job)) {
+			codec = ReflectionUtils.newInstance(getOutputCompressorClass(job, DefaultCodec.class), conf);
+		}
+		Path file = getDefaultWorkFile(job, VectorBlockWriter.EXTENSION);
+		LabelDictionary labels = ProfessionsIndex.load(conf).labels();
+		final VectorBlockWriter writer = new VectorBlockWriter(file.getFileSystem(conf).create(file, false), labels,
+				codec, conf.getInt("vectorBlockBytes", 1 << 20));
+		return new RecordWriter<Text, MultiLabelVectorWritable>() {
+			@Override
+			public void write(Text title, MultiLabelVectorWritable record) throws IOException {
+				writer.write(title, record.getLabels(), record.getVector());
+			}
+
+			@Override
+			public void close(TaskAttemptContext context) throws IOException {
+				writer.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,250 @@
+/* VectorBlockReader - Reads a block file written by VectorBlockWriter one
+ * document at a time. The current document's label ids, feature indices
+ * and values are decoded into reused primitive arrays, so a reader that
+ * works on the arrays allocates nothing per document; vector() builds a
+ * Mahout vector for code that needs one. Opened without titles, the title
+ * column of every block is skipped unread (and never decompressed).
+ */
+
+package code.vectorcreate;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+public class VectorBlockReader implements Closeable {
+	private final FSDataInputStream in;
+	private final boolean readTitles;
+	private final CompressionCodec codec;
+	private final Decompressor decompressor;
+	private final LabelDictionary labels;
+
+	//columns of the current block
+	private final DataInputBuffer labelColumn = new DataInputBuffer();
+	private final DataInputBuffer indexColumn = new DataInputBuffer();
+	private ByteBuffer valueColumn;
+	private final DataInputBuffer titleColumn = new DataInputBuffer();
+	private int blockDocumentsLeft;
+	private int cardinality;
+	private boolean ended;
+
+	//the current document
+	private int numLabels;
+	private int[] labelIds = new int[4];
+	private int numNonZeros;
+	private int[] indices = new int[256];
+	private float[] values = new float[256];
+	private final Text title = new Text();
+
+	public VectorBlockReader(FileSystem fs, Path path, Configuration conf, boolean readTitles) throws IOException {
+		this.in = fs.open(path);
+		this.readTitles = readTitles;
+		try {
+			if (in.readInt() != VectorBlockWriter.MAGIC) {
+				throw new IOException(path + " is not a vector block file");
+			}
+			int version = in.readInt();
+			if (version != VectorBlockWriter.VERSION) {
+				throw new IOException(path + " has unsupported version " + version);
+			}
+			String codecClass = Text.readString(in);
+			if (codecClass.isEmpty()) {
+				codec = null;
+				decompressor = null;
+			} else {
+				codec = (CompressionCodec) ReflectionUtils.newInstance(conf.getClassByName(codecClass), conf);
+				decompressor = CodecPool.getDecompressor(codec);
+			}
+			int numLabelNames = WritableUtils.readVInt(in);
+			List<String> names = new ArrayList<String>(numLabelNames);
+			for (int i = 0; i < numLabelNames; i++) {
+				names.add(Text.readString(in));
+			}
+			labels = new LabelDictionary(names);
+		} catch (ClassNotFoundException cnfe) {
+			in.close();
+			throw new IOException("Codec of " + path + " not found", cnfe);
+		} catch (IOException ioe) {
+			in.close();
+			throw ioe;
+		}
+	}
+
+	//true if path is named like a block file
+	public static boolean isBlockFile(Path path) {
+		return path.getName().endsWith(VectorBlockWriter.EXTENSION);
+	}
+
+	//names of the label ids
+	public LabelDictionary labels() {
+		return labels;
+	}
+
+	//moves to the next document--returns false at the end of the file
+	public boolean next() throws IOException {
+		if (blockDocumentsLeft == 0 && !readBlock()) {
+			return false;
+		}
+		blockDocumentsLeft--;
+
+		numLabels = WritableUtils.readVInt(labelColumn);
+		if (labelIds.length < numLabels) {
+			labelIds = new int[numLabels];
+		}
+		for (int i = 0; i < numLabels; i++) {
+			labelIds[i] = WritableUtils.readVInt(labelColumn);
+		}
+
+		numNonZeros = WritableUtils.readVInt(indexColumn);
+		if (indices.length < numNonZeros) {
+			indices = new int[Math.max(numNonZeros, 2 * indices.length)];
+			values = new float[indices.length];
+		}
+		int index = 0;
+		for (int i = 0; i < numNonZeros; i++) {
+			index += WritableUtils.readVInt(indexColumn);
+			indices[i] = index;
+			values[i] = valueColumn.getFloat();
+		}
+
+		if (readTitles) {
+			title.readFields(titleColumn);
+		}
+		return true;
+	}
+
+	//reads the next block's columns--returns false at the end marker
+	private boolean readBlock() throws IOException {
+		if (ended) {
+			return false;
+		}
+		int documents = in.readInt();
+		if (documents == 0) {
+			ended = true;
+			return false;
+		}
+		blockDocumentsLeft = documents;
+		cardinality = in.readInt();
+		byte[] labelBytes = readColumn();
+		labelColumn.reset(labelBytes, labelBytes.length);
+		byte[] indexBytes = readColumn();
+		indexColumn.reset(indexBytes, indexBytes.length);
+		valueColumn = ByteBuffer.wrap(readColumn());
+		if (readTitles) {
+			byte[] titleBytes = readColumn();
+			titleColumn.reset(titleBytes, titleBytes.length);
+		} else {
+			in.readInt();
+			IOUtils.skipFully(in, in.readInt());
+		}
+		return true;
+	}
+
+	private byte[] readColumn() throws IOException {
+		int rawLength = in.readInt();
+		int storedLength = in.readInt();
+		byte[] stored = new byte[storedLength];
+		in.readFully(stored);
+		if (codec == null) {
+			return stored;
+		}
+		byte[] raw = new byte[rawLength];
+		decompressor.reset();
+		InputStream stream = codec.createInputStream(new ByteArrayInputStream(stored), decompressor);
+		IOUtils.readFully(stream, raw, 0, rawLength);
+		return raw;
+	}
+
+	//vector length of the current document
+	public int cardinality() {
+		return cardinality;
+	}
+
+	public int numLabels() {
+		return numLabels;
+	}
+
+	public int label(int i) {
+		return labelIds[i];
+	}
+
+	//label names of the current document
+	public String[] labelNames() {
+		String[] names = new String[numLabels];
+		for (int i = 0; i < numLabels; i++) {
+			names[i] = labels.name(labelIds[i]);
+		}
+		return names;
+	}
+
+	public int numNonZeros() {
+		return numNonZeros;
+	}
+
+	//feature indices of the current document, ascending--only the first numNonZeros() are valid
+	public int[] indices() {
+		return indices;
+	}
+
+	//values matching indices()
+	public float[] values() {
+		return values;
+	}
+
+	//title of the current document--only read if the reader was opened with titles
+	public Text title() {
+		if (!readTitles) {
+			throw new IllegalStateException("Reader was opened without titles");
+		}
+		return title;
+	}
+
+	//key of the current document as CreateVectorMapper writes test vectors: 'title:::profession1,profession2...'
+	public String key() {
+		StringBuilder key = new StringBuilder(title().toString());
+		for (int i = 0; i < numLabels; i++) {
+			key.append(i == 0 ? ":::" : ",").append(labels.name(labelIds[i]));
+		}
+		return key.toString();
+	}
+
+	//bytes of the file read so far--whole blocks at a time
+	public long position() throws IOException {
+		return in.getPos();
+	}
+
+	//the current document's vector, a new one on every call--sequential, as indices ascend
+	public Vector vector() {
+		Vector vector = new SequentialAccessSparseVector(cardinality, numNonZeros);
+		for (int i = 0; i < numNonZeros; i++) {
+			vector.setQuick(indices[i], values[i]);
+		}
+		return vector;
+	}
+
+	public void close() throws IOException {
+		if (decompressor != null) {
+			CodecPool.returnDecompressor(decompressor);
+		}
+		in.close();
+	}
+}
@@ -0,0 +1,156 @@
+/* VectorBlockWriter - Writes labeled document vectors in a columnar block
+ * file, the alternative to SequenceFile<Text, VectorWritable> that
+ * CreateVectorMapred writes with -D vectorFormat=blocks (through
+ * VectorBlockOutputFormat). Read with VectorBlockReader.
+ *
+ * The header holds the label names once (label ids are ids into it). Then
+ * come blocks of documents, each holding four columns one after the other:
+ * label ids (vint count, vint ids per document), feature indices (vint
+ * count, then ascending indices as vint deltas), feature values (floats)
+ * and titles (Text). Every column is stored as its raw length, its stored
+ * length and its bytes, compressed on its own if a codec is given, so a
+ * reader that does not need titles skips the whole title column unread.
+ *
+ * file:  int MAGIC, int VERSION, Text codec class ('' for none),
+ *        vint number of labels, Text label names...
+ * block: int documents, int vector length, 4 x (int raw length, int stored length, bytes)
+ * end:   int 0
+ */
+
+package code.vectorcreate;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.mahout.math.Vector;
+
+public class VectorBlockWriter implements Closeable {
+	static final int MAGIC = 0x50413342; //"PA3B"
+	static final int VERSION = 1;
+	//file name extension of block files, how readers tell them from SequenceFiles
+	public static final String EXTENSION = ".vblocks";
+
+	private final DataOutputStream out;
+	private final CompressionCodec codec;
+	private final Compressor compressor;
+	//raw bytes of the columns after which a block is written
+	private final int blockBytes;
+
+	//columns of the block being filled
+	private final DataOutputBuffer labelColumn = new DataOutputBuffer();
+	private final DataOutputBuffer indexColumn = new DataOutputBuffer();
+	private final DataOutputBuffer valueColumn = new DataOutputBuffer();
+	private final DataOutputBuffer titleColumn = new DataOutputBuffer();
+	private final DataOutputBuffer compressed = new DataOutputBuffer();
+	private int blockDocuments;
+	private int blockCardinality = -1;
+	//scratch for sorting a vector's features
+	private int[] indices = new int[256];
+
+	//writes the header to out--codec may be null for uncompressed columns
+	public VectorBlockWriter(DataOutputStream out, LabelDictionary labels, CompressionCodec codec, int blockBytes)
+			throws IOException {
+		this.out = out;
+		this.codec = codec;
+		this.compressor = codec == null ? null : CodecPool.getCompressor(codec);
+		this.blockBytes = blockBytes;
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		Text.writeString(out, codec == null ? "" : codec.getClass().getName());
+		WritableUtils.writeVInt(out, labels.size());
+		for (String name : labels.names()) {
+			Text.writeString(out, name);
+		}
+	}
+
+	//appends one document--labelIds are ids into the header's label names
+	public void write(Text title, int[] labelIds, Vector vector) throws IOException {
+		if (blockDocuments > 0 && vector.size() != blockCardinality) {
+			//a block has one vector length
+			writeBlock();
+		}
+		blockCardinality = vector.size();
+
+		WritableUtils.writeVInt(labelColumn, labelIds.length);
+		for (int labelId : labelIds) {
+			WritableUtils.writeVInt(labelColumn, labelId);
+		}
+
+		int nonZeros = vector.getNumNondefaultElements();
+		if (indices.length < nonZeros) {
+			indices = new int[Math.max(nonZeros, 2 * indices.length)];
+		}
+		int n = 0;
+		for (Vector.Element e : vector.nonZeroes()) {
+			indices[n++] = e.index();
+		}
+		Arrays.sort(indices, 0, n);
+		WritableUtils.writeVInt(indexColumn, n);
+		int previous = 0;
+		for (int i = 0; i < n; i++) {
+			WritableUtils.writeVInt(indexColumn, indices[i] - previous);
+			previous = indices[i];
+			valueColumn.writeFloat((float) vector.getQuick(indices[i]));
+		}
+
+		title.write(titleColumn);
+		blockDocuments++;
+		if (labelColumn.getLength() + indexColumn.getLength() + valueColumn.getLength() + titleColumn.getLength()
+				>= blockBytes) {
+			writeBlock();
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		if (blockDocuments == 0) {
+			return;
+		}
+		out.writeInt(blockDocuments);
+		out.writeInt(blockCardinality);
+		writeColumn(labelColumn);
+		writeColumn(indexColumn);
+		writeColumn(valueColumn);
+		writeColumn(titleColumn);
+		blockDocuments = 0;
+	}
+
+	//writes column, compressed if there is a codec, and empties it
+	private void writeColumn(DataOutputBuffer column) throws IOException {
+		out.writeInt(column.getLength());
+		if (codec == null) {
+			out.writeInt(column.getLength());
+			out.write(column.getData(), 0, column.getLength());
+		} else {
+			compressed.reset();
+			compressor.reset();
+			CompressionOutputStream stream = codec.createOutputStream(compressed, compressor);
+			stream.write(column.getData(), 0, column.getLength());
+			stream.finish();
+			out.writeInt(compressed.getLength());
+			out.write(compressed.getData(), 0, compressed.getLength());
+		}
+		column.reset();
+	}
+
+	//writes the last block and the end marker, and closes the stream
+	public void close() throws IOException {
+		try {
+			writeBlock();
+			out.writeInt(0);
+		} finally {
+			if (compressor != null) {
+				CodecPool.returnCompressor(compressor);
+			}
+			out.close();
+		}
+	}
+}
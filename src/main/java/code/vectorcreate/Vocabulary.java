@@ -0,0 +1,255 @@
+/* Vocabulary - Compact binary form of the training set vocabulary.
+ * Lemmas are stored sorted by their UTF-8 bytes (the same order Hadoop
+ * sorts Text keys in), and a lemma's position in that order is its
+ * feature index, so indices are deterministic for a given vocabulary.
+ * Alongside every lemma we keep its document frequency and its
+ * precomputed IDF, so mappers never call Math.log10 per lemma occurrence.
+ *
+ * File layout (all big-endian):
+ *   int magic, int version, int numLemmas, int numDocuments
+ *   int[numLemmas + 1] offsets of each lemma within the lemma bytes
+ *   int[numLemmas]     document frequencies
+ *   float[numLemmas]   IDFs, log10(numDocuments / docFreq)
+ *   byte[]             lemma bytes, concatenated
+ *
+ * The file is memory-mapped rather than read onto the heap, and shared()
+ * keeps one mapping per JVM (MappedFiles.Shared) so that reused task JVMs
+ * skip loading it.
+ */
+
+package code.vectorcreate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableComparator;
+
+public class Vocabulary {
+	private static final int MAGIC = 0x50413356; //"PA3V"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+
+	//vocabulary mapped by this JVM, kept so reused task JVMs can skip reloading it
+	private static final MappedFiles.Shared<Vocabulary> SHARED = new MappedFiles.Shared<Vocabulary>("vocabulary",
+			new MappedFiles.Parser<Vocabulary>() {
+				public Vocabulary parse(ByteBuffer buffer) throws IOException {
+					return new Vocabulary(buffer);
+				}
+			});
+
+	private final ByteBuffer buffer;
+	private final int numLemmas;
+	private final int numDocuments;
+	//absolute buffer positions of each section
+	private final int offsetsStart;
+	private final int docFreqsStart;
+	private final int idfsStart;
+	private final int lemmasStart;
+
+	private Vocabulary(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a vocabulary file (bad magic number or version)");
+		}
+		numLemmas = buffer.getInt(8);
+		numDocuments = buffer.getInt(12);
+		offsetsStart = HEADER_BYTES;
+		docFreqsStart = offsetsStart + 4 * (numLemmas + 1);
+		idfsStart = docFreqsStart + 4 * numLemmas;
+		lemmasStart = idfsStart + 4 * numLemmas;
+	}
+
+	//memory-maps a vocabulary file
+	public static Vocabulary map(File file) throws IOException {
+		return new Vocabulary(MappedFiles.map(file));
+	}
+
+	//reads a vocabulary file from any file system onto the heap
+	public static Vocabulary read(FileSystem fs, Path path) throws IOException {
+		return new Vocabulary(MappedFiles.read(fs, path));
+	}
+
+	/* returns the JVM-wide vocabulary for file, mapping it only if this JVM has not already mapped the
+	 * same file (same path, size and modification time)*/
+	public static Vocabulary shared(File file) throws IOException {
+		return SHARED.get(file);
+	}
+
+	//number of lemmas, which is also the length of all feature vectors
+	public int size() {
+		return numLemmas;
+	}
+
+	//number of documents the IDFs were computed against
+	public int numDocuments() {
+		return numDocuments;
+	}
+
+	public int docFreq(int featureIndex) {
+		return buffer.getInt(docFreqsStart + 4 * featureIndex);
+	}
+
+	public float idf(int featureIndex) {
+		return buffer.getFloat(idfsStart + 4 * featureIndex);
+	}
+
+	public String lemma(int featureIndex) {
+		int from = lemmaOffset(featureIndex);
+		int to = lemmaOffset(featureIndex + 1);
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(lemmasStart + from + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	//feature index of the lemma in bytes[start, start + length), or -1 if it is not in the vocabulary
+	public int indexOf(byte[] bytes, int start, int length) {
+		int low = 0;
+		int high = numLemmas - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareLemma(mid, bytes, start, length);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int lemmaOffset(int featureIndex) {
+		return buffer.getInt(offsetsStart + 4 * featureIndex);
+	}
+
+	//compares stored lemma against the given bytes as unsigned bytes, like Text does
+	private int compareLemma(int featureIndex, byte[] bytes, int start, int length) {
+		int from = lemmasStart + lemmaOffset(featureIndex);
+		int storedLength = lemmasStart + lemmaOffset(featureIndex + 1) - from;
+		int n = Math.min(storedLength, length);
+		for (int i = 0; i < n; i++) {
+			int a = buffer.get(from + i) & 0xff;
+			int b = bytes[start + i] & 0xff;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return storedLength - length;
+	}
+
+	/* collects lemma, document frequency pairs in any order and writes them out as a vocabulary--used by
+	 * ExportLemmasMapred to emit vocabulary files, and by mappers to build one in memory from a text DF file*/
+	public static class Builder {
+		private final List<Entry> entries = new ArrayList<Entry>();
+
+		private static class Entry {
+			final byte[] lemma;
+			final int docFreq;
+
+			Entry(byte[] lemma, int docFreq) {
+				this.lemma = lemma;
+				this.docFreq = docFreq;
+			}
+		}
+
+		public void add(byte[] lemma, int docFreq) {
+			entries.add(new Entry(lemma, docFreq));
+		}
+
+		public void add(String lemma, int docFreq) {
+			add(lemma.getBytes(StandardCharsets.UTF_8), docFreq);
+		}
+
+		/* drops the lemmas pruning keeps out of a vocabulary of numDocuments documents, then, if pruning caps
+		 * the size, all but the lemmas with the highest DFs (ties go to the lemma that sorts first, so the
+		 * result does not depend on the order lemmas were added in)--returns number of lemmas dropped*/
+		public int prune(VocabularyPruning pruning, int numDocuments) {
+			int before = entries.size();
+			List<Entry> kept = new ArrayList<Entry>(before);
+			for (Entry entry : entries) {
+				if (pruning.keeps(entry.docFreq, numDocuments)) {
+					kept.add(entry);
+				}
+			}
+			int maxSize = pruning.maxVocabularySize();
+			if (maxSize > 0 && kept.size() > maxSize) {
+				Collections.sort(kept, new Comparator<Entry>() {
+					public int compare(Entry a, Entry b) {
+						if (a.docFreq != b.docFreq) {
+							return a.docFreq > b.docFreq ? -1 : 1;
+						}
+						return WritableComparator.compareBytes(a.lemma, 0, a.lemma.length, b.lemma, 0, b.lemma.length);
+					}
+				});
+				kept.subList(maxSize, kept.size()).clear();
+			}
+			entries.clear();
+			entries.addAll(kept);
+			return before - entries.size();
+		}
+
+		//sorts the collected lemmas and writes the vocabulary file--returns number of unique lemmas written
+		public int writeTo(OutputStream stream, int numDocuments) throws IOException {
+			Collections.sort(entries, new Comparator<Entry>() {
+				public int compare(Entry a, Entry b) {
+					return WritableComparator.compareBytes(a.lemma, 0, a.lemma.length, b.lemma, 0, b.lemma.length);
+				}
+			});
+			//if somehow identical lemmas have been collected, keeps only the first
+			List<Entry> unique = new ArrayList<Entry>(entries.size());
+			for (Entry entry : entries) {
+				Entry last = unique.isEmpty() ? null : unique.get(unique.size() - 1);
+				if (last != null && WritableComparator.compareBytes(last.lemma, 0, last.lemma.length,
+						entry.lemma, 0, entry.lemma.length) == 0) {
+					System.err.println("Vocab has non-unique lemmas: " + new String(entry.lemma, StandardCharsets.UTF_8));
+					continue;
+				}
+				unique.add(entry);
+			}
+
+			DataOutputStream out = new DataOutputStream(stream);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(unique.size());
+			out.writeInt(numDocuments);
+			int offset = 0;
+			for (Entry entry : unique) {
+				out.writeInt(offset);
+				offset += entry.lemma.length;
+			}
+			out.writeInt(offset);
+			for (Entry entry : unique) {
+				out.writeInt(entry.docFreq);
+			}
+			for (Entry entry : unique) {
+				out.writeFloat((float) Math.log10((double) numDocuments / entry.docFreq));
+			}
+			for (Entry entry : unique) {
+				out.write(entry.lemma);
+			}
+			out.flush();
+			return unique.size();
+		}
+
+		//builds the vocabulary on the heap instead of writing it to a file
+		public Vocabulary build(int numDocuments) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			writeTo(bytes, numDocuments);
+			return new Vocabulary(ByteBuffer.wrap(bytes.toByteArray()));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/* VocabularyPruning - Decides which lemmas make it into the vocabulary
+ * by their document frequency. Lemmas that appear in very few documents
+ * are mostly erroneous/junk lemmas, lemmas that appear in most documents
+ * carry little information, and capping the vocabulary keeps every vector
+ * and the model small. Set up from the job configuration: minDF is the
+ * lowest DF a lemma needs (default 2), maxDFRatio the highest DF it may
+ * have, as a fraction of the documents (default 1, no ceiling), and
+ * maxVocabularySize keeps only that many lemmas, those with the highest
+ * DFs (default 0, no cap). minDF only looks at a lemma's own DF, so
+ * ExportLemmasReducer applies it; the ceiling and the cap need the
+ * document count and all lemmas, so they are applied when the binary
+ * vocabulary is written.
+ */
+
+package code.vectorcreate;
+
+import org.apache.hadoop.conf.Configuration;
+
+public class VocabularyPruning {
+	public static final String MIN_DF = "minDF";
+	public static final String MAX_DF_RATIO = "maxDFRatio";
+	public static final String MAX_VOCABULARY_SIZE = "maxVocabularySize";
+
+	private final int minDF;
+	private final double maxDFRatio;
+	private final int maxVocabularySize;
+
+	public VocabularyPruning(int minDF, double maxDFRatio, int maxVocabularySize) {
+		if (maxDFRatio <= 0 || maxDFRatio > 1) {
+			throw new IllegalArgumentException("Max DF ratio must be above 0 and at most 1: " + maxDFRatio);
+		}
+		this.minDF = minDF;
+		this.maxDFRatio = maxDFRatio;
+		this.maxVocabularySize = maxVocabularySize;
+	}
+
+	//pruning configured by minDF, maxDFRatio and maxVocabularySize
+	public static VocabularyPruning fromConf(Configuration conf) {
+		return new VocabularyPruning(conf.getInt(MIN_DF, 2), conf.getDouble(MAX_DF_RATIO, 1),
+				conf.getInt(MAX_VOCABULARY_SIZE, 0));
+	}
+
+	//true if a lemma with docFreq has enough documents
+	public boolean meetsMinDF(int docFreq) {
+		return docFreq >= minDF;
+	}
+
+	//true if a lemma with docFreq is kept out of a vocabulary of numDocuments documents by neither bound
+	public boolean keeps(int docFreq, int numDocuments) {
+		return docFreq >= minDF && docFreq <= maxDFRatio * numDocuments;
+	}
+
+	//vocabulary size cap, 0 for none
+	public int maxVocabularySize() {
+		return maxVocabularySize;
+	}
+
+	@Override
+	public String toString() {
+		return "min DF " + minDF + ", max DF ratio " + maxDFRatio
+				+ (maxVocabularySize > 0 ? ", at most " + maxVocabularySize + " lemmas" : "");
+	}
+}